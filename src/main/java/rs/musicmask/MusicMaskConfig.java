@@ -28,6 +28,9 @@ import net.runelite.client.config.Config;
 import net.runelite.client.config.ConfigGroup;
 import net.runelite.client.config.ConfigItem;
 import net.runelite.client.config.Range;
+import rs.musicmask.midisynth.DevicePcmPlayer;
+import rs.musicmask.midisynth.MidiAudioStream;
+import rs.musicmask.midisynth.TrackPrefetcher;
 
 @ConfigGroup("musicMask")
 public interface MusicMaskConfig extends Config
@@ -54,4 +57,113 @@ public interface MusicMaskConfig extends Config
         return MusicMaskSoundBanks.HIGH_DETAIL;
     }
 
+    @Range(
+            min = MidiAudioStream.MIN_CONTROL_RATE,
+            max = MidiAudioStream.MAX_CONTROL_RATE
+    )
+    @ConfigItem(
+            position = 2,
+            keyName = "setControlRate",
+            name = "Control Rate (Hz)",
+            description = "Sets how many times per second notes update their pitch, volume and panning. Lower values use less CPU"
+    )
+    default int getControlRate() {
+        return MidiAudioStream.DEFAULT_CONTROL_RATE;
+    }
+
+    @Range(
+            min = 1,
+            max = 8
+    )
+    @ConfigItem(
+            position = 3,
+            keyName = "setRenderThreads",
+            name = "Render Threads",
+            description = "Sets how many CPU threads busy songs are rendered with. 1 renders everything on a single thread"
+    )
+    default int getRenderThreads() {
+        return 1;
+    }
+
+    @Range(
+            min = MidiAudioStream.MIN_SILENCE_THRESHOLD,
+            max = MidiAudioStream.MAX_SILENCE_THRESHOLD
+    )
+    @ConfigItem(
+            position = 4,
+            keyName = "setSilenceThreshold",
+            name = "Silence Threshold (dB)",
+            description = "Notes quieter than this many decibels below full volume are skipped, and released notes this quiet are stopped"
+    )
+    default int getSilenceThreshold() {
+        return MidiAudioStream.DEFAULT_SILENCE_THRESHOLD;
+    }
+
+    @Range(
+            min = DevicePcmPlayer.MIN_BLOCK_SIZE,
+            max = DevicePcmPlayer.MAX_BLOCK_SIZE
+    )
+    @ConfigItem(
+            position = 5,
+            keyName = "setBlockSize",
+            name = "Block Size (samples)",
+            description = "Sets how many samples are rendered at a time. Larger blocks use less CPU, smaller blocks add less latency"
+    )
+    default int getBlockSize() {
+        return DevicePcmPlayer.DEFAULT_BLOCK_SIZE;
+    }
+
+    @Range(
+            min = DevicePcmPlayer.MIN_BUFFER_SIZE,
+            max = DevicePcmPlayer.MAX_BUFFER_SIZE
+    )
+    @ConfigItem(
+            position = 6,
+            keyName = "setOutputBufferSize",
+            name = "Output Buffer (samples)",
+            description = "Sets the size of the sound device's buffer. Larger buffers are less likely to crackle, smaller buffers add less latency"
+    )
+    default int getOutputBufferSize() {
+        return DevicePcmPlayer.DEFAULT_BUFFER_SIZE;
+    }
+
+    @Range(
+            max = DevicePcmPlayer.MAX_RENDER_AHEAD
+    )
+    @ConfigItem(
+            position = 7,
+            keyName = "setRenderAhead",
+            name = "Render Ahead (ms)",
+            description = "Sets how much music is rendered ahead of the sound device, to ride out short stalls. 0 writes straight to the device"
+    )
+    default int getRenderAhead() {
+        return DevicePcmPlayer.DEFAULT_RENDER_AHEAD;
+    }
+
+    @Range(
+            max = TrackPrefetcher.MAX_CANDIDATES
+    )
+    @ConfigItem(
+            position = 8,
+            keyName = "setPrefetchTracks",
+            name = "Prefetch Tracks",
+            description = "Sets how many of the tracks most likely to play next are prepared in the background. 0 turns prefetching off"
+    )
+    default int getPrefetchTracks() {
+        return TrackPrefetcher.DEFAULT_CANDIDATES;
+    }
+
+    @Range(
+            max = DevicePcmPlayer.MAX_CROSSFADE_LENGTH
+    )
+    @ConfigItem(
+            position = 9,
+            keyName = "setCrossfadeLength",
+            name = "Crossfade (ms)",
+            description = "Sets how long the old track fades out while the new one fades in when the track changes"
+    )
+    default int getCrossfadeLength() {
+        return DevicePcmPlayer.DEFAULT_CROSSFADE_LENGTH;
+    }
+
 }
@@ -35,15 +35,22 @@ import net.runelite.client.eventbus.Subscribe;
 import net.runelite.client.events.ConfigChanged;
 import net.runelite.client.plugins.Plugin;
 import net.runelite.client.plugins.PluginDescriptor;
-import rs.musicmask.midisynth.DevicePcmPlayer;
+import rs.musicmask.midisynth.AudioOutputDevice;
 import rs.musicmask.midisynth.MidiAudioStream;
-import rs.musicmask.midisynth.MidiReceiver;
-import rs.musicmask.midisynth.MidiTrackLoader;
+import rs.musicmask.midisynth.MidiEventSequence;
+import rs.musicmask.midisynth.SoundBank;
+import rs.musicmask.midisynth.TrackCache;
+import rs.musicmask.midisynth.TrackPrefetcher;
 
 import javax.inject.Inject;
-import javax.sound.midi.*;
 import javax.sound.sampled.LineUnavailableException;
-import java.io.ByteArrayInputStream;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
 
 @PluginDescriptor(
         enabledByDefault = false,
@@ -65,19 +72,31 @@ public class MusicMaskPlugin extends Plugin
 
     private int clientVolume;
 
+    // Only read and written on the client thread, to notice when the game changes track
+    private int observedTrackId;
+
+    private boolean observedJingle;
+
+    // Only read and written on the audio control thread, which makes every track transition in order
     private int currentTrackId;
 
+    private int jingleTrackId;
+
     private MidiAudioStream midiAudioStream;
 
-    private Sequencer sequencer;
+    private MidiAudioStream jingleStream;
+
+    private ExecutorService audioExecutor;
+
+    private TrackCache trackCache;
 
-    private MidiTrackLoader midiTrackLoader;
+    private TrackPrefetcher trackPrefetcher;
+
+    private AudioOutputDevice audioOutputDevice;
 
     @Override
     protected void startUp()
     {
-        currentTrackId = client.getMusicCurrentTrackId();
-
         if (client.getGameState().equals(GameState.LOGIN_SCREEN)) {
             clientVolume = 255;
         }
@@ -85,30 +104,57 @@ public class MusicMaskPlugin extends Plugin
             clientVolume = client.getMusicVolume();
         }
 
-        initSoundSynth();
+        // Nothing is playing yet, so the first client tick starts whatever the game is playing
+        observedTrackId = -1;
+        observedJingle = false;
+        currentTrackId = -1;
+        jingleTrackId = -1;
+
+        audioExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "music-mask-audio-control");
+            thread.setDaemon(true);
+            return thread;
+        });
+        trackCache = new TrackCache();
+        trackPrefetcher = new TrackPrefetcher(trackCache, this::loadTrackData);
+        trackPrefetcher.setCandidates(musicMaskConfig.getPrefetchTracks());
+        audioOutputDevice = new AudioOutputDevice();
+        configureOutputDevice();
+    }
+
+    private void configureOutputDevice() {
+        try {
+            audioOutputDevice.configure(musicMaskConfig.getBlockSize(), musicMaskConfig.getOutputBufferSize(), musicMaskConfig.getRenderAhead());
+        } catch (LineUnavailableException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void startTrack(int trackId) {
+        MidiEventSequence midiSequence = trackCache.get(6, trackId, () -> loadTrackData(6, trackId));
+        if (midiSequence != null) {
+            startSong(musicMaskConfig.getSoundBank().getSoundBankName(), midiSequence, musicMaskConfig.getMusicVolume());
+            trackPrefetcher.trackStarted(6, trackId, false, musicMaskConfig.getSoundBank().getSoundBankName());
+        }
     }
 
-    private void initSoundSynth() {
-        client.setMusicVolume(1);
-        currentTrackId = client.getMusicCurrentTrackId();
+    private byte[] loadTrackData(int index, int trackId) {
+        CompletableFuture<byte[]> trackData = new CompletableFuture<>();
+        clientThread.invoke(() -> {
+            try {
+                trackData.complete(client.getIndex(index).getFileIds(trackId) != null ? client.getIndex(index).loadData(trackId, 0) : null);
+            } catch (RuntimeException e) {
+                trackData.completeExceptionally(e);
+            }
+        });
         try {
-            clientThread.invoke(() -> {
-                if (client.isPlayingJingle() && currentTrackId != -1) {
-                    if (client.getIndex(11).getFileIds(currentTrackId) != null) {
-                        midiTrackLoader = new MidiTrackLoader(new ByteArrayInputStream(client.getIndex(11).loadData(currentTrackId, 0)));
-                        playSong(musicMaskConfig.getSoundBank().getSoundBankName(), midiTrackLoader.getMidiSequence(), musicMaskConfig.getMusicVolume());
-                    }
-                }
-                if (!client.isPlayingJingle() && currentTrackId != -1) {
-                    if (client.getIndex(6).getFileIds(currentTrackId) != null) {
-                        midiTrackLoader = new MidiTrackLoader(new ByteArrayInputStream(client.getIndex(6).loadData(currentTrackId, 0)));
-                        playSong(musicMaskConfig.getSoundBank().getSoundBankName(), midiTrackLoader.getMidiSequence(), musicMaskConfig.getMusicVolume());
-                    }
-                }
-            });
-        } catch (Exception e) {
+            return trackData.get(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
             e.printStackTrace();
         }
+        return null;
     }
 
     @Provides
@@ -117,109 +163,189 @@ public class MusicMaskPlugin extends Plugin
         return configManager.getConfig(MusicMaskConfig.class);
     }
 
-    public void playSong(String soundBankName, Sequence midiSequence, int volume) {
-        new Thread(() -> {
-            midiAudioStream = new MidiAudioStream(soundBankName);
-            midiAudioStream.setInitialPatch(9, 128);
+    public void playSong(String soundBankName, MidiEventSequence midiSequence, int volume) {
+        audioExecutor.execute(() -> startSong(soundBankName, midiSequence, volume));
+    }
+
+    private void startSong(String soundBankName, MidiEventSequence midiSequence, int volume) {
+        midiAudioStream = createStream(soundBankName, midiSequence, volume);
+        midiAudioStream.setSequence(midiSequence, true);
+        try {
+            log.debug("Starting song, output latency {} ms, render load {}, {}, track cache {}, prefetch {}", audioOutputDevice.getLatencyMillis(), audioOutputDevice.getRenderLoad(), audioOutputDevice.getMetrics(), trackCache, trackPrefetcher);
+            audioOutputDevice.play(midiAudioStream, musicMaskConfig.getCrossfadeLength());
+        } catch (LineUnavailableException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private MidiAudioStream createStream(String soundBankName, MidiEventSequence midiSequence, int volume) {
+        MidiAudioStream audioStream = new MidiAudioStream(soundBankName, midiSequence.getPatchUsage());
+        audioStream.setInitialPatch(MidiAudioStream.PERCUSSION_CHANNEL, MidiAudioStream.PERCUSSION_PATCH);
+        audioStream.setPcmStreamVolume(volume);
+        audioStream.setControlRate(musicMaskConfig.getControlRate());
+        audioStream.setRenderThreads(musicMaskConfig.getRenderThreads());
+        audioStream.setSilenceThreshold(musicMaskConfig.getSilenceThreshold());
+        return audioStream;
+    }
+
+    private void playJingle(int trackId) {
+        if (trackId == jingleTrackId) {
+            return;
+        }
+
+        jingleTrackId = trackId;
+        MidiEventSequence jingleSequence = trackCache.get(11, trackId, () -> loadTrackData(11, trackId));
+        if (jingleSequence == null) {
+            return;
+        }
+
+        String soundBankName = musicMaskConfig.getSoundBank().getSoundBankName();
+        MidiAudioStream jingle = createStream(soundBankName, jingleSequence, musicMaskConfig.getMusicVolume());
+        jingle.setSequence(jingleSequence, false);
+        if (jingleStream != null) {
+            jingleStream.close();
+        }
+        jingleStream = jingle;
+        try {
+            // The current track is paused rather than closed, so it carries on from the same place after the jingle
+            audioOutputDevice.playOverlay(jingle, 0);
+        } catch (LineUnavailableException e) {
+            e.printStackTrace();
+        }
+        trackPrefetcher.trackStarted(11, trackId, true, soundBankName);
+    }
+
+    private void stopJingle() {
+        jingleTrackId = -1;
+        if (jingleStream != null) {
+            audioOutputDevice.stopOverlay();
+            jingleStream.close();
+            jingleStream = null;
+        }
+    }
+
+    private void setSongVolume(int volume) {
+        if (midiAudioStream != null) {
             midiAudioStream.setPcmStreamVolume(volume);
+        }
+        if (jingleStream != null) {
+            jingleStream.setPcmStreamVolume(volume);
+        }
+    }
 
-            MidiReceiver midiReceiver = new MidiReceiver(midiAudioStream);
-            try {
-                sequencer = MidiSystem.getSequencer(false);
-                sequencer.open();
-                sequencer.getTransmitter().setReceiver(midiReceiver);
-                sequencer.setSequence(midiSequence);
-                if (!client.isPlayingJingle()) {
-                    sequencer.setLoopCount(Sequencer.LOOP_CONTINUOUSLY);
-                }
-
-                if (!sequencer.isRunning()) {
-                    sequencer.start();
-                }
-
-                DevicePcmPlayer devicePcmPlayer = new DevicePcmPlayer();
-                devicePcmPlayer.init();
-                devicePcmPlayer.setStream(midiAudioStream);
-                devicePcmPlayer.open();
-                devicePcmPlayer.samples = new int[1024];
-                do {
-                    devicePcmPlayer.fill(devicePcmPlayer.samples, 256);
-                    devicePcmPlayer.write();
-                } while (sequencer != null && sequencer.isOpen() && sequencer.isRunning());
-            } catch (MidiUnavailableException | InvalidMidiDataException | LineUnavailableException e) {
-                e.printStackTrace();
+    private void applyStreamSetting(Consumer<MidiAudioStream> setting) {
+        if (midiAudioStream != null) {
+            setting.accept(midiAudioStream);
+        }
+        if (jingleStream != null) {
+            setting.accept(jingleStream);
+        }
+    }
+
+    private void changeTrack(int trackId) {
+        currentTrackId = trackId;
+        // The device closes the old track once it has faded out, while the new one is prepared and faded in
+        if (midiAudioStream != null) {
+            audioOutputDevice.fadeOut(musicMaskConfig.getCrossfadeLength());
+            midiAudioStream = null;
+        }
+        if (trackId != -1) {
+            startTrack(trackId);
+        }
+    }
+
+    private void applyTrackState(int trackId, boolean jingle) {
+        if (jingle) {
+            if (trackId != -1 && trackId != currentTrackId) {
+                playJingle(trackId);
             }
-        }).start();
+            return;
+        }
+
+        if (jingleStream != null) {
+            stopJingle();
+        }
+        if (trackId != currentTrackId) {
+            changeTrack(trackId);
+        }
     }
 
-    private void setSongVolume(int volume) {
-        midiAudioStream.setPcmStreamVolume(volume);
+    private void changeSoundBank() {
+        SoundBank.releaseAllExcept(musicMaskConfig.getSoundBank().getSoundBankName());
+        int jingleId = jingleTrackId;
+        stopJingle();
+        if (midiAudioStream != null) {
+            audioOutputDevice.fadeOut(musicMaskConfig.getCrossfadeLength());
+            midiAudioStream = null;
+            startTrack(currentTrackId);
+        }
+        if (jingleId != -1) {
+            playJingle(jingleId);
+        }
     }
 
     @Subscribe
     public void onClientTick(ClientTick clientTick) {
-        new Thread(() -> {
+        if (client.getMusicVolume() != 1) {
             client.setMusicVolume(1);
-            int lastTrackId = currentTrackId;
-            if (client.getMusicCurrentTrackId() != lastTrackId && !client.isPlayingJingle()) {
-                currentTrackId = client.getMusicCurrentTrackId();
-                while (midiAudioStream != null && midiAudioStream.getVolume() > -1) {
-                    try {
-                        Thread.sleep(10);
-                        if (midiAudioStream != null) {
-                            midiAudioStream.setPcmStreamVolume(midiAudioStream.getVolume() - 1);
-                            if (midiAudioStream.getVolume() == 0) {
-                                if (sequencer != null && sequencer.isOpen() && midiAudioStream != null) {
-                                    sequencer.stop();
-                                    sequencer.close();
-                                    sequencer = null;
-                                    midiAudioStream = null;
-                                    initSoundSynth();
-                                }
-                            }
-                        }
-                    } catch (InterruptedException e) {
-                        e.printStackTrace();
-                    }
-                }
-            }
-            if (client.getMusicCurrentTrackId() != lastTrackId && client.isPlayingJingle()) {
-                if (sequencer != null && sequencer.isOpen() && midiAudioStream != null) {
-                    sequencer.stop();
-                    sequencer.close();
-                    sequencer = null;
-                    midiAudioStream = null;
-                    initSoundSynth();
-                }
-            }
-        }).start();
+        }
+
+        int trackId = client.getMusicCurrentTrackId();
+        boolean jingle = client.isPlayingJingle();
+        if (trackId != observedTrackId || jingle != observedJingle) {
+            observedTrackId = trackId;
+            observedJingle = jingle;
+            audioExecutor.execute(() -> applyTrackState(trackId, jingle));
+        }
     }
 
     @Subscribe
     protected void onConfigChanged(ConfigChanged configChanged) {
         if (configChanged.getKey().equals("setVolume")) {
-            setSongVolume((Integer.parseInt(configChanged.getNewValue())));
+            int volume = Integer.parseInt(configChanged.getNewValue());
+            audioExecutor.execute(() -> setSongVolume(volume));
+        }
+        if (configChanged.getKey().equals("setControlRate")) {
+            int rate = Integer.parseInt(configChanged.getNewValue());
+            audioExecutor.execute(() -> applyStreamSetting(audioStream -> audioStream.setControlRate(rate)));
+        }
+        if (configChanged.getKey().equals("setRenderThreads")) {
+            int threads = Integer.parseInt(configChanged.getNewValue());
+            audioExecutor.execute(() -> applyStreamSetting(audioStream -> audioStream.setRenderThreads(threads)));
+        }
+        if (configChanged.getKey().equals("setSilenceThreshold")) {
+            int decibels = Integer.parseInt(configChanged.getNewValue());
+            audioExecutor.execute(() -> applyStreamSetting(audioStream -> audioStream.setSilenceThreshold(decibels)));
+        }
+        if (configChanged.getKey().equals("setBlockSize") || configChanged.getKey().equals("setOutputBufferSize") || configChanged.getKey().equals("setRenderAhead")) {
+            audioExecutor.execute(this::configureOutputDevice);
+        }
+        if (configChanged.getKey().equals("setPrefetchTracks")) {
+            trackPrefetcher.setCandidates(Integer.parseInt(configChanged.getNewValue()));
         }
         if (configChanged.getKey().equals("setSoundBank")) {
-            if (sequencer != null && sequencer.isOpen() && midiAudioStream != null) {
-                sequencer.stop();
-                sequencer.close();
-                sequencer = null;
-                midiAudioStream = null;
-                initSoundSynth();
-            }
+            audioExecutor.execute(this::changeSoundBank);
         }
     }
 
 
     @Override
     protected void shutDown() {
-        if (sequencer != null && sequencer.isOpen() && midiAudioStream != null) {
-            sequencer.stop();
-            sequencer.close();
-            sequencer = null;
-            midiAudioStream = null;
-            client.setMusicVolume(clientVolume);
+        audioExecutor.execute(() -> {
+            stopJingle();
+            if (midiAudioStream != null) {
+                audioOutputDevice.stop();
+                midiAudioStream = null;
+            }
+        });
+        audioExecutor.shutdown();
+        try {
+            audioExecutor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
+        client.setMusicVolume(clientVolume);
+        audioOutputDevice.close();
+        trackPrefetcher.shutdown();
     }
 }
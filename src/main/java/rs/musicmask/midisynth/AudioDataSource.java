@@ -37,6 +37,11 @@ import java.util.Objects;
  */
 public class AudioDataSource {
 
+    /**
+     * The number of samples the resampler may read past the end of the padded audio.
+     */
+    private static final int GUARD_SAMPLES = 1;
+
     /**
      * A byte array containing the raw audio in 8-bit signed little-endian format.
      */
@@ -62,6 +67,27 @@ public class AudioDataSource {
      */
     public boolean isLooping;
 
+    /**
+     * A byte array containing the audio prepared for playback, with a ping-pong loop unrolled forward and followed by
+     * guard samples, so the resampler can interpolate past the loop end without checking for it.
+     */
+    public byte[] paddedAudioData;
+
+    /**
+     * An integer value for the loop start position in the padded audio.
+     */
+    public int paddedLoopStart;
+
+    /**
+     * An integer value for the loop end position in the padded audio, looping samples wrap back to the loop start here.
+     */
+    public int paddedLoopEnd;
+
+    /**
+     * An integer value for the position in the padded audio where a ping-pong loop turns around.
+     */
+    public int paddedLoopTurn;
+
     /**
      * A method to load .ogg file resources by name, decoding them to raw 8-bit audio for use.
      * @param audioName The name of the audio resource to load.
@@ -105,7 +131,41 @@ public class AudioDataSource {
             else {
                 audioData = sampleData;
             }
+
+            createPaddedAudioData();
         }
     }
 
+    /**
+     * A method that builds the padded audio used for playback.
+     * Samples that loop play back and forth between the loop start and end, so that section is appended again in
+     * reverse, making the loop a plain forward loop. A guard sample holding the value that follows the loop end is
+     * then added, which lets the resampler interpolate the last sample of every pass without a boundary check.
+     */
+    public void createPaddedAudioData() {
+        int length = audioData.length;
+        if (isLooping && loopStart < length) {
+            int loopLength = length - loopStart;
+            paddedAudioData = new byte[length + loopLength + GUARD_SAMPLES];
+            System.arraycopy(audioData, 0, paddedAudioData, 0, length);
+            for (int index = 0; index < loopLength; index++) {
+                paddedAudioData[length + index] = audioData[length - 1 - index];
+            }
+
+            paddedLoopStart = loopStart;
+            paddedLoopEnd = length + loopLength;
+            for (int index = 0; index < GUARD_SAMPLES; index++) {
+                paddedAudioData[paddedLoopEnd + index] = paddedAudioData[loopStart + index % loopLength];
+            }
+        }
+        else {
+            paddedAudioData = new byte[length + GUARD_SAMPLES];
+            System.arraycopy(audioData, 0, paddedAudioData, 0, length);
+            paddedLoopStart = 0;
+            paddedLoopEnd = length;
+        }
+
+        paddedLoopTurn = length;
+    }
+
 }
@@ -0,0 +1,361 @@
+/*
+ * Copyright (c) 2023, Rodolfo Ruiz-Velasco <ruizvelascorodolfo@gmail.com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package rs.musicmask.midisynth;
+
+import javax.sound.sampled.LineUnavailableException;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+/**
+ * A class which keeps one sound output device open for as long as music may play, and a single thread rendering
+ * whichever stream is currently playing into it, along with an overlay stream such as a jingle. Changing tracks only
+ * swaps or crossfades the stream, the device is only reopened when its settings change or the line has been lost.
+ */
+public class AudioOutputDevice {
+
+	/**
+	 * The factory creating the sink audio is written to each time the device is opened.
+	 */
+	private final Supplier<AudioOutputSink> sinkFactory;
+
+	/**
+	 * The player holding the open output line, or null if the device is closed.
+	 */
+	private DevicePcmPlayer player;
+
+	/**
+	 * The thread rendering the current stream into the player.
+	 */
+	private Thread renderThread;
+
+	/**
+	 * A boolean value determining if the render thread should keep running.
+	 */
+	private volatile boolean running;
+
+	/**
+	 * The stream currently being played, or null if nothing is playing.
+	 */
+	private volatile MidiAudioStream stream;
+
+	/**
+	 * The stream mixed over the current one, such as a jingle, or null if there is none.
+	 */
+	private volatile MidiAudioStream overlayStream;
+
+	/**
+	 * The gain of the current stream while the overlay plays, out of {@link DevicePcmPlayer#UNITY_GAIN}.
+	 */
+	private volatile int duckGain;
+
+	/**
+	 * An integer value representing the block size in sample frames.
+	 */
+	private int blockSize = DevicePcmPlayer.DEFAULT_BLOCK_SIZE;
+
+	/**
+	 * An integer value representing the output device buffer size in sample frames.
+	 */
+	private int bufferSize = DevicePcmPlayer.DEFAULT_BUFFER_SIZE;
+
+	/**
+	 * An integer value representing how much audio is rendered ahead of the output device, in milliseconds.
+	 */
+	private int renderAhead = DevicePcmPlayer.DEFAULT_RENDER_AHEAD;
+
+	/**
+	 * Constructs a new output device which plays through the default sound device.
+	 */
+	public AudioOutputDevice() {
+		this(SourceDataLineSink::new);
+	}
+
+	/**
+	 * Constructs a new output device which writes to sinks made by a factory, such as a {@link NullAudioSink} or a
+	 * {@link MemoryAudioSink} to play without sound hardware.
+	 * @param sinkFactory The factory creating the sink each time the device is opened.
+	 */
+	public AudioOutputDevice(Supplier<AudioOutputSink> sinkFactory) {
+		this.sinkFactory = sinkFactory;
+	}
+
+	/**
+	 * A method to change the output settings. An open device is only reopened if a setting actually changed, and
+	 * carries on playing the current stream afterwards.
+	 * @param blockSize The block size in sample frames.
+	 * @param bufferSize The output device buffer size in sample frames.
+	 * @param renderAhead The amount of audio to render ahead of the output device, in milliseconds.
+	 * @throws LineUnavailableException If the device had to be reopened and could not be.
+	 */
+	public synchronized void configure(int blockSize, int bufferSize, int renderAhead) throws LineUnavailableException {
+		if (blockSize == this.blockSize && bufferSize == this.bufferSize && renderAhead == this.renderAhead) {
+			return;
+		}
+
+		this.blockSize = blockSize;
+		this.bufferSize = bufferSize;
+		this.renderAhead = renderAhead;
+		if (this.player != null) {
+			this.closeDevice();
+			this.openDevice();
+		}
+	}
+
+	/**
+	 * A method that starts playing a stream in place of the current one, crossfading between them sample by sample.
+	 * The current stream is closed once it has faded out, so it must not be used afterwards.
+	 * @param audioStream The stream to fade in.
+	 * @param fadeMillis The length of the crossfade in milliseconds.
+	 * @throws LineUnavailableException If the device could not be opened.
+	 */
+	public synchronized void play(MidiAudioStream audioStream, int fadeMillis) throws LineUnavailableException {
+		if (this.player == null || !this.player.isOpen()) {
+			this.closeDevice();
+			this.openDevice();
+		}
+
+		this.crossfade(audioStream, fadeMillis);
+	}
+
+	/**
+	 * A method that fades the current stream out while the device stays open for the next one, which can start
+	 * playing before the fade has ended. The stream is closed once it has faded out, so it must not be used afterwards.
+	 * @param fadeMillis The length of the fade in milliseconds.
+	 */
+	public synchronized void fadeOut(int fadeMillis) {
+		if (this.player == null) {
+			this.stream = null;
+			return;
+		}
+
+		this.crossfade(null, fadeMillis);
+	}
+
+	/**
+	 * A method that hands the player a stream to crossfade to, and releases any stream it dropped.
+	 * @param audioStream The stream to fade in, or null to only fade out.
+	 * @param fadeMillis The length of the crossfade in milliseconds.
+	 */
+	private void crossfade(MidiAudioStream audioStream, int fadeMillis) {
+		synchronized (this.player) {
+			this.player.crossfade(audioStream, (int) ((long) fadeMillis * DevicePcmPlayer.sampleRate / 1000L));
+			this.stream = audioStream;
+		}
+
+		this.releaseStreams(this.player);
+		LockSupport.unpark(this.renderThread);
+	}
+
+	/**
+	 * A method that stops playing the current stream, while keeping the device open for the next one.
+	 * The stream and any stream still fading out are closed, as they are no longer being rendered once this returns.
+	 */
+	public synchronized void stop() {
+		MidiAudioStream audioStream = this.stream;
+		this.stream = null;
+		if (this.player != null) {
+			synchronized (this.player) {
+				this.player.setStream(null);
+				this.player.dropFadingStream();
+			}
+
+			this.releaseStreams(this.player);
+		}
+
+		if (audioStream != null) {
+			audioStream.close();
+		}
+	}
+
+	/**
+	 * A method that starts mixing a stream over the current one, replacing any previous overlay, and opens the device
+	 * if it is not open yet. The overlay stops by itself once it has finished playing.
+	 * @param audioStream The stream to mix over the current one.
+	 * @param duckGain The gain of the current stream while the overlay plays, out of {@link DevicePcmPlayer#UNITY_GAIN},
+	 *                 where 0 pauses it so it carries on from the same place afterwards.
+	 * @throws LineUnavailableException If the device could not be opened.
+	 */
+	public synchronized void playOverlay(MidiAudioStream audioStream, int duckGain) throws LineUnavailableException {
+		if (this.player == null || !this.player.isOpen()) {
+			this.closeDevice();
+			this.openDevice();
+		}
+
+		synchronized (this.player) {
+			this.duckGain = duckGain;
+			this.overlayStream = audioStream;
+		}
+
+		LockSupport.unpark(this.renderThread);
+	}
+
+	/**
+	 * A method that stops mixing the overlay stream, bringing the current stream back to its full volume.
+	 * Once this returns, the overlay is no longer being rendered.
+	 */
+	public synchronized void stopOverlay() {
+		this.overlayStream = null;
+		if (this.player != null) {
+			synchronized (this.player) {
+				this.player.setOverlayStream(null, DevicePcmPlayer.UNITY_GAIN);
+			}
+		}
+	}
+
+	/**
+	 * A method to check if an overlay stream is still being mixed over the current one.
+	 * @return True if an overlay is playing.
+	 */
+	public boolean isOverlayPlaying() {
+		return this.overlayStream != null;
+	}
+
+	/**
+	 * A method that stops playback, closing the current stream, and closes the output device.
+	 */
+	public synchronized void close() {
+		this.stop();
+		this.overlayStream = null;
+		this.closeDevice();
+	}
+
+	/**
+	 * A method to get the underrun counters and render time histograms of the open device.
+	 * @return The playback metrics, or null if the device is closed.
+	 */
+	public synchronized PlaybackMetrics getMetrics() {
+		return this.player != null ? this.player.getMetrics() : null;
+	}
+
+	/**
+	 * A method to get how long a sample takes from being rendered to being heard on the open device.
+	 * @return The output latency in milliseconds, or 0 if the device is closed.
+	 */
+	public synchronized double getLatencyMillis() {
+		return this.player != null ? this.player.getLatencyMillis() : 0.0D;
+	}
+
+	/**
+	 * A method to get the share of real time spent rendering on the open device.
+	 * @return The render load, where 1 is exactly real time, or 0 if the device is closed.
+	 */
+	public synchronized double getRenderLoad() {
+		return this.player != null ? this.player.getRenderLoad() : 0.0D;
+	}
+
+	/**
+	 * A method that opens the output line and starts the render thread.
+	 * @throws LineUnavailableException If the line could not be opened.
+	 */
+	private void openDevice() throws LineUnavailableException {
+		DevicePcmPlayer devicePcmPlayer = new DevicePcmPlayer();
+		devicePcmPlayer.setBlockSize(this.blockSize);
+		devicePcmPlayer.setBufferSize(this.bufferSize);
+		devicePcmPlayer.setRenderAhead(this.renderAhead);
+		devicePcmPlayer.init();
+		devicePcmPlayer.setSink(this.sinkFactory.get());
+		devicePcmPlayer.open();
+		if (!devicePcmPlayer.isOpen()) {
+			devicePcmPlayer.close();
+			throw new LineUnavailableException("No output sink could be opened");
+		}
+
+		// The new player takes over the current stream, so a later crossfade releases it like any other
+		devicePcmPlayer.setStream(this.stream);
+		this.player = devicePcmPlayer;
+		this.running = true;
+		this.renderThread = new Thread(() -> this.render(devicePcmPlayer), "music-mask-render");
+		this.renderThread.setDaemon(true);
+		this.renderThread.start();
+	}
+
+	/**
+	 * A method that stops the render thread and closes the output line, if they are open.
+	 */
+	private void closeDevice() {
+		this.running = false;
+		if (this.renderThread != null) {
+			LockSupport.unpark(this.renderThread);
+			try {
+				this.renderThread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+
+			this.renderThread = null;
+		}
+
+		if (this.player != null) {
+			this.player.dropFadingStream();
+			this.releaseStreams(this.player);
+			this.player.close();
+			this.player = null;
+		}
+	}
+
+	/**
+	 * A method that closes the streams a player has finished fading out.
+	 * @param devicePcmPlayer The player to take the streams from.
+	 */
+	private void releaseStreams(DevicePcmPlayer devicePcmPlayer) {
+		MidiAudioStream audioStream;
+		while ((audioStream = devicePcmPlayer.pollReleasedStream()) != null) {
+			audioStream.close();
+		}
+	}
+
+	/**
+	 * A method run by the render thread, which renders the current stream block by block, and waits while nothing is playing.
+	 * @param devicePcmPlayer The player to render into.
+	 */
+	private void render(DevicePcmPlayer devicePcmPlayer) {
+		while (this.running) {
+			if (this.stream == null && this.overlayStream == null && devicePcmPlayer.fadingStream == null) {
+				devicePcmPlayer.pause();
+				LockSupport.park(this);
+				continue;
+			}
+
+			synchronized (devicePcmPlayer) {
+				MidiAudioStream audioStream = this.stream;
+				MidiAudioStream overlay = this.overlayStream;
+				if (audioStream == null && overlay == null && devicePcmPlayer.fadingStream == null) {
+					continue;
+				}
+
+				devicePcmPlayer.setStream(audioStream);
+				devicePcmPlayer.setOverlayStream(overlay, this.duckGain);
+				devicePcmPlayer.fill(devicePcmPlayer.samples, devicePcmPlayer.getBlockSize());
+				if (overlay != null && overlay.isFinished()) {
+					this.overlayStream = null;
+				}
+			}
+
+			devicePcmPlayer.write();
+			this.releaseStreams(devicePcmPlayer);
+		}
+	}
+}
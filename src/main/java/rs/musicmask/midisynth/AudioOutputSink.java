@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2023, Rodolfo Ruiz-Velasco <ruizvelascorodolfo@gmail.com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package rs.musicmask.midisynth;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.LineUnavailableException;
+
+/**
+ * An interface for the places rendered PCM audio can be written to, such as a sound device or memory.
+ */
+public interface AudioOutputSink {
+
+	/**
+	 * A method that opens the sink for audio in the given format.
+	 * @param format The format of the audio that will be written.
+	 * @param bufferSize The requested buffer size in bytes.
+	 * @throws LineUnavailableException If the sink could not be opened.
+	 */
+	void open(AudioFormat format, int bufferSize) throws LineUnavailableException;
+
+	/**
+	 * A method to check if the sink is open.
+	 * @return True if audio can be written to the sink.
+	 */
+	boolean isOpen();
+
+	/**
+	 * A method to get how much audio can be written without blocking.
+	 * @return The number of bytes that can be written without blocking.
+	 */
+	int available();
+
+	/**
+	 * A method to get the size of the sink's buffer.
+	 * @return The buffer size in bytes.
+	 */
+	int getBufferSize();
+
+	/**
+	 * A method that writes audio to the sink, blocking until all of it has been accepted.
+	 * @param data The bytes to write.
+	 * @param offset The offset to start writing from.
+	 * @param length The number of bytes to write, a whole number of frames.
+	 */
+	void write(byte[] data, int offset, int length);
+
+	/**
+	 * A method that closes the sink, dropping any audio it has not played yet.
+	 */
+	void close();
+}
@@ -25,9 +25,15 @@
 
 package rs.musicmask.midisynth;
 
-import javax.sound.sampled.*;
-import javax.sound.sampled.DataLine.Info;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.LineUnavailableException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
 import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * A class that connects to your own sound device in order to play audio out loud.
@@ -40,15 +46,25 @@ public class DevicePcmPlayer {
 	public AudioFormat format;
 
 	/**
-	 * The device being used to output sound to.
+	 * The sink being used to output sound to.
 	 */
-	public SourceDataLine line;
+	public AudioOutputSink sink;
 
 	/**
 	 * A byte array to write audio data samples to.
 	 */
 	public byte[] byteSamples;
 
+	/**
+	 * A little-endian view of the byte array, which converted samples are copied into in bulk.
+	 */
+	ShortBuffer shortSamples;
+
+	/**
+	 * A short array holding the samples of a block once they have been converted to 16 bits.
+	 */
+	short[] pcmSamples;
+
 	/**
 	 * An integer array that is filled with data samples.
 	 */
@@ -57,7 +73,79 @@ public class DevicePcmPlayer {
 	/**
 	 * The stream used for sound.
 	 */
-	public MidiAudioStream stream;
+	public volatile MidiAudioStream stream;
+
+	/**
+	 * The stream mixed over the main stream, such as a jingle, or null if there is none.
+	 */
+	public volatile MidiAudioStream overlayStream;
+
+	/**
+	 * The gain the main stream is ramping towards, out of {@link #UNITY_GAIN}, where 0 pauses the main stream.
+	 */
+	int targetStreamGain = UNITY_GAIN;
+
+	/**
+	 * The gain the main stream was mixed at by the end of the last block, out of {@link #UNITY_GAIN}.
+	 */
+	int streamGain = UNITY_GAIN;
+
+	/**
+	 * The gain which leaves samples unchanged.
+	 */
+	public static final int UNITY_GAIN = 256;
+
+	/**
+	 * The stream fading out after being replaced as the main stream, or null if there is none.
+	 */
+	public volatile MidiAudioStream fadingStream;
+
+	/**
+	 * An integer value representing how many sample frames the fading stream has faded out for.
+	 */
+	int fadeOutPosition;
+
+	/**
+	 * An integer value representing how many sample frames the fading stream takes to fade out.
+	 */
+	int fadeOutLength;
+
+	/**
+	 * An integer value representing how many sample frames the main stream has faded in for.
+	 */
+	int fadeInPosition;
+
+	/**
+	 * An integer value representing how many sample frames the main stream takes to fade in, or 0 once it plays at full volume.
+	 */
+	int fadeInLength;
+
+	/**
+	 * An integer array the fading stream is rendered into before it is mixed with the main stream.
+	 */
+	int[] fadeSamples;
+
+	/**
+	 * The streams which have finished fading out, waiting for the owner of this player to release them.
+	 */
+	final Queue<MidiAudioStream> releasedStreams = new ConcurrentLinkedQueue<>();
+
+	/**
+	 * The number of steps in the fade curve table.
+	 */
+	private static final int FADE_CURVE_SIZE = 1024;
+
+	/**
+	 * A table of sin(x * pi / 2) for x from 0 to 1 in 16.16 fixed-point, the gain of a stream fading in. A stream fading
+	 * out follows the same curve backwards, so the power of two crossfading streams adds up to a constant.
+	 */
+	private static final int[] FADE_CURVE = new int[FADE_CURVE_SIZE + 1];
+
+	static {
+		for (int index = 0; index <= FADE_CURVE_SIZE; index++) {
+			FADE_CURVE[index] = (int) Math.round(Math.sin(Math.PI / 2.0D * index / FADE_CURVE_SIZE) * SynthTables.FIXED_POINT_ONE);
+		}
+	}
 
 	/**
 	 * An integer value determining the default sample rate for output audio.
@@ -70,58 +158,443 @@ public class DevicePcmPlayer {
 	public static boolean stereo = true;
 
 	/**
-	 * A method to set the default output audio format, as well as the empty byte array that sound will be written to later.
+	 * The default number of sample frames rendered and written per block.
+	 */
+	public static final int DEFAULT_BLOCK_SIZE = 256;
+
+	/**
+	 * The smallest supported block size in sample frames.
+	 */
+	public static final int MIN_BLOCK_SIZE = 64;
+
+	/**
+	 * The largest supported block size in sample frames.
+	 */
+	public static final int MAX_BLOCK_SIZE = 4096;
+
+	/**
+	 * The default size of the output device's buffer in sample frames, which matches the original 8192 byte buffer.
+	 */
+	public static final int DEFAULT_BUFFER_SIZE = 2048;
+
+	/**
+	 * The smallest supported output device buffer size in sample frames.
+	 */
+	public static final int MIN_BUFFER_SIZE = 256;
+
+	/**
+	 * The largest supported output device buffer size in sample frames.
+	 */
+	public static final int MAX_BUFFER_SIZE = 32768;
+
+	/**
+	 * The default amount of audio rendered ahead of the output device, in milliseconds.
+	 */
+	public static final int DEFAULT_RENDER_AHEAD = 50;
+
+	/**
+	 * The largest supported amount of audio rendered ahead of the output device, in milliseconds.
+	 */
+	public static final int MAX_RENDER_AHEAD = 1000;
+
+	/**
+	 * The default length of the crossfade between tracks, in milliseconds.
+	 */
+	public static final int DEFAULT_CROSSFADE_LENGTH = 1500;
+
+	/**
+	 * The longest supported crossfade between tracks, in milliseconds.
+	 */
+	public static final int MAX_CROSSFADE_LENGTH = 10000;
+
+	/**
+	 * An integer value representing the number of sample frames rendered and written per block.
+	 */
+	int blockSize = DEFAULT_BLOCK_SIZE;
+
+	/**
+	 * An integer value representing the requested size of the output device's buffer in sample frames.
+	 */
+	int bufferSize = DEFAULT_BUFFER_SIZE;
+
+	/**
+	 * An integer value representing how much audio is rendered ahead of the output device in milliseconds, where 0
+	 * writes every block straight to the device.
+	 */
+	int renderAhead = DEFAULT_RENDER_AHEAD;
+
+	/**
+	 * The buffer holding audio that has been rendered but not yet written to the device, or null when writing directly.
+	 */
+	PcmRingBuffer ringBuffer;
+
+	/**
+	 * The thread which drains the ring buffer into the output device.
+	 */
+	Thread outputThread;
+
+	/**
+	 * A boolean value determining if the output thread should keep running.
+	 */
+	volatile boolean outputRunning;
+
+	/**
+	 * A boolean value determining if the output device has been fed continuously since the last write, so that an
+	 * empty device buffer means an underrun rather than a start after a pause.
+	 */
+	volatile boolean primed;
+
+	/**
+	 * The underrun counters and render time histograms of this player.
+	 */
+	final PlaybackMetrics metrics = new PlaybackMetrics();
+
+	/**
+	 * A method to set how many sample frames are rendered and written at a time. Larger blocks render more efficiently,
+	 * smaller blocks react to changes sooner. This has to be set before {@link #init()}.
+	 * @param frames The block size in sample frames, clamped between {@link #MIN_BLOCK_SIZE} and {@link #MAX_BLOCK_SIZE}.
+	 */
+	public void setBlockSize(int frames) {
+		this.blockSize = Math.max(MIN_BLOCK_SIZE, Math.min(MAX_BLOCK_SIZE, frames));
+	}
+
+	public int getBlockSize() {
+		return this.blockSize;
+	}
+
+	/**
+	 * A method to set the size of the output device's buffer. Larger buffers are less likely to run dry when rendering
+	 * falls behind, smaller buffers have less latency. This has to be set before {@link #open()}.
+	 * @param frames The buffer size in sample frames, clamped between {@link #MIN_BUFFER_SIZE} and {@link #MAX_BUFFER_SIZE}.
+	 */
+	public void setBufferSize(int frames) {
+		this.bufferSize = Math.max(MIN_BUFFER_SIZE, Math.min(MAX_BUFFER_SIZE, frames));
+	}
+
+	public int getBufferSize() {
+		return this.bufferSize;
+	}
+
+	/**
+	 * A method to set how far ahead of the output device audio is rendered. Rendering runs on the calling thread while
+	 * a separate thread writes to the device, so short rendering stalls are absorbed instead of heard.
+	 * This has to be set before {@link #open()}.
+	 * @param milliseconds The amount of audio to render ahead, clamped between 0 and {@link #MAX_RENDER_AHEAD}, where 0 writes every block straight to the device.
+	 */
+	public void setRenderAhead(int milliseconds) {
+		this.renderAhead = Math.max(0, Math.min(MAX_RENDER_AHEAD, milliseconds));
+	}
+
+	public int getRenderAhead() {
+		return this.renderAhead;
+	}
+
+	/**
+	 * A method to set the default output audio format, as well as the sample arrays that sound will be rendered and written to later.
 	 */
 	public void init() {
 		this.format = new AudioFormat((float) sampleRate, 16, stereo ? 2 : 1, true, false);
-		this.byteSamples = new byte[256 << (stereo ? 2 : 1)];
+		this.byteSamples = new byte[this.blockSize << (stereo ? 2 : 1)];
+		this.samples = new int[this.blockSize << (stereo ? 1 : 0)];
+		this.shortSamples = ByteBuffer.wrap(this.byteSamples).order(ByteOrder.LITTLE_ENDIAN).asShortBuffer();
+		this.pcmSamples = new short[this.samples.length];
+		this.fadeSamples = new int[this.samples.length];
 	}
 
 	/**
-	 * A method to get the default audio output device, open it, and start using it.
-	 * @throws LineUnavailableException Try to re-open the device for sound output. If not possible, an error occurs.
+	 * A method to set where audio is written to. This has to be set before {@link #open()}, by default audio is played
+	 * through the default sound device.
+	 * @param audioOutputSink The sink to write audio to.
+	 */
+	public void setSink(AudioOutputSink audioOutputSink) {
+		this.sink = audioOutputSink;
+	}
+
+	/**
+	 * A method to open the output sink, the default sound device unless another sink has been set, and start using it.
+	 * @throws LineUnavailableException If the sink could not be opened.
 	 */
 	public void open() throws LineUnavailableException {
-		Mixer.Info[] mixers = AudioSystem.getMixerInfo();
-		for (Mixer.Info info : mixers) {
-			Mixer mixer = AudioSystem.getMixer(info);
+		if (this.sink == null) {
+			this.sink = new SourceDataLineSink();
+		}
+
+		if (!this.sink.isOpen()) {
+			this.sink.open(this.format, this.getBufferBytes());
+		}
+
+		if (this.sink.isOpen() && this.renderAhead > 0 && this.outputThread == null) {
+			this.startOutput();
+		}
+	}
+
+	/**
+	 * A method that creates the ring buffer and starts the thread that writes it to the output device.
+	 */
+	void startOutput() {
+		int renderAheadBytes = (int) ((long) this.renderAhead * sampleRate / 1000L) * this.format.getFrameSize();
+		this.ringBuffer = new PcmRingBuffer(Math.max(renderAheadBytes, this.byteSamples.length << 1), this.format.getFrameSize());
+		this.outputRunning = true;
+		this.outputThread = new Thread(this::drain, "music-mask-audio-output");
+		this.outputThread.setDaemon(true);
+		this.outputThread.setPriority(Thread.MAX_PRIORITY);
+		this.outputThread.start();
+	}
+
+	/**
+	 * A method run by the output thread, which writes buffered audio to the output device as soon as it is rendered.
+	 */
+	void drain() {
+		byte[] outputSamples = new byte[this.byteSamples.length];
+		while (this.outputRunning) {
+			int length = this.ringBuffer.read(outputSamples, 0, outputSamples.length);
+			if (length == 0) {
+				LockSupport.parkNanos(this.getBlockNanos() >> 2);
+			} else {
+				this.recordDeviceWrite();
+				this.sink.write(outputSamples, 0, length);
+			}
+		}
+	}
+
+	/**
+	 * A method that tells the player rendering has paused on purpose, so the device running dry is not counted as an underrun.
+	 */
+	public void pause() {
+		this.primed = false;
+	}
+
+	/**
+	 * A method to check if the output sink is open.
+	 * @return True if audio can be written to the sink.
+	 */
+	public boolean isOpen() {
+		return this.sink != null && this.sink.isOpen();
+	}
+
+	/**
+	 * A method that stops the output thread and closes the output sink.
+	 */
+	public void close() {
+		this.stop();
+		if (this.sink != null) {
+			this.sink.close();
+		}
+	}
+
+	/**
+	 * A method that records the state of the output device just before a write, skipping the first write after a pause.
+	 */
+	void recordDeviceWrite() {
+		if (this.primed) {
+			this.metrics.recordWrite(this.sink.available(), this.sink.getBufferSize());
+		} else {
+			this.primed = true;
+		}
+	}
+
+	/**
+	 * A method that stops the output thread, dropping any audio it has not written yet.
+	 */
+	public void stop() {
+		this.outputRunning = false;
+		if (this.outputThread != null) {
+			LockSupport.unpark(this.outputThread);
 			try {
-				if (info.getName().toLowerCase().contains("primary") || info.getName().toLowerCase().contains("default")) {
-					DataLine.Info sourceDataLineInfo = new DataLine.Info(SourceDataLine.class, this.format, 8192);
-					if (mixer.isLineSupported(sourceDataLineInfo)) {
-						this.line = (SourceDataLine) mixer.getLine(sourceDataLineInfo);
-						this.line.open();
-						this.line.start();
-					}
-				}
-			} catch (LineUnavailableException lineUnavailableException) {
-				if (this.line.available() != -1) {
-					this.open();
-				} else {
-					this.line = null;
-					throw lineUnavailableException;
-				}
+				this.outputThread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
 			}
+
+			this.outputThread = null;
+			this.ringBuffer = null;
 		}
 	}
 
+	/**
+	 * A method that calculates how long one block takes to play.
+	 * @return The duration of a block in nanoseconds.
+	 */
+	long getBlockNanos() {
+		return this.blockSize * 1000000000L / sampleRate;
+	}
+
+	/**
+	 * A method that calculates the requested output device buffer size in bytes, which is never smaller than two blocks.
+	 * @return The buffer size in bytes.
+	 */
+	int getBufferBytes() {
+		return Math.max(this.bufferSize, this.blockSize << 1) * this.format.getFrameSize();
+	}
+
 	/**
 	 * A method to set the default stream for the sound output.
 	 * @param audioStream The stream to set for playback.
 	 */
 	public final void setStream(MidiAudioStream audioStream) {
+		if (audioStream != this.stream) {
+			this.fadeInLength = 0;
+		}
+
 		this.stream = audioStream;
 	}
 
 	/**
-	 * A method that takes the currently set stream and fills an empty integer array with audio data.
+	 * A method that replaces the main stream with another, fading the old one out while the new one fades in. A main
+	 * stream which had not finished fading in starts fading out from the gain it had reached, and a stream which was
+	 * still fading out from an earlier change is released straight away.
+	 * @param audioStream The stream to fade in, or null to only fade the main stream out.
+	 * @param fadeFrames The length of the fades in sample frames.
+	 */
+	public final void crossfade(MidiAudioStream audioStream, int fadeFrames) {
+		if (audioStream == this.stream) {
+			return;
+		}
+
+		fadeFrames = Math.max(1, fadeFrames);
+		if (this.stream != null) {
+			if (this.fadingStream != null) {
+				this.releasedStreams.add(this.fadingStream);
+			}
+
+			this.fadingStream = this.stream;
+			this.fadeOutLength = fadeFrames;
+			this.fadeOutPosition = this.fadeInLength == 0 ? 0 : (int) ((long) (this.fadeInLength - this.fadeInPosition) * fadeFrames / this.fadeInLength);
+		}
+
+		this.stream = audioStream;
+		this.fadeInPosition = 0;
+		this.fadeInLength = audioStream != null ? fadeFrames : 0;
+	}
+
+	/**
+	 * A method that stops the stream fading out at once, leaving it to be released.
+	 */
+	public final void dropFadingStream() {
+		if (this.fadingStream != null) {
+			this.releasedStreams.add(this.fadingStream);
+			this.fadingStream = null;
+		}
+	}
+
+	/**
+	 * A method to take the next stream which has finished fading out, so it can be released.
+	 * @return The stream, or null if there are none left.
+	 */
+	public MidiAudioStream pollReleasedStream() {
+		return this.releasedStreams.poll();
+	}
+
+	/**
+	 * A method to set a stream to mix over the main stream, and how loud the main stream stays while it plays.
+	 * The main stream ramps to its new gain across the next block, and is not filled at all while its gain is 0, so
+	 * it carries on from the same place once the overlay is gone.
+	 * @param audioStream The stream to mix over the main stream, or null to only play the main stream.
+	 * @param duckGain The gain of the main stream while the overlay plays, out of {@link #UNITY_GAIN}.
+	 */
+	public final void setOverlayStream(MidiAudioStream audioStream, int duckGain) {
+		this.overlayStream = audioStream;
+		this.targetStreamGain = audioStream != null ? Math.max(0, Math.min(UNITY_GAIN, duckGain)) : UNITY_GAIN;
+	}
+
+	/**
+	 * A method that takes the currently set streams and fills an empty integer array with audio data.
 	 * @param samplesToWrite The sample integer array to write values to.
 	 * @param amount The amount of samples to write to the integer array.
 	 */
 	public final void fill(int[] samplesToWrite, int amount) {
+		long startTime = System.nanoTime();
 		Arrays.fill(samplesToWrite, 0);
-		if (this.stream != null) {
-			this.stream.fill(samplesToWrite, amount);
+		int startGain = this.streamGain;
+		int endGain = this.targetStreamGain;
+		if (startGain > 0 || endGain > 0) {
+			if (this.stream != null) {
+				this.stream.fill(samplesToWrite, amount);
+				if (this.fadeInLength > 0) {
+					this.fadeInPosition = applyFade(samplesToWrite, amount, this.fadeInPosition, this.fadeInLength, true);
+					if (this.fadeInPosition >= this.fadeInLength) {
+						this.fadeInLength = 0;
+					}
+				}
+			}
+
+			if (this.fadingStream != null) {
+				int length = DevicePcmPlayer.stereo ? amount << 1 : amount;
+				Arrays.fill(this.fadeSamples, 0, length, 0);
+				this.fadingStream.fill(this.fadeSamples, amount);
+				this.fadeOutPosition = applyFade(this.fadeSamples, amount, this.fadeOutPosition, this.fadeOutLength, false);
+				for (int index = 0; index < length; index++) {
+					samplesToWrite[index] += this.fadeSamples[index];
+				}
+
+				if (this.fadeOutPosition >= this.fadeOutLength) {
+					this.dropFadingStream();
+				}
+			}
+
+			if (startGain != UNITY_GAIN || endGain != UNITY_GAIN) {
+				applyGainRamp(samplesToWrite, amount, startGain, endGain);
+			}
+		}
+
+		this.streamGain = endGain;
+		if (this.overlayStream != null) {
+			this.overlayStream.fill(samplesToWrite, amount);
+		}
+
+		this.metrics.recordRender(System.nanoTime() - startTime, this.getBlockNanos());
+	}
+
+	/**
+	 * A method that scales samples along the fade curve, one gain per sample frame. Frames past the end of a fade in are
+	 * left unchanged, and frames past the end of a fade out are silenced.
+	 * @param samples The samples to scale.
+	 * @param amount The number of sample frames to scale.
+	 * @param position The number of sample frames of the fade already played.
+	 * @param length The length of the fade in sample frames.
+	 * @param fadeIn True to fade in, false to fade out.
+	 * @return The position in the fade after these sample frames.
+	 */
+	static int applyFade(int[] samples, int amount, int position, int length, boolean fadeIn) {
+		int channels = stereo ? 2 : 1;
+		for (int frame = 0; frame < amount; frame++, position++) {
+			long gain;
+			if (position >= length) {
+				gain = fadeIn ? SynthTables.FIXED_POINT_ONE : 0L;
+			} else {
+				long phase = (long) (fadeIn ? position : length - position) * (FADE_CURVE_SIZE << SynthTables.FIXED_POINT_BITS) / length;
+				int index = (int) (phase >> SynthTables.FIXED_POINT_BITS);
+				int fraction = (int) (phase & (SynthTables.FIXED_POINT_ONE - 1));
+				gain = index == FADE_CURVE_SIZE ? FADE_CURVE[index] : FADE_CURVE[index] + ((long) (FADE_CURVE[index + 1] - FADE_CURVE[index]) * fraction >> SynthTables.FIXED_POINT_BITS);
+			}
+
+			for (int channel = 0; channel < channels; channel++) {
+				int index = frame * channels + channel;
+				samples[index] = (int) (samples[index] * gain >> SynthTables.FIXED_POINT_BITS);
+			}
+		}
+
+		return Math.min(position, length);
+	}
+
+	/**
+	 * A method that scales samples by a gain moving linearly from one value to another, so gain changes do not click.
+	 * @param samples The samples to scale.
+	 * @param amount The number of sample frames to scale.
+	 * @param startGain The gain at the first sample frame, out of {@link #UNITY_GAIN}.
+	 * @param endGain The gain after the last sample frame, out of {@link #UNITY_GAIN}.
+	 */
+	static void applyGainRamp(int[] samples, int amount, int startGain, int endGain) {
+		int channels = stereo ? 2 : 1;
+		long gain = (long) startGain << 16;
+		long step = ((long) (endGain - startGain) << 16) / amount;
+		for (int frame = 0; frame < amount; frame++) {
+			for (int channel = 0; channel < channels; channel++) {
+				int index = frame * channels + channel;
+				samples[index] = (int) (samples[index] * gain >> 24);
+			}
+
+			gain += step;
 		}
 	}
 
@@ -129,22 +602,77 @@ public class DevicePcmPlayer {
 	 * A method to write audio data to the selected output sound device, which plays the sound out loud.
 	 */
 	public void write() {
-		int length = 256;
+		int length = this.blockSize;
 		if (DevicePcmPlayer.stereo) {
 			length <<= 1;
 		}
 
-		for (int index = 0; index < length; ++index) {
-			int sample = samples[index];
-			if ((sample + 8388608 & -16777216) != 0) {
-				sample = 8388607 ^ sample >> 31;
+		convertToPcm16(this.samples, this.pcmSamples, length);
+		this.shortSamples.clear();
+		this.shortSamples.put(this.pcmSamples, 0, length);
+
+		if (this.ringBuffer == null) {
+			this.recordDeviceWrite();
+			this.sink.write(this.byteSamples, 0, length << 1);
+			return;
+		}
+
+		int written = 0;
+		while (written < length << 1 && this.outputRunning) {
+			written += this.ringBuffer.write(this.byteSamples, written, (length << 1) - written);
+			if (written < length << 1) {
+				LockSupport.parkNanos(this.getBlockNanos() >> 2);
 			}
+		}
+	}
 
-			this.byteSamples[index * 2] = (byte) (sample >> 8);
-			this.byteSamples[index * 2 + 1] = (byte) (sample >> 16);
+	/**
+	 * A method that saturates 24-bit samples and narrows them to 16 bits. The loop has no branches and no byte
+	 * shuffling, so the JIT compiler can turn it into SIMD instructions.
+	 * @param samples The 24-bit samples to convert.
+	 * @param pcmSamples The array to write the 16-bit samples to.
+	 * @param length The number of samples to convert.
+	 */
+	static void convertToPcm16(int[] samples, short[] pcmSamples, int length) {
+		for (int index = 0; index < length; index++) {
+			pcmSamples[index] = (short) (Math.max(-8388608, Math.min(8388607, samples[index])) >> 8);
 		}
+	}
+
+	/**
+	 * A method that calculates how long a sample takes from being rendered to being heard, one block plus the
+	 * render ahead buffer and the output device's buffer.
+	 * @return The output latency in milliseconds.
+	 */
+	public double getLatencyMillis() {
+		int bufferFrames = this.isOpen() ? this.sink.getBufferSize() / this.format.getFrameSize() : this.bufferSize;
+		PcmRingBuffer ringBuffer = this.ringBuffer;
+		if (ringBuffer != null) {
+			bufferFrames += ringBuffer.capacity() / this.format.getFrameSize();
+		}
+
+		return (this.blockSize + bufferFrames) * 1000.0D / sampleRate;
+	}
 
-		this.line.write(this.byteSamples, 0, length << 1);
+	/**
+	 * A method that calculates the share of real time spent rendering, averaged over every block rendered so far.
+	 * Values approaching 1 mean rendering can barely keep up with playback.
+	 * @return The render load, where 1 is exactly real time.
+	 */
+	public double getRenderLoad() {
+		if (this.metrics.getRenderedBlocks() == 0) {
+			return 0.0D;
+		}
+
+		return this.metrics.getRenderTime() / ((double) this.metrics.getRenderedBlocks() * this.getBlockNanos());
+	}
+
+	/**
+	 * A method to get the underrun counters and render time histograms of this player.
+	 * @return The playback metrics.
+	 */
+	public PlaybackMetrics getMetrics() {
+		return this.metrics;
 	}
 
 }
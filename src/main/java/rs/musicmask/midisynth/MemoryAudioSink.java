@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2023, Rodolfo Ruiz-Velasco <ruizvelascorodolfo@gmail.com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package rs.musicmask.midisynth;
+
+import javax.sound.sampled.AudioFormat;
+import java.io.ByteArrayOutputStream;
+
+/**
+ * An audio output sink which captures everything written to it in memory, for checking playback without sound hardware.
+ */
+public class MemoryAudioSink implements AudioOutputSink {
+
+	/**
+	 * The captured audio.
+	 */
+	private final ByteArrayOutputStream capture = new ByteArrayOutputStream();
+
+	/**
+	 * The format of the captured audio, or null if the sink has never been opened.
+	 */
+	private AudioFormat format;
+
+	/**
+	 * An integer value representing the requested buffer size in bytes.
+	 */
+	private int bufferSize;
+
+	/**
+	 * A boolean value determining if the sink is open.
+	 */
+	private volatile boolean open;
+
+	@Override
+	public synchronized void open(AudioFormat format, int bufferSize) {
+		this.format = format;
+		this.bufferSize = bufferSize;
+		this.open = true;
+	}
+
+	@Override
+	public boolean isOpen() {
+		return this.open;
+	}
+
+	/**
+	 * A method to get how much audio can be written without blocking. Captured audio is never played out, so the
+	 * sink reports itself as full rather than as a device that has run dry.
+	 * @return Always 0.
+	 */
+	@Override
+	public int available() {
+		return 0;
+	}
+
+	@Override
+	public int getBufferSize() {
+		return this.bufferSize;
+	}
+
+	@Override
+	public synchronized void write(byte[] data, int offset, int length) {
+		this.capture.write(data, offset, length);
+	}
+
+	@Override
+	public void close() {
+		this.open = false;
+	}
+
+	/**
+	 * A method to get the format of the captured audio.
+	 * @return The audio format, or null if the sink has never been opened.
+	 */
+	public synchronized AudioFormat getFormat() {
+		return this.format;
+	}
+
+	/**
+	 * A method to get a copy of the audio captured so far.
+	 * @return The captured bytes.
+	 */
+	public synchronized byte[] toByteArray() {
+		return this.capture.toByteArray();
+	}
+
+	/**
+	 * A method to get how much audio has been captured.
+	 * @return The number of sample frames captured.
+	 */
+	public synchronized long getFrames() {
+		return this.format == null ? 0L : this.capture.size() / this.format.getFrameSize();
+	}
+
+	/**
+	 * A method that throws away the audio captured so far.
+	 */
+	public synchronized void reset() {
+		this.capture.reset();
+	}
+}
@@ -25,19 +25,62 @@
 
 package rs.musicmask.midisynth;
 
-import rs.musicmask.MusicMaskPlugin;
-
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Hashtable;
-import java.util.Objects;
 
 /**
  * A class which handles synthesizer methods for the MIDI sequence.
  */
 public class MidiAudioStream {
 
+	/**
+	 * The MIDI channel which plays percussion.
+	 */
+	public static final int PERCUSSION_CHANNEL = 9;
+
+	/**
+	 * The Sound Bank patch the percussion channel starts with.
+	 */
+	public static final int PERCUSSION_PATCH = 128;
+
+	/**
+	 * The default control rate in Hz, which matches the original 10 millisecond tick.
+	 */
+	public static final int DEFAULT_CONTROL_RATE = 100;
+
+	/**
+	 * The lowest supported control rate in Hz.
+	 */
+	public static final int MIN_CONTROL_RATE = 50;
+
+	/**
+	 * The highest supported control rate in Hz.
+	 */
+	public static final int MAX_CONTROL_RATE = 400;
+
+	/**
+	 * The default silence threshold in decibels below full scale, which is half a step of 16-bit output.
+	 */
+	public static final int DEFAULT_SILENCE_THRESHOLD = 96;
+
+	/**
+	 * The lowest supported silence threshold in decibels below full scale.
+	 */
+	public static final int MIN_SILENCE_THRESHOLD = 60;
+
+	/**
+	 * The highest supported silence threshold in decibels below full scale.
+	 */
+	public static final int MAX_SILENCE_THRESHOLD = 144;
+
+	/**
+	 * The level of a voice playing at full scale, a voice volume of 16384 on a channel bus with unity gain.
+	 */
+	static final long FULL_SCALE_LEVEL = 16384L << 15;
+
 	/**
 	 * A table containing the loaded Sound Bank patches with their respective integer ID.
 	 */
@@ -139,12 +182,12 @@ public class MidiAudioStream {
 	MusicPatchVoice[][] continuousVoices;
 
 	/**
-	 * A long value representing the length of audio expressed in microseconds.
+	 * A long value representing the length of audio rendered, in microseconds multiplied by the resolution and sample rate.
 	 */
 	long microsecondLength;
 
 	/**
-	 * A long value representing the current position in the audio, expressed in microseconds.
+	 * A long value representing the time of the next sequence event, in the same units as the rendered length.
 	 */
 	long microsecondPosition;
 
@@ -158,6 +201,47 @@ public class MidiAudioStream {
 	 */
 	int resolution;
 
+	/**
+	 * The sequence played by the internal sequencer, or null when messages are only sent through a receiver.
+	 */
+	MidiEventSequence sequence;
+
+	/**
+	 * An integer value representing the index of the next sequence event to play.
+	 */
+	int eventIndex;
+
+	/**
+	 * A boolean value to determine if the sequence starts over when it reaches its end.
+	 */
+	boolean loopSequence;
+
+	/**
+	 * A boolean value to determine if a sequence played once has reached its end.
+	 */
+	boolean sequenceFinished;
+
+	/**
+	 * An integer value representing the current tempo of the sequence, in microseconds per quarter note.
+	 */
+	int tempo;
+
+	/**
+	 * An integer value for how many times per second the voices update their pitch, volume and panning.
+	 */
+	int controlRate;
+
+	/**
+	 * The ratio between the default 100 Hz control rate and the current one, as a 16.16 fixed-point power of two.
+	 * Per-tick envelope, vibrato and portamento steps are scaled by it so their timing does not depend on the control rate.
+	 */
+	int controlTickExponent;
+
+	/**
+	 * A long value holding the level below which voices are not mixed, as a voice volume multiplied by its channel gain.
+	 */
+	long silenceThreshold;
+
 	/**
 	 * A string value to determine what custom sound bank we are using.
 	 * Classic = RuneScape 2 sounds
@@ -171,6 +255,15 @@ public class MidiAudioStream {
 	 * Constructs a new MidiAudioStream with default values, loading all music patches as well.
 	 */
 	public MidiAudioStream(String soundBankName) {
+		this(soundBankName, null);
+	}
+
+	/**
+	 * Constructs a new MidiAudioStream with default values, loading only the given music patches.
+	 * @param soundBankName The name of the Sound Bank to use.
+	 * @param patches The IDs of the patches to load, such as {@link MidiEventSequence#getPatchUsage()}, or null to load all of them.
+	 */
+	public MidiAudioStream(String soundBankName, BitSet patches) {
 		this.volume = 256;
 		this.division = 1000000;
 		this.volumeControls = new int[16];
@@ -193,8 +286,10 @@ public class MidiAudioStream {
 		this.patchStream = new MusicPatchAudioStream(this);
 		this.musicPatches = new Hashtable<>();
 		this.soundBankVersion = soundBankName;
+		this.setControlRate(DEFAULT_CONTROL_RATE);
+		this.setSilenceThreshold(DEFAULT_SILENCE_THRESHOLD);
 		try {
-			this.loadMusicPatches();
+			this.loadMusicPatches(patches);
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
@@ -213,24 +308,72 @@ public class MidiAudioStream {
 		return this.volume;
 	}
 
+	/**
+	 * A method to set how many times per second voices update their pitch, volume and panning.
+	 * Lower rates use less CPU at the cost of coarser modulation, volume and panning changes are still ramped across each tick.
+	 * @param rate The control rate in Hz, clamped between {@link #MIN_CONTROL_RATE} and {@link #MAX_CONTROL_RATE}.
+	 */
+	public synchronized void setControlRate(int rate) {
+		this.controlRate = Math.max(MIN_CONTROL_RATE, Math.min(MAX_CONTROL_RATE, rate));
+		this.controlTickExponent = (int) Math.round(Math.log((double) DEFAULT_CONTROL_RATE / this.controlRate) / Math.log(2.0D) * SynthTables.FIXED_POINT_ONE);
+	}
+
+	public synchronized int getControlRate() {
+		return this.controlRate;
+	}
+
+	/**
+	 * A method to set how quiet a voice has to be before it is treated as silent. Silent voices keep their place in
+	 * the sample without being mixed, and silent voices that have been released are stopped early.
+	 * @param decibels The threshold in decibels below full scale, clamped between {@link #MIN_SILENCE_THRESHOLD} and {@link #MAX_SILENCE_THRESHOLD}.
+	 */
+	public synchronized void setSilenceThreshold(int decibels) {
+		decibels = Math.max(MIN_SILENCE_THRESHOLD, Math.min(MAX_SILENCE_THRESHOLD, decibels));
+		this.silenceThreshold = Math.round(FULL_SCALE_LEVEL * Math.pow(10.0D, -decibels / 20.0D));
+	}
+
+	/**
+	 * A method to set how many threads voices are rendered with. Voices are only split across threads when enough of
+	 * them are playing, and the output is identical to rendering on a single thread.
+	 * @param threads The number of threads, where 1 renders every voice on the thread calling fill.
+	 */
+	public synchronized void setRenderThreads(int threads) {
+		this.patchStream.setRenderThreads(threads);
+	}
+
+	/**
+	 * A method that releases the resources held by this stream, such as its render threads.
+	 */
+	public synchronized void close() {
+		this.patchStream.shutdown();
+	}
+
 	/**
 	 * A method that loads all the music patches.
 	 */
 	public synchronized void loadMusicPatches() throws IOException {
-		for (int key = 0; key < 384; key++) {
-			MusicPatch musicPatch = this.musicPatches.get(key);
-			if (musicPatch == null) {
-				if (MusicMaskPlugin.class.getResourceAsStream(soundBankVersion + "/patches/" + key + ".txt") != null) {
-					InputStream inputStream = Objects.requireNonNull(MusicMaskPlugin.class.getResourceAsStream(soundBankVersion + "/patches/" + key + ".txt"));
-					if (inputStream != null) {
-						musicPatch = new MusicPatch(inputStream, soundBankVersion);
-						inputStream.close();
-					}
+		this.loadMusicPatches(null);
+	}
 
-					if (musicPatch == null) {
-						continue;
-					}
+	/**
+	 * A method that loads the given music patches, skipping any that are already loaded.
+	 * Patches come from the shared {@link SoundBank}, so ones another stream has used are not read again.
+	 * @param patches The IDs of the patches to load, or null to load all of them.
+	 */
+	public synchronized void loadMusicPatches(BitSet patches) throws IOException {
+		if (patches != null && patches.isEmpty()) {
+			return;
+		}
+
+		SoundBank soundBank = SoundBank.get(this.soundBankVersion);
+		for (int key = 0; key < SoundBank.PATCH_COUNT; key++) {
+			if (patches != null && !patches.get(key)) {
+				continue;
+			}
 
+			if (this.musicPatches.get(key) == null) {
+				MusicPatch musicPatch = soundBank.getPatch(key);
+				if (musicPatch != null) {
 					this.musicPatches.put(key, musicPatch);
 				}
 			}
@@ -245,23 +388,208 @@ public class MidiAudioStream {
 	 */
 	protected synchronized void fill(int[] samples, int length) {
 		int offset = 0;
-		int tempoRate = this.resolution * this.division / DevicePcmPlayer.sampleRate;
-		do {
-			long microsecondTimeLength = this.microsecondLength + (long) tempoRate * (long) length;
+		long tempoRate = (long) this.resolution * (long) this.division;
+		while (this.isSequencePlaying()) {
+			long microsecondTimeLength = this.microsecondLength + tempoRate * (long) length;
 			if (this.microsecondPosition - microsecondTimeLength >= 0L) {
 				this.microsecondLength = microsecondTimeLength;
 				break;
 			}
 
-			int position = (int) ((this.microsecondPosition - this.microsecondLength + (long) tempoRate - 1L) / (long) tempoRate);
-			this.microsecondLength += (long) position * (long) tempoRate;
+			int position = (int) ((this.microsecondPosition - this.microsecondLength + tempoRate - 1L) / tempoRate);
+			this.microsecondLength += (long) position * tempoRate;
 			this.patchStream.fill(samples, offset, position);
 			offset += position;
 			length -= position;
-		} while (true);
+			this.playNextEvents();
+		}
+
 		this.patchStream.fill(samples, offset, length);
 	}
 
+	/**
+	 * A method to start playing a sequence with the internal sequencer, which plays each event at the sample it falls on
+	 * while the stream is filled. Any previous sequence stops, but the notes it left playing are not released.
+	 * @param midiEventSequence The sequence to play, or null to stop the sequencer.
+	 * @param loop True to start the sequence over each time it ends, false to play it once.
+	 */
+	public synchronized void setSequence(MidiEventSequence midiEventSequence, boolean loop) {
+		this.sequence = midiEventSequence;
+		this.loopSequence = loop;
+		this.eventIndex = 0;
+		this.microsecondLength = 0L;
+		this.microsecondPosition = 0L;
+		this.sequenceFinished = midiEventSequence == null || midiEventSequence.length == 0;
+		if (!this.sequenceFinished) {
+			this.resolution = midiEventSequence.resolution;
+			this.tempo = midiEventSequence.getInitialTempo();
+			this.microsecondPosition = this.getTickLength() * midiEventSequence.ticks[0];
+		}
+	}
+
+	/**
+	 * A method that jumps the internal sequencer to a tick of its sequence. Every sounding note is stopped, and the
+	 * controllers, pitch bends and programs are set to what they are when the sequence first plays up to the tick.
+	 * They are restored from the nearest snapshot before the tick, then only the events between the two are replayed.
+	 * @param tick The tick to continue playing from, clamped to the length of the sequence.
+	 */
+	public synchronized void seek(long tick) {
+		MidiEventSequence midiEventSequence = this.sequence;
+		if (midiEventSequence == null || midiEventSequence.length == 0) {
+			return;
+		}
+
+		tick = Math.max(0L, Math.min(midiEventSequence.tickLength, tick));
+		this.allSoundOff(-1);
+		MidiEventSequence.ControllerSnapshot snapshot = midiEventSequence.getSnapshot(tick);
+		this.setControllerState(snapshot.controllers);
+		this.tempo = snapshot.tempo;
+		int index = snapshot.eventIndex;
+		while (index < midiEventSequence.length && midiEventSequence.ticks[index] < tick) {
+			int message = midiEventSequence.messages[index++];
+			if (MidiEventSequence.isTempo(message)) {
+				if (!midiEventSequence.isSmpte()) {
+					this.tempo = MidiEventSequence.getTempo(message);
+				}
+			} else if (MidiEventSequence.isChased(message)) {
+				MidiReceiver.dispatch(this, message);
+			}
+		}
+
+		this.eventIndex = index;
+		this.microsecondLength = 0L;
+		this.sequenceFinished = false;
+		if (index < midiEventSequence.length) {
+			this.microsecondPosition = (midiEventSequence.ticks[index] - tick) * this.getTickLength();
+		} else if (this.loopSequence && midiEventSequence.tickLength > 0L) {
+			this.microsecondPosition = (midiEventSequence.tickLength - tick) * this.getTickLength();
+			this.eventIndex = 0;
+			this.tempo = midiEventSequence.getInitialTempo();
+			this.microsecondPosition += midiEventSequence.ticks[0] * this.getTickLength();
+		} else {
+			this.sequenceFinished = true;
+		}
+	}
+
+	/**
+	 * A method to get the tick the internal sequencer has played up to, which {@link #seek(long)} can return to.
+	 * @return The tick position, or 0 if no sequence is playing.
+	 */
+	public synchronized long getTickPosition() {
+		MidiEventSequence midiEventSequence = this.sequence;
+		if (midiEventSequence == null || midiEventSequence.length == 0) {
+			return 0L;
+		}
+
+		if (this.sequenceFinished) {
+			return midiEventSequence.tickLength;
+		}
+
+		long tick = midiEventSequence.ticks[this.eventIndex] - (this.microsecondPosition - this.microsecondLength) / this.getTickLength();
+		return tick < 0L ? tick + midiEventSequence.tickLength : tick;
+	}
+
+	/**
+	 * A method that copies the controller state of every channel, in the order {@link #setControllerState(int[][])} restores it.
+	 * @return The controller values, program and pitch bend of each channel.
+	 */
+	int[][] getControllerState() {
+		int[][] controllers = this.getControllerArrays();
+		for (int index = 0; index < controllers.length; index++) {
+			controllers[index] = controllers[index].clone();
+		}
+
+		return controllers;
+	}
+
+	/**
+	 * A method that restores the controller state of every channel, as a program change would, the voices of each
+	 * channel's previous program are not continued.
+	 * @param controllers The controller state from {@link #getControllerState()}.
+	 */
+	void setControllerState(int[][] controllers) {
+		int[][] controllerArrays = this.getControllerArrays();
+		for (int index = 0; index < controllerArrays.length; index++) {
+			System.arraycopy(controllers[index], 0, controllerArrays[index], 0, controllerArrays[index].length);
+		}
+
+		for (int channel = 0; channel < 16; channel++) {
+			this.reTrigger(channel, this.reTriggerControls[channel]);
+			Arrays.fill(this.continuousVoices[channel], null);
+		}
+	}
+
+	/**
+	 * A method to get the arrays holding the state MIDI messages set on each channel, apart from the notes playing.
+	 * @return The controller arrays.
+	 */
+	private int[][] getControllerArrays() {
+		return new int[][] {this.volumeControls, this.panControls, this.expressionControls, this.bankControls, this.patch,
+			this.pitchBendControls, this.modulationControls, this.portamentoTimeControls, this.switchControls,
+			this.dataEntriesMSB, this.dataEntriesLSB, this.sampleLoopControls, this.reTriggerControls};
+	}
+
+	/**
+	 * A method to check if the internal sequencer has played every event of a sequence that does not loop.
+	 * @return True if there is no sequence or it has ended, false if it is still playing.
+	 */
+	public synchronized boolean isSequenceFinished() {
+		return !this.isSequencePlaying();
+	}
+
+	/**
+	 * A method to check if a sequence that does not loop has ended and every note it played has died away.
+	 * @return True if the stream has nothing left to play.
+	 */
+	public synchronized boolean isFinished() {
+		return !this.isSequencePlaying() && this.patchStream.musicPatchVoices.isEmpty();
+	}
+
+	/**
+	 * A method to check if the internal sequencer has events left to play.
+	 * @return True if a sequence is playing.
+	 */
+	boolean isSequencePlaying() {
+		return this.sequence != null && !this.sequenceFinished;
+	}
+
+	/**
+	 * A method to get the length of a tick at the current tempo. Times are kept in microseconds multiplied by the
+	 * resolution and the sample rate, so both ticks and samples advance them by whole numbers and the sequence never drifts.
+	 * @return The length of a tick.
+	 */
+	long getTickLength() {
+		return (long) this.tempo * (long) DevicePcmPlayer.sampleRate;
+	}
+
+	/**
+	 * A method that plays every sequence event on the current tick, then moves the sequence position to the next tick.
+	 */
+	void playNextEvents() {
+		MidiEventSequence midiEventSequence = this.sequence;
+		long tick = midiEventSequence.ticks[this.eventIndex];
+		while (this.eventIndex < midiEventSequence.length && midiEventSequence.ticks[this.eventIndex] == tick) {
+			int message = midiEventSequence.messages[this.eventIndex++];
+			if (!MidiEventSequence.isTempo(message)) {
+				MidiReceiver.dispatch(this, message);
+			} else if (!midiEventSequence.isSmpte()) {
+				this.tempo = MidiEventSequence.getTempo(message);
+			}
+		}
+
+		if (this.eventIndex < midiEventSequence.length) {
+			this.microsecondPosition += (midiEventSequence.ticks[this.eventIndex] - tick) * this.getTickLength();
+		} else if (this.loopSequence && midiEventSequence.tickLength > 0L) {
+			this.microsecondPosition += (midiEventSequence.tickLength - tick) * this.getTickLength() - this.microsecondLength;
+			this.microsecondLength = 0L;
+			this.eventIndex = 0;
+			this.tempo = midiEventSequence.getInitialTempo();
+			this.microsecondPosition += midiEventSequence.ticks[0] * this.getTickLength();
+		} else {
+			this.sequenceFinished = true;
+		}
+	}
+
 	/**
 	 * A method to set the default patch for a channel, if data does not already exist in the MIDI sequence.
 	 * @param channel The MIDI Channel number (0-15).
@@ -306,8 +634,7 @@ public class MidiAudioStream {
 	void noteOn(int channel, int data1, int data2) {
 		this.noteOff(channel, data1);
 		if ((this.switchControls[channel] & 2) != 0) {
-			int index = 0;
-			for (MusicPatchVoice musicPatchVoice = this.patchStream.musicPatchVoices.get(index); musicPatchVoice != null; musicPatchVoice = this.patchStream.musicPatchVoices.get(index++)) {
+			for (MusicPatchVoice musicPatchVoice : this.patchStream.musicPatchVoices) {
 				if (musicPatchVoice.midiChannel == channel && musicPatchVoice.releasePosition < 0) {
 					this.oneShotVoices[channel][musicPatchVoice.midiNote] = null;
 					this.oneShotVoices[channel][data1] = musicPatchVoice;
@@ -378,13 +705,8 @@ public class MidiAudioStream {
 		int audioDataLength = musicPatchVoice.audioDataSource.audioData.length;
 		int newLoopStart;
 		if (validPitch && musicPatchVoice.audioDataSource.isLooping) {
-			int newLoopStartPosition = audioDataLength + audioDataLength - musicPatchVoice.audioDataSource.loopStart;
+			int newLoopStartPosition = musicPatchVoice.audioDataSource.paddedLoopEnd;
 			newLoopStart = (int) ((long) this.sampleLoopControls[musicPatchVoice.midiChannel] * (long) newLoopStartPosition >> 6);
-			audioDataLength <<= 8;
-			if (newLoopStart >= audioDataLength) {
-				newLoopStart = audioDataLength + audioDataLength - 1 - newLoopStart;
-				musicPatchVoice.stream.processSamplePitch();
-			}
 		} else {
 			newLoopStart = (int) ((long) audioDataLength * (long) this.sampleLoopControls[musicPatchVoice.midiChannel] >> 6);
 		}
@@ -402,8 +724,7 @@ public class MidiAudioStream {
 		if (musicPatchVoice != null) {
 			this.oneShotVoices[channel][data1] = null;
 			if ((this.switchControls[channel] & 2) != 0) {
-				int index = 0;
-				for (MusicPatchVoice patchVoice = this.patchStream.musicPatchVoices.get(index); patchVoice != null; patchVoice = this.patchStream.musicPatchVoices.get(index++)) {
+				for (MusicPatchVoice patchVoice : this.patchStream.musicPatchVoices) {
 					if (musicPatchVoice.midiChannel == patchVoice.midiChannel && patchVoice.releasePosition < 0 && musicPatchVoice != patchVoice) {
 						musicPatchVoice.releasePosition = 0;
 						break;
@@ -431,8 +752,7 @@ public class MidiAudioStream {
 	 */
 	void allSoundOff(int channel) {
 		if (this.patchStream.musicPatchVoices.size() != 0) {
-			int index = 0;
-			for (MusicPatchVoice musicPatchVoice = this.patchStream.musicPatchVoices.get(index); musicPatchVoice != null; musicPatchVoice = this.patchStream.musicPatchVoices.get(index++)) {
+			for (MusicPatchVoice musicPatchVoice : this.patchStream.musicPatchVoices) {
 				if (channel < 0 || musicPatchVoice.midiChannel == channel) {
 					if (musicPatchVoice.stream != null) {
 						musicPatchVoice.stream.reset(DevicePcmPlayer.sampleRate / 100);
@@ -501,8 +821,7 @@ public class MidiAudioStream {
 	 */
 	void setPortamentoSwitch(int channel) {
 		if ((this.switchControls[channel] & 2) != 0) {
-			int index = 0;
-			for (MusicPatchVoice musicPatchVoice = this.patchStream.musicPatchVoices.get(index); musicPatchVoice != null; musicPatchVoice = this.patchStream.musicPatchVoices.get(index++)) {
+			for (MusicPatchVoice musicPatchVoice : this.patchStream.musicPatchVoices) {
 				if (musicPatchVoice.midiChannel == channel && this.oneShotVoices[channel][musicPatchVoice.midiNote] == null && musicPatchVoice.releasePosition < 0) {
 					musicPatchVoice.releasePosition = 0;
 				}
@@ -517,8 +836,7 @@ public class MidiAudioStream {
 	 */
 	void setReTriggerSwitch(int channel) {
 		if ((this.switchControls[channel] & 4) != 0) {
-			int index = 0;
-			for (MusicPatchVoice musicPatchVoice = this.patchStream.musicPatchVoices.get(index); musicPatchVoice != null; musicPatchVoice = this.patchStream.musicPatchVoices.get(index++)) {
+			for (MusicPatchVoice musicPatchVoice : this.patchStream.musicPatchVoices) {
 				if (musicPatchVoice.midiChannel == channel) {
 					musicPatchVoice.reTriggerAmount = 0;
 				}
@@ -549,16 +867,16 @@ public class MidiAudioStream {
 		if (musicPatchEnvelope.vibratoFrequencyHertz > 0 && (musicPatchEnvelope.vibratoPitchModulatorCents > 0 || this.modulationControls[musicPatchVoice.midiChannel] > 0)) {
 			pitch = musicPatchEnvelope.vibratoPitchModulatorCents << 2;
 			int vibratoDelay = musicPatchEnvelope.vibratoDelayMilliseconds << 1;
-			if (musicPatchVoice.delayOffset < vibratoDelay) {
-				pitch = pitch * musicPatchVoice.delayOffset / vibratoDelay;
+			if (musicPatchVoice.delayOffset < vibratoDelay << 8) {
+				pitch = (int) ((long) pitch * musicPatchVoice.delayOffset / (vibratoDelay << 8));
 			}
 
 			pitch += this.modulationControls[musicPatchVoice.midiChannel] >> 7;
-			double frequency = Math.sin(0.01227184630308513D * (double)(musicPatchVoice.frequencyOffset & 511));
-			shiftAmount += (int) (frequency * (double) pitch);
+			shiftAmount += (int) ((long) SynthTables.sine(musicPatchVoice.frequencyOffset >> 8) * pitch / SynthTables.FIXED_POINT_ONE);
 		}
 
-		pitch = (int) ((double) (musicPatchVoice.audioDataSource.sampleRate * 256) * Math.pow(2.0D, (double) shiftAmount * 3.255208333333333E-4D) / (double) DevicePcmPlayer.sampleRate + 0.5D);
+		long sampleStep = (long) (musicPatchVoice.audioDataSource.sampleRate * 256) * SynthTables.exp2((shiftAmount << 6) / 3) / DevicePcmPlayer.sampleRate;
+		pitch = (int) (sampleStep + (SynthTables.FIXED_POINT_ONE >> 1) >> SynthTables.FIXED_POINT_BITS);
 		return Math.max(pitch, 1);
 	}
 
@@ -568,45 +886,44 @@ public class MidiAudioStream {
 	 */
 	int calculateVolume(MusicPatchVoice musicPatchVoice) {
 		MusicPatchEnvelope musicPatchEnvelope = musicPatchVoice.musicPatchEnvelope;
-		int overallVolume = this.expressionControls[musicPatchVoice.midiChannel] * this.volumeControls[musicPatchVoice.midiChannel] + 4096 >> 13;
-		overallVolume = overallVolume * overallVolume + 16384 >> 15;
-		overallVolume = overallVolume * musicPatchVoice.midiNoteVolume + 16384 >> 15;
-		overallVolume = overallVolume * this.volume + 128 >> 8;
+		int overallVolume = musicPatchVoice.midiNoteVolume;
 		if (musicPatchEnvelope.decay > 0) {
-			overallVolume = (int)((double) overallVolume * Math.pow(0.5D, (double) musicPatchEnvelope.decay * (double) musicPatchVoice.decayEnvelopePosition * 1.953125E-5D) + 0.5D);
-		}
-
-		int position;
-		int offset;
-		int currentValue;
-		int nextValue;
-		if (musicPatchEnvelope.array0 != null) {
-			position = musicPatchVoice.attackEnvelopePosition;
-			offset = musicPatchEnvelope.array0[musicPatchVoice.positionOffset + 1];
-			if (musicPatchVoice.positionOffset < musicPatchEnvelope.array0.length - 2) {
-				currentValue = (musicPatchEnvelope.array0[musicPatchVoice.positionOffset] & 255) << 8;
-				nextValue = (musicPatchEnvelope.array0[musicPatchVoice.positionOffset + 2] & 255) << 8;
-				offset += (position - currentValue) * (musicPatchEnvelope.array0[musicPatchVoice.positionOffset + 3] - offset) / (nextValue - currentValue);
-			}
-
-			overallVolume = overallVolume * offset + 32 >> 6;
+			long decayExponent = (long) musicPatchEnvelope.decay * (long) musicPatchVoice.decayEnvelopePosition * 32L / 25L;
+			overallVolume = decayExponent >= 32L << SynthTables.FIXED_POINT_BITS ? 0 : SynthTables.scaleByExp2(overallVolume, (int) -decayExponent);
 		}
 
-		if (musicPatchVoice.releasePosition > 0 && musicPatchEnvelope.array1 != null) {
-			position = musicPatchVoice.releasePosition;
-			offset = musicPatchEnvelope.array1[musicPatchVoice.releaseOffset + 1];
-			if (musicPatchVoice.releaseOffset < musicPatchEnvelope.array1.length - 2) {
-				currentValue = (musicPatchEnvelope.array1[musicPatchVoice.releaseOffset] & 255) << 8;
-				nextValue = (musicPatchEnvelope.array1[musicPatchVoice.releaseOffset + 2] & 255) << 8;
-				offset += (musicPatchEnvelope.array1[musicPatchVoice.releaseOffset + 3] - offset) * (position - currentValue) / (nextValue - currentValue);
-			}
+		if (musicPatchEnvelope.attackSegments != null) {
+			overallVolume = overallVolume * musicPatchEnvelope.attackSegments.level(musicPatchVoice.positionOffset, musicPatchVoice.attackEnvelopePosition) + 32 >> 6;
+		}
 
-			overallVolume = offset * overallVolume + 32 >> 6;
+		if (musicPatchVoice.releasePosition > 0 && musicPatchEnvelope.releaseSegments != null) {
+			overallVolume = musicPatchEnvelope.releaseSegments.level(musicPatchVoice.releaseOffset, musicPatchVoice.releasePosition) * overallVolume + 32 >> 6;
 		}
 
 		return overallVolume;
 	}
 
+	/**
+	 * A method used to calculate the gain of a channel bus, from the channel volume and expression and the stream volume.
+	 * @param channel The MIDI Channel number (0-15).
+	 * @return The channel gain, in 1.15 fixed-point.
+	 */
+	int calculateChannelGain(int channel) {
+		int channelVolume = this.expressionControls[channel] * this.volumeControls[channel] + 4096 >> 13;
+		channelVolume = channelVolume * channelVolume + 16384 >> 15;
+		return channelVolume * this.volume + 128 >> 8;
+	}
+
+	/**
+	 * A method used to determine whether a voice volume is loud enough to be heard at a channel gain.
+	 * @param voiceVolume The volume of the voice, before panning.
+	 * @param channelGain The gain of the voice's channel bus, in 1.15 fixed-point.
+	 * @return True if the voice is at or above the silence threshold.
+	 */
+	boolean isAudible(int voiceVolume, int channelGain) {
+		return (long) voiceVolume * channelGain >= this.silenceThreshold;
+	}
+
 	/**
 	 * A method used to calculate panning.
 	 * @param musicPatchVoice The synthesized sound, also called a voice.
@@ -639,11 +956,11 @@ public class MidiAudioStream {
 	 * @param musicPatchVoice The synthesized sound, also called a voice.
 	 */
 	boolean isActive(MusicPatchVoice musicPatchVoice, int[] samples, int offset, int length) {
-		musicPatchVoice.samplesInMs = DevicePcmPlayer.sampleRate / 100;
+		musicPatchVoice.samplesInMs = DevicePcmPlayer.sampleRate / this.controlRate;
 		if (musicPatchVoice.releasePosition < 0 || musicPatchVoice.stream != null && !musicPatchVoice.stream.isLoopValid()) {
 			int slideAmount = musicPatchVoice.portamentoOffset;
 			if (slideAmount > 0) {
-				slideAmount -= (int) (16.0D * Math.pow(2.0D, 4.921259842519685E-4D * (double) this.portamentoTimeControls[musicPatchVoice.midiChannel]) + 0.5D);
+				slideAmount -= SynthTables.scaleByExp2(16, (this.portamentoTimeControls[musicPatchVoice.midiChannel] << SynthTables.FIXED_POINT_BITS) / 2032 + this.controlTickExponent);
 				if (slideAmount < 0) {
 					slideAmount = 0;
 				}
@@ -654,49 +971,51 @@ public class MidiAudioStream {
 			musicPatchVoice.stream.setSampleBasePitch(this.calculatePitch(musicPatchVoice));
 			MusicPatchEnvelope musicPatchEnvelope = musicPatchVoice.musicPatchEnvelope;
 			boolean reachedEndOfArray = false;
-			++musicPatchVoice.delayOffset;
-			musicPatchVoice.frequencyOffset += musicPatchEnvelope.vibratoFrequencyHertz;
-			double pitch = 5.086263020833333E-6D * (double) ((musicPatchVoice.midiNote - 60 << 8) + (musicPatchVoice.pitchShiftOffset * musicPatchVoice.portamentoOffset >> 12));
+			if (musicPatchVoice.delayOffset < musicPatchEnvelope.vibratoDelayMilliseconds << 9) {
+				musicPatchVoice.delayOffset += SynthTables.scaleByExp2(256, this.controlTickExponent);
+			}
+
+			musicPatchVoice.frequencyOffset += SynthTables.scaleByExp2(musicPatchEnvelope.vibratoFrequencyHertz << 8, this.controlTickExponent);
+			int pitch = (musicPatchVoice.midiNote - 60 << 8) + (musicPatchVoice.pitchShiftOffset * musicPatchVoice.portamentoOffset >> 12);
 			if (musicPatchEnvelope.decay > 0) {
 				if (musicPatchEnvelope.sustain > 0) {
-					musicPatchVoice.decayEnvelopePosition += (int) (128.0D * Math.pow(2.0D, (double) musicPatchEnvelope.sustain * pitch) + 0.5D);
+					musicPatchVoice.decayEnvelopePosition += SynthTables.scaleByExp2(128, musicPatchEnvelope.sustain * pitch / 3 + this.controlTickExponent);
 				} else {
-					musicPatchVoice.decayEnvelopePosition += 128;
+					musicPatchVoice.decayEnvelopePosition += SynthTables.scaleByExp2(128, this.controlTickExponent);
 				}
 			}
 
-			if (musicPatchEnvelope.array0 != null) {
+			if (musicPatchEnvelope.attackSegments != null) {
 				if (musicPatchEnvelope.attack > 0) {
-					musicPatchVoice.attackEnvelopePosition += (int) (128.0D * Math.pow(2.0D, pitch * (double) musicPatchEnvelope.attack) + 0.5D);
+					musicPatchVoice.attackEnvelopePosition += SynthTables.scaleByExp2(128, pitch * musicPatchEnvelope.attack / 3 + this.controlTickExponent);
 				} else {
-					musicPatchVoice.attackEnvelopePosition += 128;
-				}
-
-				while (musicPatchVoice.positionOffset < musicPatchEnvelope.array0.length - 2 && musicPatchVoice.attackEnvelopePosition > (musicPatchEnvelope.array0[musicPatchVoice.positionOffset + 2] & 255) << 8) {
-					musicPatchVoice.positionOffset += 2;
+					musicPatchVoice.attackEnvelopePosition += SynthTables.scaleByExp2(128, this.controlTickExponent);
 				}
 
-				if (musicPatchEnvelope.array0.length - 2 == musicPatchVoice.positionOffset && musicPatchEnvelope.array0[musicPatchVoice.positionOffset + 1] == 0) {
+				musicPatchVoice.positionOffset = musicPatchEnvelope.attackSegments.advance(musicPatchVoice.positionOffset, musicPatchVoice.attackEnvelopePosition);
+				if (musicPatchEnvelope.attackSegments.isFinishedSilent(musicPatchVoice.positionOffset)) {
 					reachedEndOfArray = true;
 				}
 			}
 
-			if (musicPatchVoice.releasePosition >= 0 && musicPatchEnvelope.array1 != null && (this.switchControls[musicPatchVoice.midiChannel] & 1) == 0 && (musicPatchVoice.loopType < 0 || musicPatchVoice != this.continuousVoices[musicPatchVoice.midiChannel][musicPatchVoice.loopType])) {
+			if (musicPatchVoice.releasePosition >= 0 && musicPatchEnvelope.releaseSegments != null && (this.switchControls[musicPatchVoice.midiChannel] & 1) == 0 && (musicPatchVoice.loopType < 0 || musicPatchVoice != this.continuousVoices[musicPatchVoice.midiChannel][musicPatchVoice.loopType])) {
 				if (musicPatchEnvelope.release > 0) {
-					musicPatchVoice.releasePosition += (int) (128.0D * Math.pow(2.0D, pitch * (double) musicPatchEnvelope.release) + 0.5D);
+					musicPatchVoice.releasePosition += SynthTables.scaleByExp2(128, pitch * musicPatchEnvelope.release / 3 + this.controlTickExponent);
 				} else {
-					musicPatchVoice.releasePosition += 128;
-				}
-
-				while (musicPatchVoice.releaseOffset < musicPatchEnvelope.array1.length - 2 && musicPatchVoice.releasePosition > (musicPatchEnvelope.array1[musicPatchVoice.releaseOffset + 2] & 255) << 8) {
-					musicPatchVoice.releaseOffset += 2;
+					musicPatchVoice.releasePosition += SynthTables.scaleByExp2(128, this.controlTickExponent);
 				}
 
-				if (musicPatchEnvelope.array1.length - 2 == musicPatchVoice.releaseOffset) {
+				musicPatchVoice.releaseOffset = musicPatchEnvelope.releaseSegments.advance(musicPatchVoice.releaseOffset, musicPatchVoice.releasePosition);
+				if (musicPatchEnvelope.releaseSegments.isFinished(musicPatchVoice.releaseOffset)) {
 					reachedEndOfArray = true;
 				}
 			}
 
+			int overallVolume = this.calculateVolume(musicPatchVoice);
+			if (musicPatchVoice.releasePosition >= 0 && (musicPatchEnvelope.attackSegments == null || musicPatchEnvelope.attackSegments.isFinished(musicPatchVoice.positionOffset)) && !this.isAudible(Math.max(overallVolume, musicPatchVoice.stream.getPeakVolume()), 1 << 15)) {
+				reachedEndOfArray = true;
+			}
+
 			if (reachedEndOfArray) {
 				musicPatchVoice.stream.reset(musicPatchVoice.samplesInMs);
 				if (samples != null) {
@@ -712,7 +1031,7 @@ public class MidiAudioStream {
 				}
 				return false;
 			} else {
-				musicPatchVoice.stream.setDefaultVolumeAndPanning(musicPatchVoice.samplesInMs, this.calculateVolume(musicPatchVoice), this.calculatePanning(musicPatchVoice));
+				musicPatchVoice.stream.setDefaultVolumeAndPanning(musicPatchVoice.samplesInMs, overallVolume, this.calculatePanning(musicPatchVoice));
 				return true;
 			}
 		} else {
@@ -0,0 +1,364 @@
+/*
+ * Copyright (c) 2022, Rodolfo Ruiz-Velasco <https://github.com/lequietriot>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package rs.musicmask.midisynth;
+
+import javax.sound.midi.MetaMessage;
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Track;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+
+/**
+ * A class holding the events of every track of a MIDI sequence merged into primitive arrays ordered by tick, so the
+ * internal sequencer of {@link MidiAudioStream} can walk them without creating any objects while rendering.
+ * Channel messages are packed as {@code status | data1 << 8 | data2 << 16}, and tempo changes as
+ * {@code TEMPO_EVENT | microseconds per quarter note}. Other meta and system exclusive messages are not kept.
+ */
+public final class MidiEventSequence {
+
+	/**
+	 * The tempo MIDI sequences start at before any tempo change, in microseconds per quarter note.
+	 */
+	public static final int DEFAULT_TEMPO = 500000;
+
+	/**
+	 * The number of quarter notes, or frames for SMPTE timing, between controller snapshots.
+	 */
+	static final int SNAPSHOT_INTERVAL = 4;
+
+	/**
+	 * The marker of a packed tempo change event, in the top byte where a packed channel message is always zero.
+	 */
+	static final int TEMPO_EVENT = 0xFF000000;
+
+	/**
+	 * An array of the tick of each event, in ascending order.
+	 */
+	final long[] ticks;
+
+	/**
+	 * An array of the packed message of each event.
+	 */
+	final int[] messages;
+
+	/**
+	 * An integer value representing the number of events.
+	 */
+	final int length;
+
+	/**
+	 * A long value representing the tick the sequence ends at, which is where a looping sequence starts over.
+	 */
+	final long tickLength;
+
+	/**
+	 * A float value representing the timing division type, as defined by {@link Sequence}.
+	 */
+	final float divisionType;
+
+	/**
+	 * An integer value representing the timing resolution, in ticks per quarter note or ticks per frame.
+	 */
+	final int resolution;
+
+	/**
+	 * The IDs of the patches the sequence plays notes with, computed when first requested.
+	 */
+	private BitSet patchUsage;
+
+	/**
+	 * The controller state at every snapshot interval, built by {@link #buildSnapshots()}.
+	 */
+	private ControllerSnapshot[] snapshots;
+
+	/**
+	 * Constructs a new event sequence from arrays of events which are already ordered by tick.
+	 * @param ticks The tick of each event.
+	 * @param messages The packed message of each event.
+	 * @param length The number of events.
+	 * @param tickLength The tick the sequence ends at.
+	 * @param divisionType The timing division type, as defined by {@link Sequence}.
+	 * @param resolution The timing resolution.
+	 */
+	public MidiEventSequence(long[] ticks, int[] messages, int length, long tickLength, float divisionType, int resolution) {
+		this.ticks = ticks;
+		this.messages = messages;
+		this.length = length;
+		this.tickLength = Math.max(tickLength, length > 0 ? ticks[length - 1] : 0L);
+		this.divisionType = divisionType;
+		this.resolution = Math.max(1, resolution);
+	}
+
+	/**
+	 * A method that merges the tracks of a sequence into a new event sequence.
+	 * Events on the same tick keep the order of their tracks.
+	 * @param sequence The MIDI sequence.
+	 * @return The event sequence.
+	 */
+	public static MidiEventSequence fromSequence(Sequence sequence) {
+		ArrayList<MidiEvent> events = new ArrayList<>();
+		for (Track track : sequence.getTracks()) {
+			for (int index = 0; index < track.size(); index++) {
+				events.add(track.get(index));
+			}
+		}
+
+		events.sort(Comparator.comparingLong(MidiEvent::getTick));
+		long[] ticks = new long[events.size()];
+		int[] messages = new int[events.size()];
+		int length = 0;
+		for (MidiEvent event : events) {
+			MidiMessage message = event.getMessage();
+			if (message instanceof ShortMessage) {
+				ShortMessage shortMessage = (ShortMessage) message;
+				messages[length] = packMessage(shortMessage.getStatus(), shortMessage.getData1(), shortMessage.getData2());
+			} else if (message instanceof MetaMessage && ((MetaMessage) message).getType() == 0x51 && ((MetaMessage) message).getData().length >= 3) {
+				byte[] data = ((MetaMessage) message).getData();
+				messages[length] = packTempo((data[0] & 0xFF) << 16 | (data[1] & 0xFF) << 8 | data[2] & 0xFF);
+			} else {
+				continue;
+			}
+
+			ticks[length++] = event.getTick();
+		}
+
+		return new MidiEventSequence(ticks, messages, length, sequence.getTickLength(), sequence.getDivisionType(), sequence.getResolution());
+	}
+
+	/**
+	 * A method that packs a channel message into an integer.
+	 * @param status The status byte, holding the command and channel.
+	 * @param data1 The first data byte.
+	 * @param data2 The second data byte.
+	 * @return The packed message.
+	 */
+	public static int packMessage(int status, int data1, int data2) {
+		return status & 0xFF | (data1 & 0x7F) << 8 | (data2 & 0x7F) << 16;
+	}
+
+	/**
+	 * A method that packs a tempo change into an integer.
+	 * @param tempo The tempo in microseconds per quarter note.
+	 * @return The packed tempo change.
+	 */
+	public static int packTempo(int tempo) {
+		return TEMPO_EVENT | tempo & 0xFFFFFF;
+	}
+
+	/**
+	 * A method to check if a packed event is a tempo change.
+	 * @param message The packed event.
+	 * @return True if the event is a tempo change, false if it is a channel message.
+	 */
+	static boolean isTempo(int message) {
+		return (message & TEMPO_EVENT) == TEMPO_EVENT;
+	}
+
+	/**
+	 * A method that unpacks the tempo of a tempo change.
+	 * @param message The packed tempo change.
+	 * @return The tempo in microseconds per quarter note.
+	 */
+	static int getTempo(int message) {
+		return message & 0xFFFFFF;
+	}
+
+	/**
+	 * A method to check if a packed event changes state a seek has to restore, which is every channel message apart
+	 * from notes.
+	 * @param message The packed event.
+	 * @return True if the event is chased.
+	 */
+	static boolean isChased(int message) {
+		int command = message & 0xF0;
+		return !isTempo(message) && command != 128 && command != 144;
+	}
+
+	/**
+	 * A method to check if the sequence is timed in SMPTE frames, which makes its ticks a fixed length.
+	 * @return True if tempo changes do not apply to the sequence.
+	 */
+	boolean isSmpte() {
+		return this.divisionType != Sequence.PPQ;
+	}
+
+	/**
+	 * A method to get the tempo the sequence starts at. For SMPTE timing this is the fixed length of a frame,
+	 * so the length of a tick is always the tempo divided by the resolution.
+	 * @return The initial tempo in microseconds per quarter note or frame.
+	 */
+	int getInitialTempo() {
+		return this.isSmpte() ? Math.round(1000000.0F / this.divisionType) : DEFAULT_TEMPO;
+	}
+
+	/**
+	 * A method to get the Sound Bank patches the sequence plays notes with, following its bank selects and program
+	 * changes from the patches a {@link MidiAudioStream} starts with. Two passes are followed, since a looping sequence
+	 * starts its second pass with the banks and programs the first one ended with, and every later pass is the same.
+	 * @return A new set holding the IDs of the patches.
+	 */
+	public synchronized BitSet getPatchUsage() {
+		if (this.patchUsage == null) {
+			int[] banks = new int[16];
+			int[] patches = new int[16];
+			banks[MidiAudioStream.PERCUSSION_CHANNEL] = MidiAudioStream.PERCUSSION_PATCH & -128;
+			patches[MidiAudioStream.PERCUSSION_CHANNEL] = MidiAudioStream.PERCUSSION_PATCH;
+			BitSet usage = new BitSet();
+			for (int pass = 0; pass < 2; pass++) {
+				for (int index = 0; index < this.length; index++) {
+					int message = this.messages[index];
+					if (isTempo(message)) {
+						continue;
+					}
+
+					int command = message & 0xF0;
+					int channel = message & 0x0F;
+					int data1 = message >> 8 & 0x7F;
+					int data2 = message >> 16 & 0x7F;
+					if (command == 144 && data2 > 0) {
+						usage.set(patches[channel]);
+					} else if (command == 176 && data1 == 0) {
+						banks[channel] = (data2 << 14) + (banks[channel] & -2080769);
+					} else if (command == 176 && data1 == 32) {
+						banks[channel] = (data2 << 7) + (banks[channel] & -16257);
+					} else if (command == 192) {
+						patches[channel] = data1 + banks[channel];
+					}
+				}
+			}
+
+			this.patchUsage = usage;
+		}
+
+		return (BitSet) this.patchUsage.clone();
+	}
+
+	/**
+	 * A method that builds the controller snapshots seeking starts from, if they have not been built yet. They are built
+	 * by playing every chased event through a synthesizer without patches, so they hold exactly the state
+	 * {@link MidiReceiver#dispatch(MidiAudioStream, int)} leaves on the first pass. The first seek builds them if they
+	 * are missing, so this only needs calling ahead of a seek that should not build them while holding its stream's lock.
+	 */
+	public synchronized void buildSnapshots() {
+		if (this.snapshots != null) {
+			return;
+		}
+
+		long interval = (long) this.resolution * SNAPSHOT_INTERVAL;
+		MidiAudioStream midiAudioStream = new MidiAudioStream(null, new BitSet());
+		midiAudioStream.setInitialPatch(MidiAudioStream.PERCUSSION_CHANNEL, MidiAudioStream.PERCUSSION_PATCH);
+		ControllerSnapshot[] controllerSnapshots = new ControllerSnapshot[(int) (this.tickLength / interval) + 1];
+		int tempo = this.getInitialTempo();
+		int index = 0;
+		synchronized (midiAudioStream) {
+			for (int snapshot = 0; snapshot < controllerSnapshots.length; snapshot++) {
+				long snapshotTick = snapshot * interval;
+				while (index < this.length && this.ticks[index] < snapshotTick) {
+					int message = this.messages[index++];
+					if (isTempo(message)) {
+						if (!this.isSmpte()) {
+							tempo = getTempo(message);
+						}
+					} else if (isChased(message)) {
+						MidiReceiver.dispatch(midiAudioStream, message);
+					}
+				}
+
+				controllerSnapshots[snapshot] = new ControllerSnapshot(index, tempo, midiAudioStream.getControllerState());
+			}
+		}
+
+		midiAudioStream.close();
+		this.snapshots = controllerSnapshots;
+	}
+
+	/**
+	 * A method to get the snapshot a seek to a tick starts from, the last one at or before the tick.
+	 * The snapshots are built here if {@link #buildSnapshots()} has not been called.
+	 * @param tick The tick being seeked to.
+	 * @return The controller snapshot.
+	 */
+	synchronized ControllerSnapshot getSnapshot(long tick) {
+		this.buildSnapshots();
+		long interval = (long) this.resolution * SNAPSHOT_INTERVAL;
+		return this.snapshots[(int) Math.min(this.snapshots.length - 1, tick / interval)];
+	}
+
+	/**
+	 * A method to get the number of events.
+	 * @return The number of events.
+	 */
+	public int getLength() {
+		return this.length;
+	}
+
+	/**
+	 * A method to get the tick the sequence ends at.
+	 * @return The length of the sequence in ticks.
+	 */
+	public long getTickLength() {
+		return this.tickLength;
+	}
+
+	/**
+	 * A method to get the timing resolution.
+	 * @return The number of ticks per quarter note or frame.
+	 */
+	public int getResolution() {
+		return this.resolution;
+	}
+
+	/**
+	 * A class holding the state of every channel at a snapshot tick, before the events on that tick are played.
+	 */
+	static final class ControllerSnapshot {
+
+		/**
+		 * An integer value representing the index of the first event on or after the snapshot tick.
+		 */
+		final int eventIndex;
+
+		/**
+		 * An integer value representing the tempo at the snapshot tick.
+		 */
+		final int tempo;
+
+		/**
+		 * The controller values, program and pitch bend of each channel, see {@link MidiAudioStream#getControllerState()}.
+		 */
+		final int[][] controllers;
+
+		ControllerSnapshot(int eventIndex, int tempo, int[][] controllers) {
+			this.eventIndex = eventIndex;
+			this.tempo = tempo;
+			this.controllers = controllers;
+		}
+	}
+}
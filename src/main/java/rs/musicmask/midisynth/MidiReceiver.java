@@ -49,176 +49,181 @@ public class MidiReceiver implements Receiver {
 
     /**
      * An overridden method from the Receiver class which processes MIDI messages with the sound bank to create audio.
+     * Messages are applied while holding the synthesizer's monitor, so they never interleave with a fill.
      * @param message The MIDI Message to send.
      * @param timeStamp The precise point of time in which the MIDI Message is sent.
      */
     @Override
     public void send(MidiMessage message, long timeStamp) {
-        if (message != null) {
-            if (message instanceof ShortMessage) {
-                ShortMessage shortMessage = (ShortMessage) message;
-                int command = shortMessage.getCommand();
-                int channel = shortMessage.getChannel();
-                int data1 = shortMessage.getData1();
-                int data2 = shortMessage.getData2();
-                if (command == 128) {
-                    midiSynth.noteOff(channel, data1);
-                } else if (command == 144) {
-                    if (data2 > 0) {
-                        midiSynth.noteOn(channel, data1, data2);
-                    } else {
-                        midiSynth.noteOff(channel, data1);
-                    }
-                } else if (command == 176) {
-                    if (data1 == 0) {
-                        midiSynth.bankControls[channel] = (data2 << 14) + (midiSynth.bankControls[channel] & -2080769);
-                    }
-
-                    if (data1 == 32) {
-                        midiSynth.bankControls[channel] = (data2 << 7) + (midiSynth.bankControls[channel] & -16257);
-                    }
-
-                    if (data1 == 1) {
-                        midiSynth.modulationControls[channel] = (data2 << 7) + (midiSynth.modulationControls[channel] & -16257);
-                    }
-
-                    if (data1 == 33) {
-                        midiSynth.modulationControls[channel] = data2 + (midiSynth.modulationControls[channel] & -128);
-                    }
-
-                    if (data1 == 5) {
-                        midiSynth.portamentoTimeControls[channel] = (data2 << 7) + (midiSynth.portamentoTimeControls[channel] & -16257);
-                    }
-
-                    if (data1 == 37) {
-                        midiSynth.portamentoTimeControls[channel] = data2 + (midiSynth.portamentoTimeControls[channel] & -128);
-                    }
-
-                    if (data1 == 7) {
-                        midiSynth.volumeControls[channel] = (data2 << 7) + (midiSynth.volumeControls[channel] & -16257);
-                    }
-
-                    if (data1 == 39) {
-                        midiSynth.volumeControls[channel] = data2 + (midiSynth.volumeControls[channel] & -128);
-                    }
-
-                    if (data1 == 10) {
-                        midiSynth.panControls[channel] = (data2 << 7) + (midiSynth.panControls[channel] & -16257);
-                    }
-
-                    if (data1 == 42) {
-                        midiSynth.panControls[channel] = data2 + (midiSynth.panControls[channel] & -128);
-                    }
-
-                    if (data1 == 11) {
-                        midiSynth.expressionControls[channel] = (data2 << 7) + (midiSynth.expressionControls[channel] & -16257);
-                    }
-
-                    if (data1 == 43) {
-                        midiSynth.expressionControls[channel] = data2 + (midiSynth.expressionControls[channel] & -128);
-                    }
-
-                    int[] controlValues;
-                    if (data1 == 64) {
-                        controlValues = midiSynth.switchControls;
-                        if (data2 >= 64) {
-                            controlValues[channel] |= 1;
-                        } else {
-                            controlValues[channel] &= -2;
-                        }
-                    }
-
-                    if (data1 == 65) {
-                        if (data2 >= 64) {
-                            controlValues = midiSynth.switchControls;
-                            controlValues[channel] |= 2;
-                        } else {
-                            midiSynth.setPortamentoSwitch(channel);
-                            controlValues = midiSynth.switchControls;
-                            controlValues[channel] &= -3;
-                        }
-                    }
-
-                    if (data1 == 99) {
-                        midiSynth.dataEntriesMSB[channel] = (data2 << 7) + (midiSynth.dataEntriesMSB[channel] & 127);
-                    }
-
-                    if (data1 == 98) {
-                        midiSynth.dataEntriesMSB[channel] = (midiSynth.dataEntriesMSB[channel] & 16256) + data2;
-                    }
-
-                    if (data1 == 101) {
-                        midiSynth.dataEntriesMSB[channel] = (data2 << 7) + (midiSynth.dataEntriesMSB[channel] & 127) + 16384;
-                    }
-
-                    if (data1 == 100) {
-                        midiSynth.dataEntriesMSB[channel] = (midiSynth.dataEntriesMSB[channel] & 16256) + data2 + 16384;
-                    }
-
-                    if (data1 == 120) {
-                        midiSynth.allSoundOff(channel);
-                    }
-
-                    /*
-                    if (data1 == 121) {
-                        midiSynth.resetAllControllers(channel);
-                    }
-                     */
-
-                    int value;
-                    if (data1 == 6) {
-                        value = midiSynth.dataEntriesMSB[channel];
-                        if (value == 16384) {
-                            midiSynth.dataEntriesLSB[channel] = (data2 << 7) + (midiSynth.dataEntriesLSB[channel] & -16257);
-                        }
-                    }
-
-                    if (data1 == 38) {
-                        value = midiSynth.dataEntriesMSB[channel];
-                        if (value == 16384) {
-                            midiSynth.dataEntriesLSB[channel] = data2 + (midiSynth.dataEntriesLSB[channel] & -128);
-                        }
-                    }
-
-                    if (data1 == 16) {
-                        midiSynth.sampleLoopControls[channel] = (data2 << 7) + (midiSynth.sampleLoopControls[channel] & -16257);
-                    }
-
-                    if (data1 == 48) {
-                        midiSynth.sampleLoopControls[channel] = data2 + (midiSynth.sampleLoopControls[channel] & -128);
-                    }
-
-                    if (data1 == 81) {
-                        if (data2 >= 64) {
-                            controlValues = midiSynth.switchControls;
-                            controlValues[channel] |= 4;
-                        } else {
-                            midiSynth.setReTriggerSwitch(channel);
-                            controlValues = midiSynth.switchControls;
-                            controlValues[channel] &= -5;
-                        }
-                    }
-
-                    if (data1 == 17) {
-                        midiSynth.reTrigger(channel, (data2 << 7) + (midiSynth.reTriggerControls[channel] & -16257));
-                    }
+        if (message instanceof ShortMessage) {
+            ShortMessage shortMessage = (ShortMessage) message;
+            this.send(MidiEventSequence.packMessage(shortMessage.getStatus(), shortMessage.getData1(), shortMessage.getData2()));
+        }
+    }
 
-                    if (data1 == 49) {
-                        midiSynth.reTrigger(channel, data2 + (midiSynth.reTriggerControls[channel] & -128));
-                    }
+    /**
+     * A method which processes a MIDI message packed into an integer, without creating a message object.
+     * @param message The packed MIDI message, see {@link MidiEventSequence#packMessage(int, int, int)}.
+     */
+    public void send(int message) {
+        MidiAudioStream midiSynth = this.midiSynth;
+        if (midiSynth != null) {
+            synchronized (midiSynth) {
+                dispatch(midiSynth, message);
+            }
+        }
+    }
 
-                } else if (command == 192) {
-                    midiSynth.programChange(channel, data1 + midiSynth.bankControls[channel]);
-                } else if (command == 224) {
-                    midiSynth.pitchBend(channel, (data1 + data2 * 128) & 16256);
+    /**
+     * A method which applies a packed MIDI message to a synthesizer. The caller has to hold the synthesizer's monitor.
+     * Commands and controller numbers are dispatched through switches, which compile to jump tables, so the cost of a
+     * message does not depend on which controller it changes, and nothing is allocated.
+     * @param midiSynth The MIDI synthesizer to apply the message to.
+     * @param message The packed MIDI message, see {@link MidiEventSequence#packMessage(int, int, int)}.
+     */
+    static void dispatch(MidiAudioStream midiSynth, int message) {
+        int channel = message & 0x0F;
+        int data1 = message >> 8 & 0x7F;
+        int data2 = message >> 16 & 0x7F;
+        switch (message & 0xF0) {
+            case 128:
+                midiSynth.noteOff(channel, data1);
+                break;
+            case 144:
+                if (data2 > 0) {
+                    midiSynth.noteOn(channel, data1, data2);
                 } else {
-                    if (command == 255) {
-                        midiSynth.systemReset();
-                    }
+                    midiSynth.noteOff(channel, data1);
                 }
-            }
+                break;
+            case 176:
+                controlChange(midiSynth, channel, data1, data2);
+                break;
+            case 192:
+                midiSynth.programChange(channel, data1 + midiSynth.bankControls[channel]);
+                break;
+            case 224:
+                midiSynth.pitchBend(channel, (data1 + data2 * 128) & 16256);
+                break;
+            case 240:
+                if ((message & 0xFF) == 255) {
+                    midiSynth.systemReset();
+                }
+                break;
+            default:
+                break;
         }
+    }
 
+    /**
+     * A method which applies a control change to a synthesizer, with one case for each controller it handles.
+     * @param midiSynth The MIDI synthesizer to apply the control change to.
+     * @param channel The MIDI Channel number (0-15).
+     * @param controller The controller number (0-127).
+     * @param value The controller value (0-127).
+     */
+    private static void controlChange(MidiAudioStream midiSynth, int channel, int controller, int value) {
+        switch (controller) {
+            case 0:
+                midiSynth.bankControls[channel] = (value << 14) + (midiSynth.bankControls[channel] & -2080769);
+                break;
+            case 32:
+                midiSynth.bankControls[channel] = (value << 7) + (midiSynth.bankControls[channel] & -16257);
+                break;
+            case 1:
+                midiSynth.modulationControls[channel] = (value << 7) + (midiSynth.modulationControls[channel] & -16257);
+                break;
+            case 33:
+                midiSynth.modulationControls[channel] = value + (midiSynth.modulationControls[channel] & -128);
+                break;
+            case 5:
+                midiSynth.portamentoTimeControls[channel] = (value << 7) + (midiSynth.portamentoTimeControls[channel] & -16257);
+                break;
+            case 37:
+                midiSynth.portamentoTimeControls[channel] = value + (midiSynth.portamentoTimeControls[channel] & -128);
+                break;
+            case 7:
+                midiSynth.volumeControls[channel] = (value << 7) + (midiSynth.volumeControls[channel] & -16257);
+                break;
+            case 39:
+                midiSynth.volumeControls[channel] = value + (midiSynth.volumeControls[channel] & -128);
+                break;
+            case 10:
+                midiSynth.panControls[channel] = (value << 7) + (midiSynth.panControls[channel] & -16257);
+                break;
+            case 42:
+                midiSynth.panControls[channel] = value + (midiSynth.panControls[channel] & -128);
+                break;
+            case 11:
+                midiSynth.expressionControls[channel] = (value << 7) + (midiSynth.expressionControls[channel] & -16257);
+                break;
+            case 43:
+                midiSynth.expressionControls[channel] = value + (midiSynth.expressionControls[channel] & -128);
+                break;
+            case 64:
+                if (value >= 64) {
+                    midiSynth.switchControls[channel] |= 1;
+                } else {
+                    midiSynth.switchControls[channel] &= -2;
+                }
+                break;
+            case 65:
+                if (value >= 64) {
+                    midiSynth.switchControls[channel] |= 2;
+                } else {
+                    midiSynth.setPortamentoSwitch(channel);
+                    midiSynth.switchControls[channel] &= -3;
+                }
+                break;
+            case 99:
+                midiSynth.dataEntriesMSB[channel] = (value << 7) + (midiSynth.dataEntriesMSB[channel] & 127);
+                break;
+            case 98:
+                midiSynth.dataEntriesMSB[channel] = (midiSynth.dataEntriesMSB[channel] & 16256) + value;
+                break;
+            case 101:
+                midiSynth.dataEntriesMSB[channel] = (value << 7) + (midiSynth.dataEntriesMSB[channel] & 127) + 16384;
+                break;
+            case 100:
+                midiSynth.dataEntriesMSB[channel] = (midiSynth.dataEntriesMSB[channel] & 16256) + value + 16384;
+                break;
+            case 120:
+                midiSynth.allSoundOff(channel);
+                break;
+            // Controller 121 (reset all controllers) is ignored.
+            case 6:
+                if (midiSynth.dataEntriesMSB[channel] == 16384) {
+                    midiSynth.dataEntriesLSB[channel] = (value << 7) + (midiSynth.dataEntriesLSB[channel] & -16257);
+                }
+                break;
+            case 38:
+                if (midiSynth.dataEntriesMSB[channel] == 16384) {
+                    midiSynth.dataEntriesLSB[channel] = value + (midiSynth.dataEntriesLSB[channel] & -128);
+                }
+                break;
+            case 16:
+                midiSynth.sampleLoopControls[channel] = (value << 7) + (midiSynth.sampleLoopControls[channel] & -16257);
+                break;
+            case 48:
+                midiSynth.sampleLoopControls[channel] = value + (midiSynth.sampleLoopControls[channel] & -128);
+                break;
+            case 81:
+                if (value >= 64) {
+                    midiSynth.switchControls[channel] |= 4;
+                } else {
+                    midiSynth.setReTriggerSwitch(channel);
+                    midiSynth.switchControls[channel] &= -5;
+                }
+                break;
+            case 17:
+                midiSynth.reTrigger(channel, (value << 7) + (midiSynth.reTriggerControls[channel] & -16257));
+                break;
+            case 49:
+                midiSynth.reTrigger(channel, value + (midiSynth.reTriggerControls[channel] & -128));
+                break;
+            default:
+                break;
+        }
     }
 
     /**
@@ -32,6 +32,7 @@ import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 /**
  * A class which decodes the RuneScape sequence data to a readable MIDI format.
@@ -43,28 +44,129 @@ public class MidiTrackLoader {
      */
     public Sequence midiSequence;
 
+    /**
+     * The decoded events, merged into primitive arrays for the internal sequencer.
+     */
+    public MidiEventSequence eventSequence;
+
+    /**
+     * The buffer the MIDI file is written to, kept so converting further tracks does not allocate a new one.
+     */
+    private ByteBuffer midiBuffer;
+
+    /**
+     * The arrays events are decoded into track by track, kept so converting further tracks does not allocate new ones.
+     */
+    private long[] tickBuffer;
+
+    private int[] messageBuffer;
+
+    /**
+     * The arrays the decoded tracks are merged through, kept along with the decode arrays.
+     */
+    private long[] mergedTickBuffer;
+
+    private int[] mergedMessageBuffer;
+
+    /**
+     * The class to decode RuneScape's encoded MIDI data, which converts tracks passed to {@link #convertToMidi(ByteBuffer)}
+     * or {@link #convertToEvents(ByteBuffer)}. A loader is not thread safe, but can be reused for any number of tracks.
+     */
+    public MidiTrackLoader() {
+    }
+
     /**
      * The class to decode RuneScape's encoded MIDI data.
      * @param inputStream initialize the decoder with the encoded data stream.
      */
     public MidiTrackLoader(InputStream inputStream) {
+        this(inputStream, false);
+    }
+
+    /**
+     * The class to decode RuneScape's encoded MIDI data.
+     * @param inputStream initialize the decoder with the encoded data stream.
+     * @param eventsOnly True to decode straight into an event sequence in a single pass, without creating a MIDI file or Sequence.
+     */
+    public MidiTrackLoader(InputStream inputStream, boolean eventsOnly) {
         try {
-            ByteBuffer byteBuffer = ByteBuffer.allocate(inputStream.available());
-            for (int index = 0; index < byteBuffer.capacity(); index++) {
-                byteBuffer.put((byte) inputStream.read());
-            }
-            convertToMidi(byteBuffer);
+            load(ByteBuffer.wrap(inputStream.readAllBytes()), eventsOnly);
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
+    /**
+     * The class to decode RuneScape's encoded MIDI data, reading the array in place without copying it.
+     * @param data initialize the decoder with the encoded data.
+     */
+    public MidiTrackLoader(byte[] data) {
+        this(data, false);
+    }
+
+    /**
+     * The class to decode RuneScape's encoded MIDI data, reading the array in place without copying it.
+     * @param data initialize the decoder with the encoded data.
+     * @param eventsOnly True to decode straight into an event sequence in a single pass, without creating a MIDI file or Sequence.
+     */
+    public MidiTrackLoader(byte[] data, boolean eventsOnly) {
+        load(ByteBuffer.wrap(data), eventsOnly);
+    }
+
+    /**
+     * The class to decode RuneScape's encoded MIDI data, which runs from the start of the buffer to its limit.
+     * A heap buffer starting at the beginning of its array is read in place, any other buffer is copied once.
+     * @param byteBuffer initialize the decoder with the encoded data.
+     * @param eventsOnly True to decode straight into an event sequence in a single pass, without creating a MIDI file or Sequence.
+     */
+    public MidiTrackLoader(ByteBuffer byteBuffer, boolean eventsOnly) {
+        load(byteBuffer, eventsOnly);
+    }
+
+    /**
+     * A method that decodes a track in the format requested by a constructor.
+     * @param byteBuffer The buffer storing encoded MIDI data
+     * @param eventsOnly True to decode to an event sequence, false to decode to a MIDI sequence.
+     */
+    private void load(ByteBuffer byteBuffer, boolean eventsOnly) {
+        if (eventsOnly) {
+            convertToEvents(byteBuffer);
+        } else {
+            convertToMidi(byteBuffer);
+        }
+    }
+
 
     /**
      * The method to decode RuneScape's custom encoded MIDI data to a readable MIDI format.
+     * The MIDI file is written to a buffer that is kept for the next track this loader converts.
      * @param byteBuffer The buffer storing encoded MIDI data
      */
     public void convertToMidi(ByteBuffer byteBuffer) {
+        decode(byteBuffer, false);
+    }
+
+    /**
+     * The method to decode RuneScape's custom encoded MIDI data straight into an event sequence. The delta coded
+     * streams are read once, and no message objects are created.
+     * @param byteBuffer The buffer storing encoded MIDI data
+     * @return The decoded event sequence.
+     */
+    public MidiEventSequence convertToEvents(ByteBuffer byteBuffer) {
+        decode(byteBuffer, true);
+        return eventSequence;
+    }
+
+    /**
+     * The method which decodes RuneScape's custom encoded MIDI data, either to a MIDI file which is parsed into
+     * {@link #midiSequence}, or to the primitive arrays of {@link #eventSequence}.
+     * @param byteBuffer The buffer storing encoded MIDI data
+     * @param eventsOnly True to decode to an event sequence, false to decode to a MIDI sequence.
+     */
+    private void decode(ByteBuffer byteBuffer, boolean eventsOnly) {
+        midiSequence = null;
+        eventSequence = null;
+        byteBuffer = getHeapBuffer(byteBuffer);
         byteBuffer.position(byteBuffer.limit() - 3);
         int tracks = byteBuffer.get() & 0xFF;
         int division = byteBuffer.getShort() & 0xFFFF;
@@ -87,7 +189,7 @@ public class MidiTrackLoader {
 
             while (true) {
                 eventCount = byteBuffer.get() & 0xFF;
-                if (eventCount != opcode) {
+                if (eventCount != opcode || eventCount == 7) {
                     ++length;
                 }
 
@@ -246,13 +348,37 @@ public class MidiTrackLoader {
         int tempoOffset = byteBuffer.position();
         skip(byteBuffer, tempoCount * 3);
 
-        ByteBuffer midiBuff = ByteBuffer.allocate(length + 1);
+        ByteBuffer midiBuff = null;
+        long[] eventTicks = null;
+        int[] eventMessages = null;
+        int[] trackStarts = null;
+        int events = 0;
+        long tickLength = 0L;
+        if (eventsOnly) {
+            if (tickBuffer == null || tickBuffer.length < opcode - tracks) {
+                tickBuffer = new long[opcode - tracks];
+                messageBuffer = new int[opcode - tracks];
+                mergedTickBuffer = new long[opcode - tracks];
+                mergedMessageBuffer = new int[opcode - tracks];
+            }
 
-        midiBuff.putInt(1297377380);
-        midiBuff.putInt(6);
-        midiBuff.putShort((short) (tracks > 1 ? 1 : 0));
-        midiBuff.putShort((short) tracks);
-        midiBuff.putShort((short) division);
+            eventTicks = tickBuffer;
+            eventMessages = messageBuffer;
+            trackStarts = new int[tracks + 1];
+        } else {
+            if (midiBuffer == null || midiBuffer.capacity() < length + 1) {
+                midiBuffer = ByteBuffer.allocate(length + 1);
+            }
+
+            midiBuff = midiBuffer;
+            midiBuff.clear();
+
+            midiBuff.putInt(1297377380);
+            midiBuff.putInt(6);
+            midiBuff.putShort((short) (tracks > 1 ? 1 : 0));
+            midiBuff.putShort((short) tracks);
+            midiBuff.putShort((short) division);
+        }
 
         byteBuffer.position(track);
 
@@ -267,151 +393,257 @@ public class MidiTrackLoader {
         controller = 0;
 
         label: for (int trackIndex = 0; trackIndex < tracks; ++trackIndex) {
-            midiBuff.putInt(1297379947);
-            skip(midiBuff, 4);
-            int currentPosition = midiBuff.position();
+            int currentPosition = 0;
+            if (midiBuff != null) {
+                midiBuff.putInt(1297379947);
+                skip(midiBuff, 4);
+                currentPosition = midiBuff.position();
+            } else {
+                trackStarts[trackIndex] = events;
+            }
+
             int currentOffset = -1;
+            long tick = 0L;
 
             while (true) {
 
                 int varInt = readVarInt(byteBuffer);
-
-                writeVarInt(midiBuff, varInt);
+                tick += varInt;
 
                 int controllerValue = byteBuffer.array()[controllerCount++] & 255;
                 boolean messageExists = controllerValue != currentOffset;
                 currentOffset = controllerValue & 15;
                 if (controllerValue == 7) {
-                    {
+                    if (midiBuff != null) {
+                        writeVarInt(midiBuff, varInt);
                         midiBuff.put((byte) 255);
+                        midiBuff.put((byte) 47);
+                        midiBuff.put((byte) 0);
+                        writeLengthFromMark(midiBuff, midiBuff.position() - currentPosition);
+                    } else {
+                        tickLength = Math.max(tickLength, tick);
                     }
 
-                    midiBuff.put((byte) 47);
-                    midiBuff.put((byte) 0);
-                    writeLengthFromMark(midiBuff, midiBuff.position() - currentPosition);
                     continue label;
                 }
 
                 if (controllerValue == 23) {
-                    {
+                    if (midiBuff != null) {
+                        writeVarInt(midiBuff, varInt);
                         midiBuff.put((byte) 255);
+                        midiBuff.put((byte) 81);
+                        midiBuff.put((byte) 3);
+                        midiBuff.put(byteBuffer.array()[tempoOffset++]);
+                        midiBuff.put(byteBuffer.array()[tempoOffset++]);
+                        midiBuff.put(byteBuffer.array()[tempoOffset++]);
+                    } else {
+                        int tempo = (byteBuffer.array()[tempoOffset++] & 0xFF) << 16;
+                        tempo |= (byteBuffer.array()[tempoOffset++] & 0xFF) << 8;
+                        tempo |= byteBuffer.array()[tempoOffset++] & 0xFF;
+                        eventTicks[events] = tick;
+                        eventMessages[events++] = MidiEventSequence.packTempo(tempo);
                     }
 
-                    midiBuff.put((byte) 81);
-                    midiBuff.put((byte) 3);
-                    midiBuff.put(byteBuffer.array()[tempoOffset++]);
-                    midiBuff.put(byteBuffer.array()[tempoOffset++]);
-                    midiBuff.put(byteBuffer.array()[tempoOffset++]);
-                } else {
-                    messagePosition ^= controllerValue >> 4;
-                    if (currentOffset == 0) {
-                        if (messageExists) {
-                            midiBuff.put((byte) (144 + messagePosition));
-                        }
-
-                        pitchPosition += byteBuffer.array()[pitchOffset++];
-                        noteOnPosition += byteBuffer.array()[noteOnOffset++];
-                        midiBuff.put((byte) (pitchPosition & 127));
-                        midiBuff.put((byte) (noteOnPosition & 127));
-                    } else if (currentOffset == 1) {
-                        if (messageExists) {
-                            midiBuff.put((byte) (128 + messagePosition));
-                        }
-
-                        pitchPosition += byteBuffer.array()[pitchOffset++];
-                        noteOffPosition += byteBuffer.array()[noteOffOffset++];
-                        midiBuff.put((byte) (pitchPosition & 127));
-                        midiBuff.put((byte) (noteOffPosition & 127));
-                    } else if (currentOffset == 2) {
-                        if (messageExists) {
-                            midiBuff.put((byte) (176 + messagePosition));
-                        }
+                    continue;
+                }
 
-                        controller = controller + byteBuffer.array()[eventCount++] & 127;
-                        midiBuff.put((byte) controller);
-                        byte controllerData;
-                        if (controller != 0 && controller != 32) {
-                            if (controller == 1) {
-                                controllerData = byteBuffer.array()[modulationMSBOffset++];
-                            } else if (controller == 33) {
-                                controllerData = byteBuffer.array()[modulationLSBOffset++];
-                            } else if (controller == 7) {
-                                controllerData = byteBuffer.array()[channelVolumeMSBOffset++];
-                            } else if (controller == 39) {
-                                controllerData = byteBuffer.array()[channelVolumeLSBOffset++];
-                            } else if (controller == 10) {
-                                controllerData = byteBuffer.array()[channelPanningMSBOffset++];
-                            } else if (controller == 42) {
-                                controllerData = byteBuffer.array()[channelPanningLSBOffset++];
-                            } else if (controller == 99) {
-                                controllerData = byteBuffer.array()[NRPNMSBOffset++];
-                            } else if (controller == 98) {
-                                controllerData = byteBuffer.array()[NRPNLSBOffset++];
-                            } else if (controller == 101) {
-                                controllerData = byteBuffer.array()[RPNMSBOffset++];
-                            } else if (controller == 100) {
-                                controllerData = byteBuffer.array()[RPNLSBOffset++];
-                            } else if (controller != 64 && controller != 65 && controller != 120 && controller != 121 && controller != 123) {
-                                controllerData = byteBuffer.array()[toggleOffset++];
-                            } else {
-                                controllerData = byteBuffer.array()[miscEventOffset++];
-                            }
+                int status;
+                int data1;
+                int data2 = -1;
+                messagePosition ^= controllerValue >> 4;
+                if (currentOffset == 0) {
+                    status = 144 + messagePosition;
+                    pitchPosition += byteBuffer.array()[pitchOffset++];
+                    noteOnPosition += byteBuffer.array()[noteOnOffset++];
+                    data1 = pitchPosition & 127;
+                    data2 = noteOnPosition & 127;
+                } else if (currentOffset == 1) {
+                    status = 128 + messagePosition;
+                    pitchPosition += byteBuffer.array()[pitchOffset++];
+                    noteOffPosition += byteBuffer.array()[noteOffOffset++];
+                    data1 = pitchPosition & 127;
+                    data2 = noteOffPosition & 127;
+                } else if (currentOffset == 2) {
+                    status = 176 + messagePosition;
+                    controller = controller + byteBuffer.array()[eventCount++] & 127;
+                    byte controllerData;
+                    if (controller != 0 && controller != 32) {
+                        if (controller == 1) {
+                            controllerData = byteBuffer.array()[modulationMSBOffset++];
+                        } else if (controller == 33) {
+                            controllerData = byteBuffer.array()[modulationLSBOffset++];
+                        } else if (controller == 7) {
+                            controllerData = byteBuffer.array()[channelVolumeMSBOffset++];
+                        } else if (controller == 39) {
+                            controllerData = byteBuffer.array()[channelVolumeLSBOffset++];
+                        } else if (controller == 10) {
+                            controllerData = byteBuffer.array()[channelPanningMSBOffset++];
+                        } else if (controller == 42) {
+                            controllerData = byteBuffer.array()[channelPanningLSBOffset++];
+                        } else if (controller == 99) {
+                            controllerData = byteBuffer.array()[NRPNMSBOffset++];
+                        } else if (controller == 98) {
+                            controllerData = byteBuffer.array()[NRPNLSBOffset++];
+                        } else if (controller == 101) {
+                            controllerData = byteBuffer.array()[RPNMSBOffset++];
+                        } else if (controller == 100) {
+                            controllerData = byteBuffer.array()[RPNLSBOffset++];
+                        } else if (controller != 64 && controller != 65 && controller != 120 && controller != 121 && controller != 123) {
+                            controllerData = byteBuffer.array()[toggleOffset++];
                         } else {
-                            controllerData = byteBuffer.array()[programChangeOffset++];
-                        }
-
-                        int controllerInfo = controllerData + controllerArray[controller];
-                        controllerArray[controller] = controllerInfo;
-                        midiBuff.put((byte) (controllerInfo & 127));
-                    } else if (currentOffset == 3) {
-                        if (messageExists) {
-                            midiBuff.put((byte) (224 + messagePosition));
-                        }
-
-                        pitchBendPositions += byteBuffer.array()[pitchBend2Offset++];
-                        pitchBendPositions += byteBuffer.array()[pitchBendOffset++] << 7;
-                        midiBuff.put((byte) (pitchBendPositions & 127));
-                        midiBuff.put((byte) (pitchBendPositions >> 7 & 127));
-                    } else if (currentOffset == 4) {
-                        if (messageExists) {
-                            midiBuff.put((byte) (208 + messagePosition));
+                            controllerData = byteBuffer.array()[miscEventOffset++];
                         }
+                    } else {
+                        controllerData = byteBuffer.array()[programChangeOffset++];
+                    }
 
-                        channelPressurePosition += byteBuffer.array()[channelPressureOffset++];
-                        midiBuff.put((byte) (channelPressurePosition & 127));
-                    } else if (currentOffset == 5) {
-                        if (messageExists) {
-                            midiBuff.put((byte) (160 + messagePosition));
-                        }
+                    int controllerInfo = controllerData + controllerArray[controller];
+                    controllerArray[controller] = controllerInfo;
+                    data1 = controller;
+                    data2 = controllerInfo & 127;
+                } else if (currentOffset == 3) {
+                    status = 224 + messagePosition;
+                    pitchBendPositions += byteBuffer.array()[pitchBend2Offset++];
+                    pitchBendPositions += byteBuffer.array()[pitchBendOffset++] << 7;
+                    data1 = pitchBendPositions & 127;
+                    data2 = pitchBendPositions >> 7 & 127;
+                } else if (currentOffset == 4) {
+                    status = 208 + messagePosition;
+                    channelPressurePosition += byteBuffer.array()[channelPressureOffset++];
+                    data1 = channelPressurePosition & 127;
+                } else if (currentOffset == 5) {
+                    status = 160 + messagePosition;
+                    pitchPosition += byteBuffer.array()[pitchOffset++];
+                    keyPressurePosition += byteBuffer.array()[keyPressureOffset++];
+                    data1 = pitchPosition & 127;
+                    data2 = keyPressurePosition & 127;
+                } else {
+                    if (currentOffset != 6) {
+                        throw new RuntimeException();
+                    }
 
-                        pitchPosition += byteBuffer.array()[pitchOffset++];
-                        keyPressurePosition += byteBuffer.array()[keyPressureOffset++];
-                        midiBuff.put((byte) (pitchPosition & 127));
-                        midiBuff.put((byte) (keyPressurePosition & 127));
-                    } else {
-                        if (currentOffset != 6) {
-                            throw new RuntimeException();
-                        }
+                    status = 192 + messagePosition;
+                    data1 = byteBuffer.array()[programChangeOffset++];
+                }
 
-                        if (messageExists) {
-                            midiBuff.put((byte) (192 + messagePosition));
-                        }
+                if (midiBuff != null) {
+                    writeVarInt(midiBuff, varInt);
+                    if (messageExists) {
+                        midiBuff.put((byte) status);
+                    }
 
-                        midiBuff.put(byteBuffer.array()[programChangeOffset++]);
+                    midiBuff.put((byte) data1);
+                    if (data2 >= 0) {
+                        midiBuff.put((byte) data2);
                     }
+                } else {
+                    eventTicks[events] = tick;
+                    eventMessages[events++] = MidiEventSequence.packMessage(status, data1, Math.max(data2, 0));
                 }
             }
         }
 
+        if (midiBuff == null) {
+            trackStarts[tracks] = events;
+            boolean smpte = (division & 0x8000) != 0;
+            float divisionType = smpte ? getSmpteDivisionType(-(byte) (division >> 8)) : Sequence.PPQ;
+            eventSequence = mergeTracks(eventTicks, eventMessages, mergedTickBuffer, mergedMessageBuffer, trackStarts, tracks, tickLength, divisionType, smpte ? division & 0xFF : division);
+            return;
+        }
+
         midiBuff.flip();
 
         try {
-            midiSequence = MidiSystem.getSequence(new ByteArrayInputStream(midiBuff.array()));
+            midiSequence = MidiSystem.getSequence(new ByteArrayInputStream(midiBuff.array(), 0, midiBuff.limit()));
         } catch (InvalidMidiDataException | IOException e) {
             e.printStackTrace();
         }
     }
 
+    /**
+     * A method to get a buffer the decoder can index directly, which holds the encoded data from the start of its array.
+     * @param byteBuffer The buffer storing encoded MIDI data up to its limit.
+     * @return A view of the same array when possible, otherwise a heap copy of the data.
+     */
+    private static ByteBuffer getHeapBuffer(ByteBuffer byteBuffer) {
+        ByteBuffer duplicate = byteBuffer.duplicate();
+        if (duplicate.hasArray() && duplicate.arrayOffset() == 0) {
+            return duplicate;
+        }
+
+        duplicate.position(0);
+        ByteBuffer heapBuffer = ByteBuffer.allocate(duplicate.limit());
+        heapBuffer.put(duplicate);
+        heapBuffer.flip();
+        return heapBuffer;
+    }
+
+    /**
+     * A method that merges the decoded tracks into one event sequence ordered by tick.
+     * Each track is already in order, so pairs of tracks are merged until one is left, and events on the same tick
+     * keep the order of their tracks. The merged events are copied out, so the arrays can be reused for the next track.
+     * @param ticks The tick of each event, track by track.
+     * @param messages The packed message of each event, track by track.
+     * @param mergedTicks An array at least as long as the events, to merge ticks through.
+     * @param mergedMessages An array at least as long as the events, to merge messages through.
+     * @param trackStarts The index of the first event of each track, followed by the number of events.
+     * @param tracks The number of tracks.
+     * @param tickLength The tick the longest track ends at.
+     * @param divisionType The timing division type.
+     * @param resolution The timing resolution.
+     * @return The merged event sequence.
+     */
+    private static MidiEventSequence mergeTracks(long[] ticks, int[] messages, long[] mergedTicks, int[] mergedMessages, int[] trackStarts, int tracks, long tickLength, float divisionType, int resolution) {
+        int events = trackStarts[tracks];
+        int runs = tracks;
+        while (runs > 1) {
+            int mergedRuns = 0;
+            for (int run = 0; run < runs; run += 2) {
+                int left = trackStarts[run];
+                int middle = trackStarts[Math.min(run + 1, runs)];
+                int end = trackStarts[Math.min(run + 2, runs)];
+                int right = middle;
+                int index = left;
+                trackStarts[mergedRuns++] = left;
+                while (left < middle && right < end) {
+                    if (ticks[right] < ticks[left]) {
+                        mergedTicks[index] = ticks[right];
+                        mergedMessages[index++] = messages[right++];
+                    } else {
+                        mergedTicks[index] = ticks[left];
+                        mergedMessages[index++] = messages[left++];
+                    }
+                }
+
+                System.arraycopy(ticks, left, mergedTicks, index, middle - left);
+                System.arraycopy(messages, left, mergedMessages, index, middle - left);
+                index += middle - left;
+                System.arraycopy(ticks, right, mergedTicks, index, end - right);
+                System.arraycopy(messages, right, mergedMessages, index, end - right);
+            }
+
+            trackStarts[mergedRuns] = trackStarts[runs];
+            runs = mergedRuns;
+            long[] swapTicks = ticks;
+            ticks = mergedTicks;
+            mergedTicks = swapTicks;
+            int[] swapMessages = messages;
+            messages = mergedMessages;
+            mergedMessages = swapMessages;
+        }
+
+        return new MidiEventSequence(Arrays.copyOf(ticks, events), Arrays.copyOf(messages, events), events, tickLength, divisionType, resolution);
+    }
+
+    /**
+     * A method that converts the frame rate of a SMPTE timing division to the division type used by {@link Sequence}.
+     * @param framesPerSecond The frame rate stored in the division.
+     * @return The division type.
+     */
+    private static float getSmpteDivisionType(int framesPerSecond) {
+        return framesPerSecond == 29 ? Sequence.SMPTE_30DROP : framesPerSecond;
+    }
+
     /**
      * Modified method from RuneLite's OutputStream class.
      */
@@ -476,4 +708,16 @@ public class MidiTrackLoader {
     public Sequence getMidiSequence() {
         return midiSequence;
     }
+
+    /**
+     * A method to get the decoded events for the internal sequencer, converting the MIDI sequence if the track was not
+     * decoded straight into events.
+     * @return The event sequence, or null if the track could not be decoded.
+     */
+    public MidiEventSequence getEventSequence() {
+        if (eventSequence == null && midiSequence != null) {
+            eventSequence = MidiEventSequence.fromSequence(midiSequence);
+        }
+        return eventSequence;
+    }
 }
\ No newline at end of file
@@ -146,6 +146,7 @@ public class MusicPatch {
 						this.musicPatchEnvelopes[index].array1 = null;
 					}
 				}
+				this.musicPatchEnvelopes[index].compile();
 
 				if (this.audioDataSources[index] != null) {
 					if (this.audioDataSources[index].isLooping) {
@@ -203,6 +204,7 @@ public class MusicPatch {
 							this.musicPatchEnvelopes[index].array1 = null;
 						}
 					}
+					this.musicPatchEnvelopes[index].compile();
 
 					if (this.audioDataSources[index] != null) {
 						if (this.audioDataSources[index].isLooping) {
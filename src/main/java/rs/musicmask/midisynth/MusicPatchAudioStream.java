@@ -26,6 +26,7 @@
 package rs.musicmask.midisynth;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 
 /**
  * A class which synthesizes the MIDI to audio with the Sound Bank patches.
@@ -42,6 +43,26 @@ public class MusicPatchAudioStream {
 	 */
 	MidiAudioStream superStream;
 
+	/**
+	 * The renderer used to split channels across threads, or null if they are rendered on the calling thread.
+	 */
+	ParallelVoiceRenderer parallelRenderer;
+
+	/**
+	 * An array of sample buffers, one bus per MIDI channel, which the voices of each channel are mixed into.
+	 */
+	int[][] channelBuses;
+
+	/**
+	 * An array of the gains last applied to each channel bus, in 1.15 fixed-point.
+	 */
+	int[] channelGains;
+
+	/**
+	 * An array of boolean values marking the channels that have voices to render in the current block.
+	 */
+	boolean[] activeChannels;
+
 	/**
 	 * Constructs a new stream from the MIDI stream.
 	 * @param midiAudioStream The MIDI stream to be set.
@@ -49,44 +70,167 @@ public class MusicPatchAudioStream {
     MusicPatchAudioStream(MidiAudioStream midiAudioStream) {
 		this.superStream = midiAudioStream;
 		this.musicPatchVoices = new ArrayList<>();
+		this.channelBuses = new int[16][0];
+		this.channelGains = new int[16];
+		this.activeChannels = new boolean[16];
 	}
 
 	/**
 	 * A method that fills an array with audio samples.
+	 * Every channel's voices are mixed into the channel's bus, the channel gain is applied once per bus, and the buses
+	 * are then added to the sample array.
 	 * @param samples An array of integer values to be filled with audio samples.
 	 * @param offset An integer representing the offset to start filling samples at.
 	 * @param length An integer representing the length of audio to fill samples up to.
 	 */
 	protected void fill(int[] samples, int offset, int length) {
+		int start = DevicePcmPlayer.stereo ? offset << 1 : offset;
+		int end = DevicePcmPlayer.stereo ? offset + length << 1 : offset + length;
+		for (int channel = 0; channel < 16; channel++) {
+			this.activeChannels[channel] = false;
+		}
+
+		for (int index = 0; index < this.musicPatchVoices.size(); index++) {
+			this.activeChannels[this.musicPatchVoices.get(index).midiChannel] = true;
+		}
+
+		for (int channel = 0; channel < 16; channel++) {
+			if (this.activeChannels[channel]) {
+				if (this.channelBuses[channel].length < samples.length) {
+					this.channelBuses[channel] = new int[samples.length];
+				} else {
+					Arrays.fill(this.channelBuses[channel], start, end, 0);
+				}
+			} else {
+				this.channelGains[channel] = this.superStream.calculateChannelGain(channel);
+			}
+		}
+
 		if (this.musicPatchVoices.size() != 0) {
-			int index = 0;
-			while (index < this.musicPatchVoices.size()) {
-				MusicPatchVoice musicPatchVoice = this.musicPatchVoices.get(index);
-				if (this.superStream.isInactive(musicPatchVoice)) {
-					int streamOffset = offset;
-					int streamLength = length;
-					do {
-						if (streamLength <= musicPatchVoice.samplesInMs) {
-							this.writeAudio(musicPatchVoice, samples, streamOffset, streamLength, streamLength + streamOffset);
-							musicPatchVoice.samplesInMs -= streamLength;
-							break;
-						}
-
-						this.writeAudio(musicPatchVoice, samples, streamOffset, musicPatchVoice.samplesInMs, streamLength + streamOffset);
-						streamOffset += musicPatchVoice.samplesInMs;
-						streamLength -= musicPatchVoice.samplesInMs;
-					} while (this.superStream.isActive(musicPatchVoice, samples, streamOffset, streamLength));
+			if (this.parallelRenderer != null && this.parallelRenderer.shouldRender(this.musicPatchVoices)) {
+				this.parallelRenderer.render(this, this.musicPatchVoices, offset, length);
+			} else {
+				for (int index = 0; index < this.musicPatchVoices.size(); index++) {
+					MusicPatchVoice musicPatchVoice = this.musicPatchVoices.get(index);
+					this.renderVoice(musicPatchVoice, this.channelBuses[musicPatchVoice.midiChannel], offset, length);
+				}
+
+				for (int channel = 0; channel < 16; channel++) {
+					if (this.activeChannels[channel]) {
+						this.applyChannelGain(channel, offset, length);
+					}
+				}
+			}
+
+			for (int channel = 0; channel < 16; channel++) {
+				if (this.activeChannels[channel]) {
+					int[] bus = this.channelBuses[channel];
+					for (int index = start; index < end; index++) {
+						samples[index] += bus[index];
+					}
+				}
+			}
+
+			this.musicPatchVoices.removeIf(musicPatchVoice -> musicPatchVoice.stream == null);
+		}
+
+	}
+
+	/**
+	 * A method that renders a single voice, updating its controls at every control tick.
+	 * Rendering a voice only changes the state of the voice itself and of its own MIDI channel.
+	 * @param musicPatchVoice The voice to render.
+	 * @param samples An array of integer values to be filled with audio samples.
+	 * @param offset An integer representing the offset to start filling samples at.
+	 * @param length An integer representing the length of audio to fill samples up to.
+	 */
+	void renderVoice(MusicPatchVoice musicPatchVoice, int[] samples, int offset, int length) {
+		if (this.superStream.isInactive(musicPatchVoice)) {
+			int streamOffset = offset;
+			int streamLength = length;
+			do {
+				int[] voiceSamples = this.isAudible(musicPatchVoice) ? samples : null;
+				if (streamLength <= musicPatchVoice.samplesInMs) {
+					this.writeAudio(musicPatchVoice, voiceSamples, streamOffset, streamLength, streamLength + streamOffset);
+					musicPatchVoice.samplesInMs -= streamLength;
+					break;
+				}
+
+				this.writeAudio(musicPatchVoice, voiceSamples, streamOffset, musicPatchVoice.samplesInMs, streamLength + streamOffset);
+
+				streamOffset += musicPatchVoice.samplesInMs;
+				streamLength -= musicPatchVoice.samplesInMs;
+			} while (this.superStream.isActive(musicPatchVoice, samples, streamOffset, streamLength));
+		}
+	}
+
+	/**
+	 * A method that checks whether a voice can be heard through its channel bus, at the louder of the channel's current
+	 * and target gain. Voices which can not be heard are skipped instead of mixed.
+	 * @param musicPatchVoice The voice to check.
+	 * @return True if the voice is loud enough to be mixed.
+	 */
+	boolean isAudible(MusicPatchVoice musicPatchVoice) {
+		int channelGain = Math.max(this.channelGains[musicPatchVoice.midiChannel], this.superStream.calculateChannelGain(musicPatchVoice.midiChannel));
+		return this.superStream.isAudible(musicPatchVoice.stream.getPeakVolume(), channelGain);
+	}
+
+	/**
+	 * A method that applies a channel's volume, expression and the stream volume to its bus.
+	 * Changes in gain are ramped across the block, so controller changes do not click.
+	 * @param channel The MIDI Channel number (0-15).
+	 * @param offset An integer representing the offset to start at.
+	 * @param length An integer representing the length of audio to apply the gain to.
+	 */
+	void applyChannelGain(int channel, int offset, int length) {
+		int[] bus = this.channelBuses[channel];
+		int gain = this.channelGains[channel];
+		int targetGain = this.superStream.calculateChannelGain(channel);
+		this.channelGains[channel] = targetGain;
+		int channels = DevicePcmPlayer.stereo ? 2 : 1;
+		int index = offset * channels;
+		if (gain == targetGain) {
+			for (int end = (offset + length) * channels; index < end; index++) {
+				bus[index] = (int) ((long) bus[index] * gain >> 15);
+			}
+		} else {
+			long rampedGain = (long) gain << 16;
+			long gainStep = ((long) (targetGain - gain) << 16) / Math.max(length, 1);
+			for (int frame = 0; frame < length; frame++) {
+				rampedGain += gainStep;
+				for (int sample = 0; sample < channels; sample++, index++) {
+					bus[index] = (int) ((long) bus[index] * (rampedGain >> 16) >> 15);
 				}
-				index++;
 			}
 		}
+	}
 
+	/**
+	 * A method to set how many threads voices are rendered with.
+	 * @param threads The number of threads, where 1 renders every voice on the calling thread.
+	 */
+	void setRenderThreads(int threads) {
+		this.shutdown();
+		if (threads > 1) {
+			this.parallelRenderer = new ParallelVoiceRenderer(threads);
+		}
 	}
 
 	/**
-	 * A method that further handles writing the audio data.
+	 * A method that stops any worker threads used for rendering.
+	 */
+	void shutdown() {
+		if (this.parallelRenderer != null) {
+			this.parallelRenderer.shutdown();
+			this.parallelRenderer = null;
+		}
+	}
+
+	/**
+	 * A method that further handles writing the audio data. A voice which is not mixed still advances its retriggers,
+	 * so it carries on exactly as if it had been heard.
 	 * @param musicPatchVoice The current voice.
-	 * @param samples The sample array.
+	 * @param samples The sample array, or null to advance the voice without mixing it.
 	 * @param offset The position to start at.
 	 * @param samplesLength The length of the samples.
 	 * @param size The size of the audio to be output.
@@ -102,7 +246,7 @@ public class MusicPatchAudioStream {
 					break;
 				}
 
-				musicPatchVoice.stream.fill(samples, offset, length);
+				this.advance(musicPatchVoice.stream, samples, offset, length);
 				offset += length;
 				samplesLength -= length;
 				musicPatchVoice.reTriggerAmount += effectAmount * length - 1048576;
@@ -127,12 +271,29 @@ public class MusicPatchAudioStream {
 					}
 				}
 
-				rawAudioStream.reset(finalAmount);
-				rawAudioStream.fill(samples, offset, size - offset);
+				if (samples != null) {
+					rawAudioStream.reset(finalAmount);
+					rawAudioStream.fill(samples, offset, size - offset);
+				}
 			}
 		}
 
-		musicPatchVoice.stream.fill(samples, offset, samplesLength);
+		this.advance(musicPatchVoice.stream, samples, offset, samplesLength);
+	}
+
+	/**
+	 * A method that mixes a stream into the samples, or skips it forward by the same length if there are none.
+	 * @param rawAudioStream The stream to advance.
+	 * @param samples The sample array, or null to skip the stream.
+	 * @param offset The position to start at.
+	 * @param length The length to advance by.
+	 */
+	private void advance(RawAudioStream rawAudioStream, int[] samples, int offset, int length) {
+		if (samples != null) {
+			rawAudioStream.fill(samples, offset, length);
+		} else {
+			rawAudioStream.skip(length);
+		}
 	}
 
 }
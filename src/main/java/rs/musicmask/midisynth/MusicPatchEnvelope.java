@@ -34,6 +34,16 @@ public class MusicPatchEnvelope {
 
 	public byte[] array1;
 
+	/**
+	 * The volume envelope segments compiled from array0, or null if the patch has no volume envelope.
+	 */
+	Segments attackSegments;
+
+	/**
+	 * The release envelope segments compiled from array1, or null if the patch has no release envelope.
+	 */
+	Segments releaseSegments;
+
 	/**
 	 * An integer value to calculate the volume attack envelope of a voice.
 	 */
@@ -60,4 +70,114 @@ public class MusicPatchEnvelope {
 
 	public int vibratoDelayMilliseconds;
 
-}
\ No newline at end of file
+	/**
+	 * A method that compiles the raw envelope arrays into segment tables, so voices do not have to decode them while rendering.
+	 */
+	public void compile() {
+		this.attackSegments = this.array0 != null && this.array0.length >= 2 ? new Segments(this.array0) : null;
+		this.releaseSegments = this.array1 != null && this.array1.length >= 2 ? new Segments(this.array1) : null;
+	}
+
+	/**
+	 * A class which holds an envelope as a table of points with precomputed slopes between them.
+	 */
+	static final class Segments {
+
+		/**
+		 * The number of fractional bits of each slope.
+		 */
+		private static final int SLOPE_BITS = 20;
+
+		/**
+		 * An array of envelope positions where each segment starts, in the same units as the voice envelope positions.
+		 */
+		final int[] positions;
+
+		/**
+		 * An array of envelope levels at the start of each segment.
+		 */
+		final int[] levels;
+
+		/**
+		 * An array of level changes per envelope position for each segment, in 12.20 fixed-point.
+		 */
+		final int[] slopes;
+
+		/**
+		 * The index of the final segment, which holds its level forever.
+		 */
+		final int lastSegment;
+
+		/**
+		 * Compiles an envelope array made of position and level byte pairs.
+		 * @param envelope The raw envelope array.
+		 */
+		Segments(byte[] envelope) {
+			int count = envelope.length >> 1;
+			this.positions = new int[count];
+			this.levels = new int[count];
+			this.slopes = new int[count];
+			this.lastSegment = count - 1;
+			for (int segment = 0; segment < count; segment++) {
+				this.positions[segment] = (envelope[segment << 1] & 255) << 8;
+				this.levels[segment] = envelope[(segment << 1) + 1];
+			}
+
+			for (int segment = 0; segment < this.lastSegment; segment++) {
+				int length = this.positions[segment + 1] - this.positions[segment];
+				if (length != 0) {
+					this.slopes[segment] = (int) (((long) (this.levels[segment + 1] - this.levels[segment]) << SLOPE_BITS) / length);
+				}
+			}
+		}
+
+		/**
+		 * A method that moves a segment index forward until it contains the given position.
+		 * @param segment The current segment index.
+		 * @param position The current envelope position.
+		 * @return The segment index that contains the position.
+		 */
+		int advance(int segment, int position) {
+			while (segment < this.lastSegment && position > this.positions[segment + 1]) {
+				++segment;
+			}
+
+			return segment;
+		}
+
+		/**
+		 * A method that calculates the envelope level at a position inside a segment.
+		 * @param segment The segment index containing the position.
+		 * @param position The current envelope position.
+		 * @return The envelope level, where 64 is full volume.
+		 */
+		int level(int segment, int position) {
+			int level = this.levels[segment];
+			if (segment < this.lastSegment) {
+				long delta = (long) (position - this.positions[segment]) * this.slopes[segment];
+				level += (int) (delta < 0L ? -(-delta >> SLOPE_BITS) : delta >> SLOPE_BITS);
+			}
+
+			return level;
+		}
+
+		/**
+		 * A method to check if a segment index is the final segment of this envelope.
+		 * @param segment The segment index.
+		 * @return True if the segment is the final one, otherwise false.
+		 */
+		boolean isFinished(int segment) {
+			return segment == this.lastSegment;
+		}
+
+		/**
+		 * A method to check if a segment index is the final segment of this envelope, and that it holds silence.
+		 * @param segment The segment index.
+		 * @return True if the envelope has reached its final, silent level, otherwise false.
+		 */
+		boolean isFinishedSilent(int segment) {
+			return segment == this.lastSegment && this.levels[segment] == 0;
+		}
+	}
+
+}
@@ -83,14 +83,26 @@ public class MusicPatchVoice {
 
 	int attackEnvelopePosition;
 
+	/**
+	 * An integer value for the current segment of the patch's volume envelope.
+	 */
 	int positionOffset;
 
 	int releasePosition;
 
+	/**
+	 * An integer value for the current segment of the patch's release envelope.
+	 */
 	int releaseOffset;
 
+	/**
+	 * An integer value for the time this voice has waited for its vibrato to start, in 1/256ths of a 10 millisecond tick.
+	 */
 	int delayOffset;
 
+	/**
+	 * An integer value for the vibrato phase, where 512 << 8 make up a full cycle.
+	 */
 	int frequencyOffset;
 
 	/**
@@ -98,6 +110,9 @@ public class MusicPatchVoice {
 	 */
 	RawAudioStream stream;
 
+	/**
+	 * An integer value for the number of samples left until the next control tick of this voice.
+	 */
 	int samplesInMs;
 
 	int reTriggerAmount;
@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2023, Rodolfo Ruiz-Velasco <ruizvelascorodolfo@gmail.com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package rs.musicmask.midisynth;
+
+import javax.sound.sampled.AudioFormat;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * An audio output sink which throws audio away, for running the synthesizer without sound hardware.
+ * By default writes return straight away, so playback runs as fast as the CPU allows. When paced, the sink instead
+ * plays its buffer out on the system clock like a sound device would, so playback runs in real time.
+ */
+public class NullAudioSink implements AudioOutputSink {
+
+	/**
+	 * A boolean value determining if writes are paced in real time.
+	 */
+	private final boolean paced;
+
+	/**
+	 * An integer value representing the size of a sample frame in bytes.
+	 */
+	private int frameSize;
+
+	/**
+	 * A float value representing the number of sample frames played per second.
+	 */
+	private float frameRate;
+
+	/**
+	 * An integer value representing the size of the simulated buffer in bytes.
+	 */
+	private int bufferSize;
+
+	/**
+	 * A long value holding the number of bytes written since the sink was opened.
+	 */
+	private long writtenBytes;
+
+	/**
+	 * A long value holding the time the sink was opened at, in nanoseconds.
+	 */
+	private long openTime;
+
+	/**
+	 * A boolean value determining if the sink is open.
+	 */
+	private volatile boolean open;
+
+	/**
+	 * Constructs a new null sink which accepts audio as fast as it is written.
+	 */
+	public NullAudioSink() {
+		this(false);
+	}
+
+	/**
+	 * Constructs a new null sink.
+	 * @param paced True to consume audio in real time, like a sound device.
+	 */
+	public NullAudioSink(boolean paced) {
+		this.paced = paced;
+	}
+
+	@Override
+	public void open(AudioFormat format, int bufferSize) {
+		this.frameSize = format.getFrameSize();
+		this.frameRate = format.getFrameRate();
+		this.bufferSize = bufferSize;
+		this.writtenBytes = 0L;
+		this.openTime = System.nanoTime();
+		this.open = true;
+	}
+
+	@Override
+	public boolean isOpen() {
+		return this.open;
+	}
+
+	/**
+	 * A method to get how much audio can be written without blocking. A sink that is not paced never plays audio
+	 * out, so it reports itself as full rather than as a device that has run dry.
+	 * @return The free space of the simulated buffer in bytes, or 0 if the sink is not paced.
+	 */
+	@Override
+	public int available() {
+		if (!this.paced) {
+			return 0;
+		}
+
+		long queued = this.writtenBytes - this.getPlayedBytes();
+		return (int) Math.max(0L, Math.min(this.bufferSize, this.bufferSize - queued));
+	}
+
+	@Override
+	public int getBufferSize() {
+		return this.bufferSize;
+	}
+
+	@Override
+	public void write(byte[] data, int offset, int length) {
+		this.writtenBytes = Math.max(this.writtenBytes, this.getPlayedBytes()) + length;
+		if (this.paced) {
+			long excess;
+			while ((excess = this.writtenBytes - this.getPlayedBytes() - this.bufferSize) > 0L && this.open) {
+				LockSupport.parkNanos((long) (excess / this.frameSize * 1.0E9D / this.frameRate));
+			}
+		}
+	}
+
+	/**
+	 * A method that calculates how much audio a real device would have played since the sink was opened.
+	 * @return The number of bytes played, or 0 if the sink is not paced.
+	 */
+	private long getPlayedBytes() {
+		if (!this.paced) {
+			return 0L;
+		}
+
+		return (long) ((System.nanoTime() - this.openTime) * (double) this.frameRate / 1.0E9D) * this.frameSize;
+	}
+
+	@Override
+	public void close() {
+		this.open = false;
+	}
+}
@@ -0,0 +1,385 @@
+/*
+ * Copyright (c) 2023, Rodolfo Ruiz-Velasco <ruizvelascorodolfo@gmail.com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package rs.musicmask.midisynth;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.Sequence;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+/**
+ * A class which renders a MIDI sequence through a {@link MidiAudioStream} as fast as possible, without an output device.
+ * The stream's internal sequencer plays the events, so the timing is the same as during playback. It reports how many
+ * times faster than real time the sequence rendered, so it also serves as the synthesizer's throughput benchmark.
+ */
+public class OfflineRenderer {
+
+	/**
+	 * The default amount of audio rendered after the last event, so released notes can ring out, in seconds.
+	 */
+	public static final double DEFAULT_TAIL_SECONDS = 3.0D;
+
+	/**
+	 * The stream being rendered.
+	 */
+	final MidiAudioStream midiAudioStream;
+
+	/**
+	 * An integer value representing the number of sample frames rendered at a time.
+	 */
+	int blockSize = DevicePcmPlayer.DEFAULT_BLOCK_SIZE;
+
+	/**
+	 * A double value representing how much audio is rendered after the last event, in seconds.
+	 */
+	double tailSeconds = DEFAULT_TAIL_SECONDS;
+
+	/**
+	 * A long value representing the tick rendering starts from.
+	 */
+	long startTick;
+
+	/**
+	 * Constructs a new offline renderer, loading the sound bank.
+	 * @param soundBankName The name of the Sound Bank to render with.
+	 */
+	public OfflineRenderer(String soundBankName) {
+		this.midiAudioStream = new MidiAudioStream(soundBankName);
+		this.midiAudioStream.setInitialPatch(MidiAudioStream.PERCUSSION_CHANNEL, MidiAudioStream.PERCUSSION_PATCH);
+	}
+
+	/**
+	 * A method to get the stream being rendered, to change its settings before rendering.
+	 * @return The MIDI audio stream.
+	 */
+	public MidiAudioStream getAudioStream() {
+		return this.midiAudioStream;
+	}
+
+	/**
+	 * A method to set how many sample frames are rendered at a time.
+	 * @param frames The block size in sample frames, clamped between {@link DevicePcmPlayer#MIN_BLOCK_SIZE} and {@link DevicePcmPlayer#MAX_BLOCK_SIZE}.
+	 */
+	public void setBlockSize(int frames) {
+		this.blockSize = Math.max(DevicePcmPlayer.MIN_BLOCK_SIZE, Math.min(DevicePcmPlayer.MAX_BLOCK_SIZE, frames));
+	}
+
+	/**
+	 * A method to set how much audio is rendered after the last event.
+	 * @param seconds The tail length in seconds.
+	 */
+	public void setTailSeconds(double seconds) {
+		this.tailSeconds = Math.max(0.0D, seconds);
+	}
+
+	/**
+	 * A method to set the tick rendering starts from. The sequence is seeked there with its controllers chased, so any
+	 * part of a track can be rendered without rendering what comes before it.
+	 * @param tick The tick to start from.
+	 */
+	public void setStartTick(long tick) {
+		this.startTick = Math.max(0L, tick);
+	}
+
+	/**
+	 * A method that reads the events of either a standard MIDI file or RuneScape's encoded track data.
+	 * RuneScape tracks are decoded straight into events, the same way the plugin loads them.
+	 * @param data The bytes of the MIDI file or encoded track.
+	 * @return The event sequence.
+	 * @throws InvalidMidiDataException If the data is a MIDI file that could not be read.
+	 * @throws IOException If the data could not be read.
+	 */
+	public static MidiEventSequence readEvents(byte[] data) throws InvalidMidiDataException, IOException {
+		if (data.length >= 4 && data[0] == 'M' && data[1] == 'T' && data[2] == 'h' && data[3] == 'd') {
+			return MidiEventSequence.fromSequence(MidiSystem.getSequence(new ByteArrayInputStream(data)));
+		}
+
+		return new MidiTrackLoader(data, true).getEventSequence();
+	}
+
+	/**
+	 * A method that renders a sequence to a 16-bit WAV file.
+	 * @param sequence The MIDI sequence to render.
+	 * @param file The WAV file to write.
+	 * @return The statistics of the render.
+	 * @throws IOException If the file could not be written.
+	 */
+	public Result renderToWav(Sequence sequence, File file) throws IOException {
+		return this.renderToWav(MidiEventSequence.fromSequence(sequence), file);
+	}
+
+	/**
+	 * A method that renders an event sequence to a 16-bit WAV file.
+	 * @param sequence The event sequence to render.
+	 * @param file The WAV file to write.
+	 * @return The statistics of the render.
+	 * @throws IOException If the file could not be written.
+	 */
+	public Result renderToWav(MidiEventSequence sequence, File file) throws IOException {
+		Result result;
+		try (OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(file))) {
+			outputStream.write(createWavHeader(0));
+			result = this.render(sequence, outputStream);
+		}
+
+		try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+			randomAccessFile.write(createWavHeader(result.frames * getFrameSize()));
+		}
+
+		return result;
+	}
+
+	/**
+	 * A method that renders a sequence as raw 16-bit little-endian PCM.
+	 * @param sequence The MIDI sequence to render.
+	 * @param outputStream The stream to write the audio to.
+	 * @return The statistics of the render.
+	 * @throws IOException If the audio could not be written.
+	 */
+	public Result render(Sequence sequence, OutputStream outputStream) throws IOException {
+		return this.render(MidiEventSequence.fromSequence(sequence), outputStream);
+	}
+
+	/**
+	 * A method that renders an event sequence as raw 16-bit little-endian PCM.
+	 * @param sequence The event sequence to render.
+	 * @param outputStream The stream to write the audio to.
+	 * @return The statistics of the render.
+	 * @throws IOException If the audio could not be written.
+	 */
+	public Result render(MidiEventSequence sequence, OutputStream outputStream) throws IOException {
+		int channels = DevicePcmPlayer.stereo ? 2 : 1;
+		int[] samples = new int[this.blockSize * channels];
+		short[] pcmSamples = new short[samples.length];
+		byte[] byteSamples = new byte[samples.length << 1];
+		ShortBuffer shortSamples = ByteBuffer.wrap(byteSamples).order(ByteOrder.LITTLE_ENDIAN).asShortBuffer();
+
+		if (this.startTick > 0L) {
+			sequence.buildSnapshots();
+		}
+
+		long startTime = System.nanoTime();
+		long renderedFrames = 0L;
+		this.midiAudioStream.setSequence(sequence, false);
+		if (this.startTick > 0L) {
+			this.midiAudioStream.seek(this.startTick);
+		}
+
+		while (!this.midiAudioStream.isSequenceFinished()) {
+			renderedFrames += this.renderFrames(this.blockSize, samples, pcmSamples, shortSamples, byteSamples, outputStream);
+		}
+
+		long tailFrames = Math.round(this.tailSeconds * DevicePcmPlayer.sampleRate);
+		renderedFrames += this.renderFrames(tailFrames, samples, pcmSamples, shortSamples, byteSamples, outputStream);
+		return new Result(renderedFrames, System.nanoTime() - startTime);
+	}
+
+	/**
+	 * A method that renders a number of sample frames block by block and writes them out.
+	 * @return The number of frames rendered.
+	 */
+	private long renderFrames(long frames, int[] samples, short[] pcmSamples, ShortBuffer shortSamples, byte[] byteSamples, OutputStream outputStream) throws IOException {
+		int channels = DevicePcmPlayer.stereo ? 2 : 1;
+		long remaining = frames;
+		while (remaining > 0L) {
+			int length = (int) Math.min(this.blockSize, remaining);
+			Arrays.fill(samples, 0);
+			this.midiAudioStream.fill(samples, length);
+			DevicePcmPlayer.convertToPcm16(samples, pcmSamples, length * channels);
+			shortSamples.clear();
+			shortSamples.put(pcmSamples, 0, length * channels);
+			outputStream.write(byteSamples, 0, length * channels << 1);
+			remaining -= length;
+		}
+
+		return Math.max(frames, 0L);
+	}
+
+	/**
+	 * A method to get the size of an output sample frame.
+	 * @return The size of a frame in bytes.
+	 */
+	static int getFrameSize() {
+		return DevicePcmPlayer.stereo ? 4 : 2;
+	}
+
+	/**
+	 * A method that creates the header of a 16-bit PCM WAV file.
+	 * @param dataLength The length of the audio data in bytes.
+	 * @return The 44 byte header.
+	 */
+	static byte[] createWavHeader(long dataLength) {
+		int channels = DevicePcmPlayer.stereo ? 2 : 1;
+		ByteBuffer header = ByteBuffer.allocate(44).order(ByteOrder.LITTLE_ENDIAN);
+		header.put(new byte[] {'R', 'I', 'F', 'F'});
+		header.putInt((int) Math.min(0xFFFFFFFFL, dataLength + 36L));
+		header.put(new byte[] {'W', 'A', 'V', 'E', 'f', 'm', 't', ' '});
+		header.putInt(16);
+		header.putShort((short) 1);
+		header.putShort((short) channels);
+		header.putInt(DevicePcmPlayer.sampleRate);
+		header.putInt(DevicePcmPlayer.sampleRate * getFrameSize());
+		header.putShort((short) getFrameSize());
+		header.putShort((short) 16);
+		header.put(new byte[] {'d', 'a', 't', 'a'});
+		header.putInt((int) Math.min(0xFFFFFFFFL, dataLength));
+		return header.array();
+	}
+
+	/**
+	 * Renders a MIDI file or RuneScape track to a WAV file from the command line.
+	 * Usage: {@code <track file> <sound bank> <output.wav> [--control-rate hz] [--threads n] [--block frames] [--tail seconds] [--start-tick tick] [--sweep-control-rates hz,hz,...]}
+	 * The sweep renders the track once per control rate without writing any audio, and prints each real-time factor.
+	 * @param args The command line arguments.
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length < 3) {
+			System.err.println("Usage: OfflineRenderer <track file> <sound bank> <output.wav> [--control-rate hz] [--threads n] [--block frames] [--tail seconds] [--start-tick tick] [--sweep-control-rates hz,hz,...]");
+			System.exit(1);
+		}
+
+		MidiEventSequence sequence = readEvents(Files.readAllBytes(new File(args[0]).toPath()));
+		int controlRate = MidiAudioStream.DEFAULT_CONTROL_RATE;
+		int threads = 1;
+		int block = DevicePcmPlayer.DEFAULT_BLOCK_SIZE;
+		double tail = DEFAULT_TAIL_SECONDS;
+		long start = 0L;
+		String sweep = null;
+		for (int index = 3; index + 1 < args.length; index += 2) {
+			switch (args[index]) {
+				case "--control-rate":
+					controlRate = Integer.parseInt(args[index + 1]);
+					break;
+				case "--threads":
+					threads = Integer.parseInt(args[index + 1]);
+					break;
+				case "--block":
+					block = Integer.parseInt(args[index + 1]);
+					break;
+				case "--tail":
+					tail = Double.parseDouble(args[index + 1]);
+					break;
+				case "--start-tick":
+					start = Long.parseLong(args[index + 1]);
+					break;
+				case "--sweep-control-rates":
+					sweep = args[index + 1];
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown option " + args[index]);
+			}
+		}
+
+		OfflineRenderer offlineRenderer = createRenderer(args[1], controlRate, threads, block, tail, start);
+		Result result = offlineRenderer.renderToWav(sequence, new File(args[2]));
+		offlineRenderer.midiAudioStream.close();
+		System.out.println(args[2] + ": " + result);
+
+		if (sweep != null) {
+			for (String rate : sweep.split(",")) {
+				OfflineRenderer sweepRenderer = createRenderer(args[1], Integer.parseInt(rate.trim()), threads, block, tail, start);
+				Result sweepResult = sweepRenderer.render(sequence, OutputStream.nullOutputStream());
+				sweepRenderer.midiAudioStream.close();
+				System.out.println("control rate " + sweepRenderer.midiAudioStream.getControlRate() + " Hz: " + sweepResult);
+			}
+		}
+	}
+
+	/**
+	 * A method that creates a renderer with the given settings.
+	 * @return The offline renderer.
+	 */
+	private static OfflineRenderer createRenderer(String soundBankName, int controlRate, int threads, int block, double tail, long start) {
+		OfflineRenderer offlineRenderer = new OfflineRenderer(soundBankName);
+		offlineRenderer.midiAudioStream.setControlRate(controlRate);
+		offlineRenderer.midiAudioStream.setRenderThreads(threads);
+		offlineRenderer.setBlockSize(block);
+		offlineRenderer.setTailSeconds(tail);
+		offlineRenderer.setStartTick(start);
+		return offlineRenderer;
+	}
+
+	/**
+	 * A class holding the statistics of a render.
+	 */
+	public static final class Result {
+
+		/**
+		 * A long value holding the number of sample frames rendered.
+		 */
+		final long frames;
+
+		/**
+		 * A long value holding the time the render took, in nanoseconds.
+		 */
+		final long renderTime;
+
+		Result(long frames, long renderTime) {
+			this.frames = frames;
+			this.renderTime = renderTime;
+		}
+
+		public long getFrames() {
+			return this.frames;
+		}
+
+		public long getRenderTime() {
+			return this.renderTime;
+		}
+
+		/**
+		 * A method to get the length of the rendered audio.
+		 * @return The audio length in seconds.
+		 */
+		public double getAudioSeconds() {
+			return (double) this.frames / DevicePcmPlayer.sampleRate;
+		}
+
+		/**
+		 * A method to get how many times faster than real time the audio was rendered.
+		 * @return The real-time factor.
+		 */
+		public double getRealTimeFactor() {
+			return this.renderTime == 0L ? 0.0D : this.getAudioSeconds() * 1.0E9D / this.renderTime;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%.1f s of audio in %.1f ms, %.1fx real time", this.getAudioSeconds(), this.renderTime / 1000000.0D, this.getRealTimeFactor());
+		}
+	}
+}
@@ -0,0 +1,248 @@
+/*
+ * Copyright (c) 2023, Rodolfo Ruiz-Velasco <ruizvelascorodolfo@gmail.com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package rs.musicmask.midisynth;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * A class which renders the channel buses of a {@link MusicPatchAudioStream} across a small fixed pool of worker threads.
+ * Each MIDI channel is rendered by exactly one worker, so all the channel state a voice can change while rendering is
+ * owned by that worker. Workers only write to the buses of their own channels, and the buses are summed in channel
+ * order afterwards, so the output is bit-identical to rendering every channel on a single thread.
+ */
+final class ParallelVoiceRenderer {
+
+	/**
+	 * The lowest number of active voices worth splitting across threads, below this the voices are rendered serially.
+	 */
+	static final int MIN_PARALLEL_VOICES = 24;
+
+	/**
+	 * The number of partitions the voices are split into, including the one rendered on the calling thread.
+	 */
+	private final int partitions;
+
+	/**
+	 * The worker threads, which render every partition except the first.
+	 */
+	private final ExecutorService executor;
+
+	/**
+	 * An array of voice lists, one per partition.
+	 */
+	private final ArrayList<ArrayList<MusicPatchVoice>> assignedVoices;
+
+	/**
+	 * An array of integers counting the voices assigned to each partition.
+	 */
+	private final int[] partitionLoads;
+
+	/**
+	 * An array of integers counting the active voices on each MIDI channel.
+	 */
+	private final int[] channelLoads;
+
+	/**
+	 * An array of integers holding the partition each MIDI channel is assigned to.
+	 */
+	private final int[] channelPartitions;
+
+	/**
+	 * An array of boolean values marking which MIDI channels have been assigned a partition.
+	 */
+	private final boolean[] assignedChannels;
+
+	/**
+	 * An array of pending worker results.
+	 */
+	private final Future<?>[] pending;
+
+	/**
+	 * A boolean value that is set once a worker has failed, after which every voice is rendered on the calling thread.
+	 */
+	private volatile boolean failed;
+
+	/**
+	 * Constructs a new parallel renderer.
+	 * @param threads The number of threads to render with, including the calling thread.
+	 */
+	ParallelVoiceRenderer(int threads) {
+		this.partitions = threads;
+		this.executor = Executors.newFixedThreadPool(threads - 1, runnable -> {
+			Thread thread = new Thread(runnable, "music-mask-voice-renderer");
+			thread.setDaemon(true);
+			thread.setPriority(Thread.NORM_PRIORITY);
+			return thread;
+		});
+		this.assignedVoices = new ArrayList<>(threads);
+		for (int partition = 0; partition < threads; partition++) {
+			this.assignedVoices.add(new ArrayList<>());
+		}
+
+		this.partitionLoads = new int[threads];
+		this.channelLoads = new int[16];
+		this.channelPartitions = new int[16];
+		this.assignedChannels = new boolean[16];
+		this.pending = new Future<?>[threads];
+	}
+
+	/**
+	 * A method to check if a set of voices is large enough to be worth rendering in parallel.
+	 * @param voices The voices to render.
+	 * @return True if the voices should be rendered in parallel, otherwise false.
+	 */
+	boolean shouldRender(ArrayList<MusicPatchVoice> voices) {
+		return !this.failed && voices.size() >= MIN_PARALLEL_VOICES;
+	}
+
+	/**
+	 * A method that renders voices in parallel into their channel buses, and applies each channel's gain.
+	 * @param audioStream The stream the voices belong to.
+	 * @param voices The voices to render.
+	 * @param offset An integer representing the offset to start filling samples at.
+	 * @param length An integer representing the length of audio to fill samples up to.
+	 */
+	void render(MusicPatchAudioStream audioStream, ArrayList<MusicPatchVoice> voices, int offset, int length) {
+		this.assignVoices(voices);
+		for (int partition = 1; partition < this.partitions; partition++) {
+			if (!this.assignedVoices.get(partition).isEmpty()) {
+				int worker = partition;
+				this.pending[partition] = this.executor.submit(() -> this.renderPartition(audioStream, worker, offset, length));
+			}
+		}
+
+		this.renderPartition(audioStream, 0, offset, length);
+		boolean interrupted = false;
+		for (int partition = 1; partition < this.partitions; partition++) {
+			while (this.pending[partition] != null) {
+				try {
+					this.pending[partition].get();
+				} catch (InterruptedException e) {
+					interrupted = true;
+					continue;
+				} catch (ExecutionException e) {
+					e.getCause().printStackTrace();
+					this.failed = true;
+					this.silencePartition(audioStream, partition, offset, length);
+				}
+
+				this.pending[partition] = null;
+			}
+		}
+
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * A method that clears the channel buses of a partition whose worker failed, so its partial output is not mixed.
+	 * @param audioStream The stream the voices belong to.
+	 * @param partition The partition to clear.
+	 * @param offset An integer representing the offset to start clearing samples at.
+	 * @param length An integer representing the length of audio to clear.
+	 */
+	private void silencePartition(MusicPatchAudioStream audioStream, int partition, int offset, int length) {
+		int channels = DevicePcmPlayer.stereo ? 2 : 1;
+		for (int channel = 0; channel < 16; channel++) {
+			if (this.channelPartitions[channel] == partition && audioStream.activeChannels[channel]) {
+				Arrays.fill(audioStream.channelBuses[channel], offset * channels, (offset + length) * channels, 0);
+			}
+		}
+	}
+
+	/**
+	 * A method that assigns every MIDI channel to a partition, balancing the number of voices each partition renders.
+	 * @param voices The voices to assign.
+	 */
+	private void assignVoices(ArrayList<MusicPatchVoice> voices) {
+		Arrays.fill(this.channelLoads, 0);
+		Arrays.fill(this.partitionLoads, 0);
+		Arrays.fill(this.assignedChannels, false);
+		for (int partition = 0; partition < this.partitions; partition++) {
+			this.assignedVoices.get(partition).clear();
+		}
+
+		for (MusicPatchVoice musicPatchVoice : voices) {
+			this.channelLoads[musicPatchVoice.midiChannel]++;
+		}
+
+		for (int count = 0; count < 16; count++) {
+			int busiestChannel = -1;
+			for (int channel = 0; channel < 16; channel++) {
+				if (!this.assignedChannels[channel] && (busiestChannel == -1 || this.channelLoads[channel] > this.channelLoads[busiestChannel])) {
+					busiestChannel = channel;
+				}
+			}
+
+			int idlestPartition = 0;
+			for (int partition = 1; partition < this.partitions; partition++) {
+				if (this.partitionLoads[partition] < this.partitionLoads[idlestPartition]) {
+					idlestPartition = partition;
+				}
+			}
+
+			this.assignedChannels[busiestChannel] = true;
+			this.channelPartitions[busiestChannel] = idlestPartition;
+			this.partitionLoads[idlestPartition] += this.channelLoads[busiestChannel];
+		}
+
+		for (MusicPatchVoice musicPatchVoice : voices) {
+			this.assignedVoices.get(this.channelPartitions[musicPatchVoice.midiChannel]).add(musicPatchVoice);
+		}
+	}
+
+	/**
+	 * A method that renders the voices of one partition into their channel buses, and applies the channel gains.
+	 * @param audioStream The stream the voices belong to.
+	 * @param partition The partition to render.
+	 * @param offset An integer representing the offset to start filling samples at.
+	 * @param length An integer representing the length of audio to fill samples up to.
+	 */
+	private void renderPartition(MusicPatchAudioStream audioStream, int partition, int offset, int length) {
+		for (MusicPatchVoice musicPatchVoice : this.assignedVoices.get(partition)) {
+			audioStream.renderVoice(musicPatchVoice, audioStream.channelBuses[musicPatchVoice.midiChannel], offset, length);
+		}
+
+		for (int channel = 0; channel < 16; channel++) {
+			if (this.channelPartitions[channel] == partition && audioStream.activeChannels[channel]) {
+				audioStream.applyChannelGain(channel, offset, length);
+			}
+		}
+	}
+
+	/**
+	 * A method that stops the worker threads.
+	 */
+	void shutdown() {
+		this.executor.shutdownNow();
+	}
+}
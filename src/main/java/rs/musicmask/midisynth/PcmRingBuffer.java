@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2023, Rodolfo Ruiz-Velasco <ruizvelascorodolfo@gmail.com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package rs.musicmask.midisynth;
+
+/**
+ * A lock-free ring buffer of PCM bytes, shared between exactly one thread writing rendered audio and one thread
+ * reading it out to the sound device. Each side only ever moves its own position, so neither side has to lock.
+ * Reads and writes are always whole sample frames.
+ */
+final class PcmRingBuffer {
+
+	/**
+	 * The byte array holding the buffered audio, its length is a whole number of frames.
+	 */
+	private final byte[] buffer;
+
+	/**
+	 * The size of a sample frame in bytes.
+	 */
+	private final int frameSize;
+
+	/**
+	 * The total number of bytes written, only changed by the writing thread.
+	 */
+	private volatile long writePosition;
+
+	/**
+	 * The total number of bytes read, only changed by the reading thread.
+	 */
+	private volatile long readPosition;
+
+	/**
+	 * Constructs a new ring buffer.
+	 * @param capacity The number of bytes the buffer holds, rounded up to a whole number of frames.
+	 * @param frameSize The size of a sample frame in bytes.
+	 */
+	PcmRingBuffer(int capacity, int frameSize) {
+		this.buffer = new byte[Math.max(1, (capacity + frameSize - 1) / frameSize) * frameSize];
+		this.frameSize = frameSize;
+	}
+
+	/**
+	 * A method to get the size of the buffer.
+	 * @return The capacity of the buffer in bytes.
+	 */
+	int capacity() {
+		return this.buffer.length;
+	}
+
+	/**
+	 * A method to get how much audio is waiting to be read.
+	 * @return The number of buffered bytes.
+	 */
+	int available() {
+		return (int) (this.writePosition - this.readPosition);
+	}
+
+	/**
+	 * A method that copies as many whole frames as fit into the buffer. This may only be called by the writing thread.
+	 * @param data The bytes to write.
+	 * @param offset The offset to start writing from.
+	 * @param length The number of bytes to write.
+	 * @return The number of bytes written, which may be less than the length if the buffer is full.
+	 */
+	int write(byte[] data, int offset, int length) {
+		long position = this.writePosition;
+		int count = Math.min(length, this.buffer.length - (int) (position - this.readPosition));
+		count -= count % this.frameSize;
+		if (count > 0) {
+			int index = (int) (position % this.buffer.length);
+			int firstPart = Math.min(count, this.buffer.length - index);
+			System.arraycopy(data, offset, this.buffer, index, firstPart);
+			System.arraycopy(data, offset + firstPart, this.buffer, 0, count - firstPart);
+			this.writePosition = position + count;
+		}
+
+		return count;
+	}
+
+	/**
+	 * A method that copies as many whole frames as are buffered out of the buffer. This may only be called by the reading thread.
+	 * @param data The array to read into.
+	 * @param offset The offset to start reading into.
+	 * @param length The largest number of bytes to read.
+	 * @return The number of bytes read, which is 0 if the buffer is empty.
+	 */
+	int read(byte[] data, int offset, int length) {
+		long position = this.readPosition;
+		int count = Math.min(length, (int) (this.writePosition - position));
+		count -= count % this.frameSize;
+		if (count > 0) {
+			int index = (int) (position % this.buffer.length);
+			int firstPart = Math.min(count, this.buffer.length - index);
+			System.arraycopy(this.buffer, index, data, offset, firstPart);
+			System.arraycopy(this.buffer, 0, data, offset + firstPart, count - firstPart);
+			this.readPosition = position + count;
+		}
+
+		return count;
+	}
+}
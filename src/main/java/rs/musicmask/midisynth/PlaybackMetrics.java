@@ -0,0 +1,191 @@
+/*
+ * Copyright (c) 2023, Rodolfo Ruiz-Velasco <ruizvelascorodolfo@gmail.com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package rs.musicmask.midisynth;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A class which counts output device underruns and records how long each block takes to render against the time it
+ * takes to play, so dropouts can be traced and block sizes tuned with real numbers.
+ * Device writes and rendering may happen on different threads, every counter only has a single writer.
+ */
+public final class PlaybackMetrics {
+
+	/**
+	 * The upper bounds of the render time histogram buckets, in percent of the block's real-time budget.
+	 * The last bucket counts every block that took longer than the highest bound.
+	 */
+	public static final int[] RENDER_LOAD_BOUNDS = {10, 25, 50, 75, 100, 150, 200};
+
+	/**
+	 * The number of buckets the device fill level histogram is split into, each covering an equal share of the buffer.
+	 */
+	public static final int FILL_LEVEL_BUCKETS = 8;
+
+	/**
+	 * The number of blocks that rendered in each render time bucket.
+	 */
+	private final AtomicLongArray renderLoadHistogram = new AtomicLongArray(RENDER_LOAD_BOUNDS.length + 1);
+
+	/**
+	 * The number of device writes made at each device fill level, from empty to full.
+	 */
+	private final AtomicLongArray fillLevelHistogram = new AtomicLongArray(FILL_LEVEL_BUCKETS);
+
+	/**
+	 * A long value holding the number of times the output device had run dry when it was written to.
+	 */
+	private volatile long underruns;
+
+	/**
+	 * A long value holding the number of blocks that took longer to render than to play.
+	 */
+	private volatile long overruns;
+
+	/**
+	 * A long value holding the number of blocks rendered.
+	 */
+	private volatile long renderedBlocks;
+
+	/**
+	 * A long value holding the total time spent rendering blocks, in nanoseconds.
+	 */
+	private volatile long renderTime;
+
+	/**
+	 * A long value holding the longest time a single block took to render, in nanoseconds.
+	 */
+	private volatile long maxRenderTime;
+
+	/**
+	 * A method that records the time a block took to render.
+	 * @param nanos The render time in nanoseconds.
+	 * @param budgetNanos The time the block takes to play, in nanoseconds.
+	 */
+	void recordRender(long nanos, long budgetNanos) {
+		int load = (int) Math.min(Integer.MAX_VALUE, nanos * 100L / Math.max(1L, budgetNanos));
+		int bucket = 0;
+		while (bucket < RENDER_LOAD_BOUNDS.length && load > RENDER_LOAD_BOUNDS[bucket]) {
+			bucket++;
+		}
+
+		this.renderLoadHistogram.incrementAndGet(bucket);
+		if (nanos > budgetNanos) {
+			this.overruns++;
+		}
+
+		if (nanos > this.maxRenderTime) {
+			this.maxRenderTime = nanos;
+		}
+
+		this.renderTime += nanos;
+		this.renderedBlocks++;
+	}
+
+	/**
+	 * A method that records the state of the output device just before audio is written to it.
+	 * A device with its whole buffer free has played everything it was given, which is an underrun.
+	 * @param available The number of bytes that can be written to the device without blocking.
+	 * @param bufferSize The size of the device's buffer in bytes.
+	 */
+	void recordWrite(int available, int bufferSize) {
+		if (bufferSize <= 0) {
+			return;
+		}
+
+		int filled = Math.max(0, Math.min(bufferSize, bufferSize - available));
+		this.fillLevelHistogram.incrementAndGet(Math.min(FILL_LEVEL_BUCKETS - 1, (int) ((long) filled * FILL_LEVEL_BUCKETS / bufferSize)));
+		if (available >= bufferSize) {
+			this.underruns++;
+		}
+	}
+
+	public long getUnderruns() {
+		return this.underruns;
+	}
+
+	public long getOverruns() {
+		return this.overruns;
+	}
+
+	public long getRenderedBlocks() {
+		return this.renderedBlocks;
+	}
+
+	public long getRenderTime() {
+		return this.renderTime;
+	}
+
+	public long getMaxRenderTime() {
+		return this.maxRenderTime;
+	}
+
+	/**
+	 * A method to get a copy of the render time histogram.
+	 * @return The number of blocks in each bucket bounded by {@link #RENDER_LOAD_BOUNDS}, with one extra bucket at the end.
+	 */
+	public long[] getRenderLoadHistogram() {
+		return toArray(this.renderLoadHistogram);
+	}
+
+	/**
+	 * A method to get a copy of the device fill level histogram.
+	 * @return The number of writes in each of the {@link #FILL_LEVEL_BUCKETS} fill levels, from empty to full.
+	 */
+	public long[] getFillLevelHistogram() {
+		return toArray(this.fillLevelHistogram);
+	}
+
+	/**
+	 * A method that copies an atomic array into a plain array.
+	 * @param values The atomic array to copy.
+	 * @return The copied values.
+	 */
+	private static long[] toArray(AtomicLongArray values) {
+		long[] array = new long[values.length()];
+		for (int index = 0; index < array.length; index++) {
+			array[index] = values.get(index);
+		}
+
+		return array;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder renderLoad = new StringBuilder();
+		for (int bucket = 0; bucket < this.renderLoadHistogram.length(); bucket++) {
+			if (bucket > 0) {
+				renderLoad.append(' ');
+			}
+
+			renderLoad.append(bucket < RENDER_LOAD_BOUNDS.length ? "<=" + RENDER_LOAD_BOUNDS[bucket] : ">" + RENDER_LOAD_BOUNDS[bucket - 1]);
+			renderLoad.append("%:").append(this.renderLoadHistogram.get(bucket));
+		}
+
+		return "blocks=" + this.renderedBlocks + ", underruns=" + this.underruns + ", overruns=" + this.overruns
+			+ ", maxRenderMs=" + this.maxRenderTime / 1000000.0D + ", renderLoad=[" + renderLoad + "]";
+	}
+}
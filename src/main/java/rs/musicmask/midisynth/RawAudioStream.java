@@ -27,6 +27,8 @@ package rs.musicmask.midisynth;
 
 /**
  * A utility class for computing the characteristics of the sound being written.
+ * This class is not thread-safe, a stream is only ever touched by the thread that owns its {@link MidiAudioStream},
+ * which serializes rendering and MIDI events on its own monitor.
  */
 public class RawAudioStream {
 
@@ -35,6 +37,11 @@ public class RawAudioStream {
 	 */
 	AudioDataSource sound;
 
+	/**
+	 * The padded audio data of the sample, with any ping-pong loop unrolled forward.
+	 */
+	byte[] audioData;
+
 	/**
 	 * An integer value representing a modifier amount for the looping sample.
 	 */
@@ -81,14 +88,14 @@ public class RawAudioStream {
 	int start;
 
 	/**
-	 * An integer value representing the sample's loop end.
+	 * An integer value representing the sample's loop end, which is also the end of the playable audio data.
 	 */
 	int end;
 
 	/**
-	 * A boolean value representing the sample's loop status.
+	 * An integer value representing where a ping-pong loop turns around in the unrolled audio data.
 	 */
-	boolean isLooping;
+	int turn;
 
 	/**
 	 * An integer value representing the current position in the stream.
@@ -119,9 +126,10 @@ public class RawAudioStream {
 	 */
     RawAudioStream(AudioDataSource audioDataSource, int pitch, int volume, int pan) {
 		this.sound = audioDataSource;
-		this.start = audioDataSource.loopStart;
-		this.end = audioDataSource.loopEnd;
-		this.isLooping = audioDataSource.isLooping;
+		this.audioData = audioDataSource.paddedAudioData;
+		this.start = audioDataSource.paddedLoopStart;
+		this.end = audioDataSource.paddedLoopEnd;
+		this.turn = audioDataSource.paddedLoopTurn;
 		this.samplePitch = pitch;
 		this.sampleVolume = volume;
 		this.samplePan = pan;
@@ -134,12 +142,10 @@ public class RawAudioStream {
 	 * @param offset An integer representing the offset to start filling samples at.
 	 * @param length An integer representing the length of audio to fill samples up to.
 	 */
-	public synchronized void fill(int[] samples, int offset, int length) {
+	public void fill(int[] samples, int offset, int length) {
 		if (this.sampleVolume != 0 || this.streamPosition != 0) {
-			AudioDataSource audioDataSource = this.sound;
 			int loopStart = this.start << 8;
 			int loopEnd = this.end << 8;
-			int sampleSize = audioDataSource.audioData.length << 8;
 			int loopDifference = loopEnd - loopStart;
 			if (loopDifference <= 0) {
 				this.numLoops = 0;
@@ -148,186 +154,193 @@ public class RawAudioStream {
 			int position = offset;
 			length += offset;
 			if (this.loopStartModifier < 0) {
-				if (this.samplePitch <= 0) {
-					return;
-				}
-
 				this.loopStartModifier = 0;
 			}
 
-			if (this.loopStartModifier >= sampleSize) {
-				if (this.samplePitch >= 0) {
+			if (this.loopStartModifier >= loopEnd) {
+				return;
+			}
+
+			if (this.numLoops < 0) {
+				while (true) {
+					position = this.calculateEndingOffset(samples, position, loopEnd, length);
+					if (this.loopStartModifier < loopEnd) {
+						return;
+					}
+
+					this.loopStartModifier = loopStart + (this.loopStartModifier - loopStart) % loopDifference;
+				}
+			}
+
+			int turnPosition = this.turn << 8;
+			while (this.numLoops > 0) {
+				int boundary = this.loopStartModifier < turnPosition ? turnPosition : loopEnd;
+				position = this.calculateEndingOffset(samples, position, boundary, length);
+				if (this.loopStartModifier < boundary) {
 					return;
 				}
 
-				this.loopStartModifier = sampleSize - 1;
+				if (boundary == loopEnd) {
+					this.loopStartModifier = loopStart + (this.loopStartModifier - loopStart) % loopDifference;
+				}
+
+				--this.numLoops;
+			}
+
+			int finalPosition = this.loopStartModifier < turnPosition ? turnPosition : loopEnd;
+			this.calculateEndingOffset(samples, position, finalPosition, length);
+			if (this.loopStartModifier >= finalPosition) {
+				this.loopStartModifier = loopEnd;
+			}
+		}
+	}
+
+	/**
+	 * A method that moves through the stream as if it had been filled, without mixing any audio samples.
+	 * Volume ramps advance frame by frame as they do when filling, so the stream carries on exactly as if it had been heard.
+	 * @param length An integer representing the length of audio to skip.
+	 */
+	public void skip(int length) {
+		if (this.sampleVolume != 0 || this.streamPosition != 0) {
+			int loopStart = this.start << 8;
+			int loopEnd = this.end << 8;
+			int loopDifference = loopEnd - loopStart;
+			if (loopDifference <= 0) {
+				this.numLoops = 0;
+			}
+
+			int position = 0;
+			if (this.loopStartModifier < 0) {
+				this.loopStartModifier = 0;
+			}
+
+			if (this.loopStartModifier >= loopEnd) {
+				return;
 			}
 
 			if (this.numLoops < 0) {
-				if (this.isLooping) {
-					if (this.samplePitch < 0) {
-						position = this.calculateBeginningOffset(samples, offset, loopStart, length, audioDataSource.audioData[this.start]);
-						if (this.loopStartModifier >= loopStart) {
-							return;
-						}
-
-						this.loopStartModifier = loopStart + loopStart - 1 - this.loopStartModifier;
-						this.samplePitch = -this.samplePitch;
+				while (true) {
+					position = this.skipEndingOffset(position, loopEnd, length);
+					if (this.loopStartModifier < loopEnd) {
+						return;
 					}
 
-					while (true) {
-						position = this.calculateEndingOffset(samples, position, loopEnd, length, audioDataSource.audioData[this.end - 1]);
-						if (this.loopStartModifier < loopEnd) {
-							return;
-						}
-
-						this.loopStartModifier = loopEnd + loopEnd - 1 - this.loopStartModifier;
-						this.samplePitch = -this.samplePitch;
-						position = this.calculateBeginningOffset(samples, position, loopStart, length, audioDataSource.audioData[this.start]);
-						if (this.loopStartModifier >= loopStart) {
-							return;
-						}
-
-						this.loopStartModifier = loopStart + loopStart - 1 - this.loopStartModifier;
-						this.samplePitch = -this.samplePitch;
-					}
-				} else if (this.samplePitch < 0) {
-					while (true) {
-						position = this.calculateBeginningOffset(samples, position, loopStart, length, audioDataSource.audioData[this.end - 1]);
-						if (this.loopStartModifier >= loopStart) {
-							return;
-						}
-
-						this.loopStartModifier = loopEnd - 1 - (loopEnd - 1 - this.loopStartModifier) % loopDifference;
-					}
-				} else {
-					while (true) {
-						position = this.calculateEndingOffset(samples, position, loopEnd, length, audioDataSource.audioData[this.start]);
-						if (this.loopStartModifier < loopEnd) {
-							return;
-						}
+					this.loopStartModifier = loopStart + (this.loopStartModifier - loopStart) % loopDifference;
+				}
+			}
 
-						this.loopStartModifier = loopStart + (this.loopStartModifier - loopStart) % loopDifference;
-					}
+			int turnPosition = this.turn << 8;
+			while (this.numLoops > 0) {
+				int boundary = this.loopStartModifier < turnPosition ? turnPosition : loopEnd;
+				position = this.skipEndingOffset(position, boundary, length);
+				if (this.loopStartModifier < boundary) {
+					return;
 				}
-			} else {
-				if (this.numLoops > 0) {
-					if (this.isLooping) {
-						loopLabel: {
-							if (this.samplePitch < 0) {
-								position = this.calculateBeginningOffset(samples, offset, loopStart, length, audioDataSource.audioData[this.start]);
-								if (this.loopStartModifier >= loopStart) {
-									return;
-								}
-
-								this.loopStartModifier = loopStart + loopStart - 1 - this.loopStartModifier;
-								this.samplePitch = -this.samplePitch;
-								if (--this.numLoops == 0) {
-									break loopLabel;
-								}
-							}
-
-							do {
-								position = this.calculateEndingOffset(samples, position, loopEnd, length, audioDataSource.audioData[this.end - 1]);
-								if (this.loopStartModifier < loopEnd) {
-									return;
-								}
-
-								this.loopStartModifier = loopEnd + loopEnd - 1 - this.loopStartModifier;
-								this.samplePitch = -this.samplePitch;
-								if (--this.numLoops == 0) {
-									break;
-								}
-
-								position = this.calculateBeginningOffset(samples, position, loopStart, length, audioDataSource.audioData[this.start]);
-								if (this.loopStartModifier >= loopStart) {
-									return;
-								}
-
-								this.loopStartModifier = loopStart + loopStart - 1 - this.loopStartModifier;
-								this.samplePitch = -this.samplePitch;
-							} while(--this.numLoops != 0);
-						}
-					} else {
-						int loopOffset;
-						if (this.samplePitch < 0) {
-							while (true) {
-								position = this.calculateBeginningOffset(samples, position, loopStart, length, audioDataSource.audioData[this.end - 1]);
-								if (this.loopStartModifier >= loopStart) {
-									return;
-								}
-
-								loopOffset = (loopEnd - 1 - this.loopStartModifier) / loopDifference;
-								if (loopOffset >= this.numLoops) {
-									this.loopStartModifier += loopDifference * this.numLoops;
-									this.numLoops = 0;
-									break;
-								}
-
-								this.loopStartModifier += loopDifference * loopOffset;
-								this.numLoops -= loopOffset;
-							}
-						} else {
-							while (true) {
-								position = this.calculateEndingOffset(samples, position, loopEnd, length, audioDataSource.audioData[this.start]);
-								if (this.loopStartModifier < loopEnd) {
-									return;
-								}
-
-								loopOffset = (this.loopStartModifier - loopStart) / loopDifference;
-								if (loopOffset >= this.numLoops) {
-									this.loopStartModifier -= loopDifference * this.numLoops;
-									this.numLoops = 0;
-									break;
-								}
-
-								this.loopStartModifier -= loopDifference * loopOffset;
-								this.numLoops -= loopOffset;
-							}
-						}
-					}
+
+				if (boundary == loopEnd) {
+					this.loopStartModifier = loopStart + (this.loopStartModifier - loopStart) % loopDifference;
 				}
 
-				if (this.samplePitch < 0) {
-					this.calculateBeginningOffset(samples, position, 0, length, 0);
-					if (this.loopStartModifier < 0) {
-						this.loopStartModifier = -1;
-					}
-				} else {
-					this.calculateEndingOffset(samples, position, sampleSize, length, 0);
-					if (this.loopStartModifier >= sampleSize) {
-						this.loopStartModifier = sampleSize;
-					}
+				--this.numLoops;
+			}
+
+			int finalPosition = this.loopStartModifier < turnPosition ? turnPosition : loopEnd;
+			this.skipEndingOffset(position, finalPosition, length);
+			if (this.loopStartModifier >= finalPosition) {
+				this.loopStartModifier = loopEnd;
+			}
+		}
+	}
+
+	/**
+	 * A method that skips towards a boundary the way {@link #calculateEndingOffset(int[], int, int, int)} fills towards it,
+	 * stepping through any volume ramps on the way.
+	 * @param offset The frame to start at.
+	 * @param endPosition The position to stop at, in 1/256ths of a sample.
+	 * @param sampleLength The frame to stop at if the boundary is not reached first.
+	 * @return The frame the skip stopped at.
+	 */
+	private int skipEndingOffset(int offset, int endPosition, int sampleLength) {
+		while (true) {
+			if (this.streamPosition > 0) {
+				int positionOffset = offset + this.streamPosition;
+				if (positionOffset > sampleLength) {
+					positionOffset = sampleLength;
+				}
+
+				this.streamPosition += offset;
+				int frames = this.skipFrames(offset, endPosition, positionOffset);
+				this.volume += this.overallVolume * frames;
+				this.rightChannelVolume += this.overallRightChannel * frames;
+				this.leftChannelVolume += this.overallLeftChannel * frames;
+				offset += frames;
+				this.streamPosition -= offset;
+				if (this.streamPosition != 0) {
+					return offset;
 				}
 
+				if (this.streamIsNotMuted()) {
+					continue;
+				}
+
+				return sampleLength;
 			}
+
+			return offset + this.skipFrames(offset, endPosition, sampleLength);
 		}
 	}
 
-	public synchronized void setNumLoops(int loopCount) {
+	/**
+	 * A method that moves the stream position towards a boundary at the current pitch, the way the fill kernels do.
+	 * @param offset The frame to start at.
+	 * @param endPosition The position to stop at, in 1/256ths of a sample.
+	 * @param sampleLength The frame to stop at if the boundary is not reached first.
+	 * @return The number of frames moved through.
+	 */
+	private int skipFrames(int offset, int endPosition, int sampleLength) {
+		int position;
+		if (this.samplePitch == 0 || (position = offset + (endPosition - this.loopStartModifier + this.samplePitch - 1) / this.samplePitch) > sampleLength) {
+			position = sampleLength;
+		}
+
+		int frames = Math.max(0, position - offset);
+		this.loopStartModifier += this.samplePitch * frames;
+		return frames;
+	}
+
+	public void setNumLoops(int loopCount) {
 		this.numLoops = loopCount;
 	}
 
-	synchronized void muteStream() {
+	void muteStream() {
 		this.mute(0, this.getSamplePanning());
 	}
 
-	synchronized void mute(int volume, int panning) {
+	void mute(int volume, int panning) {
 		this.sampleVolume = volume;
 		this.samplePan = panning;
 		this.streamPosition = 0;
 	}
 
-	public synchronized int getSampleVolume() {
+	public int getSampleVolume() {
 		return this.sampleVolume == Integer.MIN_VALUE ? 0 : this.sampleVolume;
 	}
 
-	public synchronized int getSamplePanning() {
+	/**
+	 * A method that gets the loudest volume the stream is playing at or ramping towards.
+	 * @return The peak volume of the stream.
+	 */
+	public int getPeakVolume() {
+		int peakVolume = Math.max(this.getSampleVolume(), Math.abs(this.volume));
+		return Math.max(peakVolume, Math.max(Math.abs(this.rightChannelVolume), Math.abs(this.leftChannelVolume)));
+	}
+
+	public int getSamplePanning() {
 		return this.samplePan < 0 ? -1 : this.samplePan;
 	}
 
-	public synchronized void setNewLoopStartPosition(int newLoopStart) {
-		int sampleDataLength = this.sound.audioData.length << 8;
+	public void setNewLoopStartPosition(int newLoopStart) {
+		int sampleDataLength = this.end << 8;
 		if (newLoopStart < -1) {
 			newLoopStart = -1;
 		}
@@ -339,16 +352,11 @@ public class RawAudioStream {
 		this.loopStartModifier = newLoopStart;
 	}
 
-	public synchronized void processSamplePitch() {
-		this.samplePitch = (this.samplePitch ^ this.samplePitch >> 31) + (this.samplePitch >>> 31);
-		this.samplePitch = -this.samplePitch;
-	}
-
-	public synchronized void setDefaultVolume(int value, int volume) {
+	public void setDefaultVolume(int value, int volume) {
 		this.setDefaultVolumeAndPanning(value, volume, this.getSamplePanning());
 	}
 
-	public synchronized void setDefaultVolumeAndPanning(int value, int volume, int pan) {
+	public void setDefaultVolumeAndPanning(int value, int volume, int pan) {
 		if (value == 0) {
 			this.mute(volume, pan);
 		} else {
@@ -392,7 +400,7 @@ public class RawAudioStream {
 		}
 	}
 
-	public synchronized void reset(int value) {
+	public void reset(int value) {
 		if (value == 0) {
 			this.muteStream();
 		} else if (this.rightChannelVolume == 0 && this.leftChannelVolume == 0) {
@@ -433,23 +441,19 @@ public class RawAudioStream {
 		}
 	}
 
-	public synchronized void setSampleBasePitch(int pitch) {
-		if (this.samplePitch < 0) {
-			this.samplePitch = -pitch;
-		} else {
-			this.samplePitch = pitch;
-		}
+	public void setSampleBasePitch(int pitch) {
+		this.samplePitch = pitch;
 	}
 
-	public synchronized int getSampleBasePitch() {
-		return this.samplePitch < 0 ? -this.samplePitch : this.samplePitch;
+	public int getSampleBasePitch() {
+		return this.samplePitch;
 	}
 
 	public boolean isLoopValid() {
-		return this.loopStartModifier < 0 || this.loopStartModifier >= this.sound.audioData.length << 8;
+		return this.loopStartModifier < 0 || this.loopStartModifier >= this.end << 8;
 	}
 
-	int calculateEndingOffset(int[] samples, int offset, int endPosition, int sampleLength, int sampleLoopEnd) {
+	int calculateEndingOffset(int[] samples, int offset, int endPosition, int sampleLength) {
 		while (true) {
 			if (this.streamPosition > 0) {
 				int positionOffset = offset + this.streamPosition;
@@ -460,14 +464,14 @@ public class RawAudioStream {
 				this.streamPosition += offset;
 				if (this.samplePitch == 256 && (this.loopStartModifier & 255) == 0) {
 					if (DevicePcmPlayer.stereo) {
-						offset = calculateUnmodifiedStereoOffset(this.sound.audioData, samples, this.loopStartModifier, offset, this.rightChannelVolume, this.leftChannelVolume, this.overallRightChannel, this.overallLeftChannel, positionOffset, endPosition, this);
+						offset = calculateUnmodifiedStereoOffset(this.audioData, samples, this.loopStartModifier, offset, this.rightChannelVolume, this.leftChannelVolume, this.overallRightChannel, this.overallLeftChannel, positionOffset, endPosition, this);
 					} else {
-						offset = calculateUnmodifiedMonoOffset(this.sound.audioData, samples, this.loopStartModifier, offset, this.volume, this.overallVolume, positionOffset, endPosition, this);
+						offset = calculateUnmodifiedMonoOffset(this.audioData, samples, this.loopStartModifier, offset, this.volume, this.overallVolume, positionOffset, endPosition, this);
 					}
 				} else if (DevicePcmPlayer.stereo) {
-					offset = calculateModifiedStereoOffset(this.sound.audioData, samples, this.loopStartModifier, offset, this.rightChannelVolume, this.leftChannelVolume, this.overallRightChannel, this.overallLeftChannel, positionOffset, endPosition, this, this.samplePitch, sampleLoopEnd);
+					offset = calculateModifiedStereoOffset(this.audioData, samples, this.loopStartModifier, offset, this.rightChannelVolume, this.leftChannelVolume, this.overallRightChannel, this.overallLeftChannel, positionOffset, endPosition, this, this.samplePitch);
 				} else {
-					offset = calculateModifiedMonoOffset(this.sound.audioData, samples, this.loopStartModifier, offset, this.volume, this.overallVolume, positionOffset, endPosition, this, this.samplePitch, sampleLoopEnd);
+					offset = calculateModifiedMonoOffset(this.audioData, samples, this.loopStartModifier, offset, this.volume, this.overallVolume, positionOffset, endPosition, this, this.samplePitch);
 				}
 
 				this.streamPosition -= offset;
@@ -484,66 +488,17 @@ public class RawAudioStream {
 
 			if (this.samplePitch == 256 && (this.loopStartModifier & 255) == 0) {
 				if (DevicePcmPlayer.stereo) {
-					return getUnmodifiedStereoEndOffset(this.sound.audioData, samples, this.loopStartModifier, offset, this.rightChannelVolume, this.leftChannelVolume, sampleLength, endPosition, this);
-				}
-
-				return getUnmodifiedMonoEndOffset(this.sound.audioData, samples, this.loopStartModifier, offset, this.volume, sampleLength, endPosition, this);
-			}
-
-			if (DevicePcmPlayer.stereo) {
-				return getModifiedStereoEndOffset(this.sound.audioData, samples, this.loopStartModifier, offset, this.rightChannelVolume, this.leftChannelVolume, sampleLength, endPosition, this, this.samplePitch, sampleLoopEnd);
-			}
-
-			return getModifiedMonoEndOffset(this.sound.audioData, samples, this.loopStartModifier, offset, this.volume, sampleLength, endPosition, this, this.samplePitch, sampleLoopEnd);
-		}
-	}
-
-	int calculateBeginningOffset(int[] samples, int offset, int startPosition, int sampleLength, int loopStartPosition) {
-		while (true) {
-			if (this.streamPosition > 0) {
-				int volumeOffset = offset + this.streamPosition;
-				if (volumeOffset > sampleLength) {
-					volumeOffset = sampleLength;
-				}
-
-				this.streamPosition += offset;
-				if (this.samplePitch == -256 && (this.loopStartModifier & 255) == 0) {
-					if (DevicePcmPlayer.stereo) {
-						offset = getUnmodifiedLoopStartStereoOffset(this.sound.audioData, samples, this.loopStartModifier, offset, this.rightChannelVolume, this.leftChannelVolume, this.overallRightChannel, this.overallLeftChannel, volumeOffset, startPosition, this);
-					} else {
-						offset = getUnmodifiedLoopStartMonoOffset(this.sound.audioData, samples, this.loopStartModifier, offset, this.volume, this.overallVolume, volumeOffset, startPosition, this);
-					}
-				} else if (DevicePcmPlayer.stereo) {
-					offset = getModifiedLoopStartStereoOffset(this.sound.audioData, samples, this.loopStartModifier, offset, this.rightChannelVolume, this.leftChannelVolume, this.overallRightChannel, this.overallLeftChannel, volumeOffset, startPosition, this, this.samplePitch, loopStartPosition);
-				} else {
-					offset = getModifiedLoopStartMonoOffset(this.sound.audioData, samples, this.loopStartModifier, offset, this.volume, this.overallVolume, volumeOffset, startPosition, this, this.samplePitch, loopStartPosition);
-				}
-
-				this.streamPosition -= offset;
-				if (this.streamPosition != 0) {
-					return offset;
-				}
-
-				if (this.streamIsNotMuted()) {
-					continue;
-				}
-
-				return sampleLength;
-			}
-
-			if (this.samplePitch == -256 && (this.loopStartModifier & 255) == 0) {
-				if (DevicePcmPlayer.stereo) {
-					return getFirstUnmodifiedStereoOffset(this.sound.audioData, samples, this.loopStartModifier, offset, this.rightChannelVolume, this.leftChannelVolume, sampleLength, startPosition, this);
+					return getUnmodifiedStereoEndOffset(this.audioData, samples, this.loopStartModifier, offset, this.rightChannelVolume, this.leftChannelVolume, sampleLength, endPosition, this);
 				}
 
-				return getFirstUnmodifiedMonoOffset(this.sound.audioData, samples, this.loopStartModifier, offset, this.volume, sampleLength, startPosition, this);
+				return getUnmodifiedMonoEndOffset(this.audioData, samples, this.loopStartModifier, offset, this.volume, sampleLength, endPosition, this);
 			}
 
 			if (DevicePcmPlayer.stereo) {
-				return getFirstModifiedStereoOffset(this.sound.audioData, samples, this.loopStartModifier, offset, this.rightChannelVolume, this.leftChannelVolume, sampleLength, startPosition, this, this.samplePitch, loopStartPosition);
+				return getModifiedStereoEndOffset(this.audioData, samples, this.loopStartModifier, offset, this.rightChannelVolume, this.leftChannelVolume, sampleLength, endPosition, this, this.samplePitch);
 			}
 
-			return getFirstModifiedMonoOffset(this.sound.audioData, samples, this.loopStartModifier, offset, this.volume, sampleLength, startPosition, this, this.samplePitch, loopStartPosition);
+			return getModifiedMonoEndOffset(this.audioData, samples, this.loopStartModifier, offset, this.volume, sampleLength, endPosition, this, this.samplePitch);
 		}
 	}
 
@@ -619,7 +574,7 @@ public class RawAudioStream {
 	}
 
 	public static RawAudioStream createSampledAudioStream(AudioDataSource sound, int pitchFactor, int volumeFactor, int panFactor) {
-		return sound.audioData != null && sound.audioData.length != 0 ? new RawAudioStream(sound, pitchFactor, volumeFactor, panFactor) : null;
+		return sound.paddedAudioData != null && sound.audioData.length != 0 ? new RawAudioStream(sound, pitchFactor, volumeFactor, panFactor) : null;
 	}
 
 	static int getUnmodifiedMonoEndOffset(byte[] audioData, int[] samples, int loopStartModifier, int offset, int volume, int sampleLength, int endPosition, RawAudioStream rawAudioStream) {
@@ -698,85 +653,9 @@ public class RawAudioStream {
 		return offset >> 1;
 	}
 
-	static int getFirstUnmodifiedMonoOffset(byte[] audioData, int[] samples, int loopStartModifier, int offset, int volume, int sampleLength, int startPosition, RawAudioStream rawAudioStream) {
-		loopStartModifier >>= 8;
-		startPosition >>= 8;
-		volume <<= 2;
-		int position;
-		if ((position = offset + loopStartModifier - (startPosition - 1)) > sampleLength) {
-			position = sampleLength;
-		}
-
-		int index;
-		for (position -= 3; offset < position; samples[index] += audioData[loopStartModifier--] * volume) {
-			index = offset++;
-			samples[index] += audioData[loopStartModifier--] * volume;
-			index = offset++;
-			samples[index] += audioData[loopStartModifier--] * volume;
-			index = offset++;
-			samples[index] += audioData[loopStartModifier--] * volume;
-			index = offset++;
-		}
-
-		for (position += 3; offset < position; samples[index] += audioData[loopStartModifier--] * volume) {
-			index = offset++;
-		}
-
-		rawAudioStream.loopStartModifier = loopStartModifier << 8;
-		return offset;
-	}
-
-	static int getFirstUnmodifiedStereoOffset(byte[] audioData, int[] samples, int loopStartModifier, int offset, int rightChannelVolume, int leftChannelVolume, int length, int startPosition, RawAudioStream rawAudioStream) {
-		loopStartModifier >>= 8;
-		startPosition >>= 8;
-		rightChannelVolume <<= 2;
-		leftChannelVolume <<= 2;
-		int position;
-		if ((position = loopStartModifier + offset - (startPosition - 1)) > length) {
-			position = length;
-		}
-
-		offset <<= 1;
-		position <<= 1;
-
-		int index;
-		byte audioDataByte;
-		for (position -= 6; offset < position; samples[index] += audioDataByte * leftChannelVolume) {
-			audioDataByte = audioData[loopStartModifier--];
-			index = offset++;
-			samples[index] += audioDataByte * rightChannelVolume;
-			index = offset++;
-			samples[index] += audioDataByte * leftChannelVolume;
-			audioDataByte = audioData[loopStartModifier--];
-			index = offset++;
-			samples[index] += audioDataByte * rightChannelVolume;
-			index = offset++;
-			samples[index] += audioDataByte * leftChannelVolume;
-			audioDataByte = audioData[loopStartModifier--];
-			index = offset++;
-			samples[index] += audioDataByte * rightChannelVolume;
-			index = offset++;
-			samples[index] += audioDataByte * leftChannelVolume;
-			audioDataByte = audioData[loopStartModifier--];
-			index = offset++;
-			samples[index] += audioDataByte * rightChannelVolume;
-			index = offset++;
-		}
-
-		for (position += 6; offset < position; samples[index] += audioDataByte * leftChannelVolume) {
-			audioDataByte = audioData[loopStartModifier--];
-			index = offset++;
-			samples[index] += audioDataByte * rightChannelVolume;
-			index = offset++;
-		}
-
-		rawAudioStream.loopStartModifier = loopStartModifier << 8;
-		return offset >> 1;
-	}
-
-	static int getModifiedMonoEndOffset(byte[] audioData, int[] samples, int loopStartModifier, int offset, int volume, int length, int endPosition, RawAudioStream rawAudioStream, int pitch, int sampleLoopEnd) {
+	static int getModifiedMonoEndOffset(byte[] audioData, int[] samples, int loopStartModifier, int offset, int volume, int length, int endPosition, RawAudioStream rawAudioStream, int pitch) {
 		int sampleLength;
-		if (pitch == 0 || (sampleLength = offset + (pitch + (endPosition - loopStartModifier) - 257) / pitch) > length) {
+		if (pitch == 0 || (sampleLength = offset + (pitch + (endPosition - loopStartModifier) - 1) / pitch) > length) {
 			sampleLength = length;
 		}
 
@@ -791,23 +670,13 @@ public class RawAudioStream {
 			loopStartModifier += pitch;
 		}
 
-		if (pitch == 0 || (sampleLength = offset + (pitch + (endPosition - loopStartModifier) - 1) / pitch) > length) {
-			sampleLength = length;
-		}
-
-		for (index = sampleLoopEnd; offset < sampleLength; loopStartModifier += pitch) {
-			audioDataByte = audioData[loopStartModifier >> 8];
-			position = offset++;
-			samples[position] += ((audioDataByte << 8) + (index - audioDataByte) * (loopStartModifier & 255)) * volume >> 6;
-		}
-
 		rawAudioStream.loopStartModifier = loopStartModifier;
 		return offset;
 	}
 
-	static int getModifiedStereoEndOffset(byte[] audioData, int[] samples, int loopStartModifier, int offset, int rightChannelVolume, int leftChannelVolume, int sampleLength, int endPosition, RawAudioStream rawAudioStream, int pitch, int sampleLoopEnd) {
+	static int getModifiedStereoEndOffset(byte[] audioData, int[] samples, int loopStartModifier, int offset, int rightChannelVolume, int leftChannelVolume, int sampleLength, int endPosition, RawAudioStream rawAudioStream, int pitch) {
 		int length;
-		if (pitch == 0 || (length = offset + (endPosition - loopStartModifier + pitch - 257) / pitch) > sampleLength) {
+		if (pitch == 0 || (length = offset + (endPosition - loopStartModifier + pitch - 1) / pitch) > sampleLength) {
 			length = sampleLength;
 		}
 
@@ -827,89 +696,6 @@ public class RawAudioStream {
 			samples[index] += audioLoopOffset * leftChannelVolume >> 6;
 		}
 
-		if (pitch == 0 || (length = (offset >> 1) + (endPosition - loopStartModifier + pitch - 1) / pitch) > sampleLength) {
-			length = sampleLength;
-		}
-
-		length <<= 1;
-
-		for (position = sampleLoopEnd; offset < length; loopStartModifier += pitch) {
-			audioDataByte = audioData[loopStartModifier >> 8];
-			audioLoopOffset = (audioDataByte << 8) + (position - audioDataByte) * (loopStartModifier & 255);
-			index = offset++;
-			samples[index] += audioLoopOffset * rightChannelVolume >> 6;
-			index = offset++;
-			samples[index] += audioLoopOffset * leftChannelVolume >> 6;
-		}
-
-		rawAudioStream.loopStartModifier = loopStartModifier;
-		return offset >> 1;
-	}
-
-	static int getFirstModifiedMonoOffset(byte[] audioData, int[] samples, int loopStartModifier, int offset, int volume, int sampleLength, int startPosition, RawAudioStream rawAudioStream, int pitchOffset, int loopStart) {
-		int position;
-		if (pitchOffset == 0 || (position = offset + (pitchOffset + (startPosition + 256 - loopStartModifier)) / pitchOffset) > sampleLength) {
-			position = sampleLength;
-		}
-
-		int index;
-		int modifierIndex;
-		while (offset < position) {
-			modifierIndex = loopStartModifier >> 8;
-			byte audioPositionByte = audioData[modifierIndex - 1];
-			index = offset++;
-			samples[index] += ((audioPositionByte << 8) + (audioData[modifierIndex] - audioPositionByte) * (loopStartModifier & 255)) * volume >> 6;
-			loopStartModifier += pitchOffset;
-		}
-
-		if (pitchOffset == 0 || (position = offset + (pitchOffset + (startPosition - loopStartModifier)) / pitchOffset) > sampleLength) {
-			position = sampleLength;
-		}
-
-		for (modifierIndex = pitchOffset; offset < position; loopStartModifier += modifierIndex) {
-			index = offset++;
-			samples[index] += ((loopStart << 8) + (audioData[loopStartModifier >> 8] - loopStart) * (loopStartModifier & 255)) * volume >> 6;
-		}
-
-		rawAudioStream.loopStartModifier = loopStartModifier;
-		return offset;
-	}
-
-	static int getFirstModifiedStereoOffset(byte[] audioData, int[] samples, int loopStartModifier, int offset, int rightChannelVolume, int leftChannelVolume, int length, int startPosition, RawAudioStream rawAudioStream, int pitchOffset, int loopStartPosition) {
-		int position;
-		if (pitchOffset == 0 || (position = offset + (startPosition + 256 - loopStartModifier + pitchOffset) / pitchOffset) > length) {
-			position = length;
-		}
-
-		offset <<= 1;
-
-		int sampleOffset;
-		int rightIndex;
-		int index;
-		for (position <<= 1; offset < position; loopStartModifier += pitchOffset) {
-			index = loopStartModifier >> 8;
-			byte audioPositionByte = audioData[index - 1];
-			rightIndex = (audioData[index] - audioPositionByte) * (loopStartModifier & 255) + (audioPositionByte << 8);
-			sampleOffset = offset++;
-			samples[sampleOffset] += rightIndex * rightChannelVolume >> 6;
-			sampleOffset = offset++;
-			samples[sampleOffset] += rightIndex * leftChannelVolume >> 6;
-		}
-
-		if (pitchOffset == 0 || (position = (offset >> 1) + (startPosition - loopStartModifier + pitchOffset) / pitchOffset) > length) {
-			position = length;
-		}
-
-		position <<= 1;
-
-		for (index = loopStartPosition; offset < position; loopStartModifier += pitchOffset) {
-			rightIndex = (index << 8) + (loopStartModifier & 255) * (audioData[loopStartModifier >> 8] - index);
-			sampleOffset = offset++;
-			samples[sampleOffset] += rightIndex * rightChannelVolume >> 6;
-			sampleOffset = offset++;
-			samples[sampleOffset] += rightIndex * leftChannelVolume >> 6;
-		}
-
 		rawAudioStream.loopStartModifier = loopStartModifier;
 		return offset >> 1;
 	}
@@ -1015,112 +801,11 @@ public class RawAudioStream {
 		return offset >> 1;
 	}
 
-	static int getUnmodifiedLoopStartMonoOffset(byte[] audioData, int[] samples, int loopStartModifier, int offset, int volume, int overallVolume, int volumeOffset, int startPosition, RawAudioStream rawAudioStream) {
-		loopStartModifier >>= 8;
-		startPosition >>= 8;
-		volume <<= 2;
-		overallVolume <<= 2;
-		int position;
-		if ((position = offset + loopStartModifier - (startPosition - 1)) > volumeOffset) {
-			position = volumeOffset;
-		}
-
-		rawAudioStream.rightChannelVolume += rawAudioStream.overallRightChannel * (position - offset);
-		rawAudioStream.leftChannelVolume += rawAudioStream.overallLeftChannel * (position - offset);
-
-		int index;
-		for (position -= 3; offset < position; volume += overallVolume) {
-			index = offset++;
-			samples[index] += audioData[loopStartModifier--] * volume;
-			volume += overallVolume;
-			index = offset++;
-			samples[index] += audioData[loopStartModifier--] * volume;
-			volume += overallVolume;
-			index = offset++;
-			samples[index] += audioData[loopStartModifier--] * volume;
-			volume += overallVolume;
-			index = offset++;
-			samples[index] += audioData[loopStartModifier--] * volume;
-		}
-
-		for (position += 3; offset < position; volume += overallVolume) {
-			index = offset++;
-			samples[index] += audioData[loopStartModifier--] * volume;
-		}
-
-		rawAudioStream.volume = volume >> 2;
-		rawAudioStream.loopStartModifier = loopStartModifier << 8;
-		return offset;
-	}
-
-	static int getUnmodifiedLoopStartStereoOffset(byte[] audioData, int[] samples, int loopStartModifier, int offset, int rightChannelVolume, int leftChannelVolume, int overallRightChannelVolume, int overallLeftChannelVolume, int volumeOffset, int startPosition, RawAudioStream rawAudioStream) {
-		loopStartModifier >>= 8;
-		startPosition >>= 8;
-		rightChannelVolume <<= 2;
-		leftChannelVolume <<= 2;
-		overallRightChannelVolume <<= 2;
-		overallLeftChannelVolume <<= 2;
-		int position;
-		if ((position = loopStartModifier + offset - (startPosition - 1)) > volumeOffset) {
-			position = volumeOffset;
-		}
-
-		rawAudioStream.volume += rawAudioStream.overallVolume * (position - offset);
-		offset <<= 1;
-		position <<= 1;
-
-		byte audioDataByte;
-		int index;
-		for (position -= 6; offset < position; leftChannelVolume += overallLeftChannelVolume) {
-			audioDataByte = audioData[loopStartModifier--];
-			index = offset++;
-			samples[index] += audioDataByte * rightChannelVolume;
-			rightChannelVolume += overallRightChannelVolume;
-			index = offset++;
-			samples[index] += audioDataByte * leftChannelVolume;
-			leftChannelVolume += overallLeftChannelVolume;
-			audioDataByte = audioData[loopStartModifier--];
-			index = offset++;
-			samples[index] += audioDataByte * rightChannelVolume;
-			rightChannelVolume += overallRightChannelVolume;
-			index = offset++;
-			samples[index] += audioDataByte * leftChannelVolume;
-			leftChannelVolume += overallLeftChannelVolume;
-			audioDataByte = audioData[loopStartModifier--];
-			index = offset++;
-			samples[index] += audioDataByte * rightChannelVolume;
-			rightChannelVolume += overallRightChannelVolume;
-			index = offset++;
-			samples[index] += audioDataByte * leftChannelVolume;
-			leftChannelVolume += overallLeftChannelVolume;
-			audioDataByte = audioData[loopStartModifier--];
-			index = offset++;
-			samples[index] += audioDataByte * rightChannelVolume;
-			rightChannelVolume += overallRightChannelVolume;
-			index = offset++;
-			samples[index] += audioDataByte * leftChannelVolume;
-		}
-
-		for (position += 6; offset < position; leftChannelVolume += overallLeftChannelVolume) {
-			audioDataByte = audioData[loopStartModifier--];
-			index = offset++;
-			samples[index] += audioDataByte * rightChannelVolume;
-			rightChannelVolume += overallRightChannelVolume;
-			index = offset++;
-			samples[index] += audioDataByte * leftChannelVolume;
-		}
-
-		rawAudioStream.rightChannelVolume = rightChannelVolume >> 2;
-		rawAudioStream.leftChannelVolume = leftChannelVolume >> 2;
-		rawAudioStream.loopStartModifier = loopStartModifier << 8;
-		return offset >> 1;
-	}
-
-	static int calculateModifiedMonoOffset(byte[] audioData, int[] samples, int loopStartModifier, int offset, int volume, int overallVolume, int positionOffset, int endPosition, RawAudioStream rawAudioStream, int pitch, int sampleLoopEnd) {
+	static int calculateModifiedMonoOffset(byte[] audioData, int[] samples, int loopStartModifier, int offset, int volume, int overallVolume, int positionOffset, int endPosition, RawAudioStream rawAudioStream, int pitch) {
 		rawAudioStream.rightChannelVolume -= rawAudioStream.overallRightChannel * offset;
 		rawAudioStream.leftChannelVolume -= rawAudioStream.overallLeftChannel * offset;
 		int position;
-		if (pitch == 0 || (position = offset + (endPosition - loopStartModifier + pitch - 257) / pitch) > positionOffset) {
+		if (pitch == 0 || (position = offset + (endPosition - loopStartModifier + pitch - 1) / pitch) > positionOffset) {
 			position = positionOffset;
 		}
 
@@ -1136,17 +821,6 @@ public class RawAudioStream {
 			loopStartModifier += pitch;
 		}
 
-		if (pitch == 0 || (position = offset + (endPosition - loopStartModifier + pitch - 1) / pitch) > positionOffset) {
-			position = positionOffset;
-		}
-
-		for (audioIndex = sampleLoopEnd; offset < position; loopStartModifier += pitch) {
-			audioDataByte = audioData[loopStartModifier >> 8];
-			sampleIndex = offset++;
-			samples[sampleIndex] += ((audioDataByte << 8) + (audioIndex - audioDataByte) * (loopStartModifier & 255)) * volume >> 6;
-			volume += overallVolume;
-		}
-
 		rawAudioStream.rightChannelVolume += rawAudioStream.overallRightChannel * offset;
 		rawAudioStream.leftChannelVolume += rawAudioStream.overallLeftChannel * offset;
 		rawAudioStream.volume = volume;
@@ -1154,10 +828,10 @@ public class RawAudioStream {
 		return offset;
 	}
 
-	static int calculateModifiedStereoOffset(byte[] audioData, int[] samples, int loopStartModifier, int offset, int rightChannelVolume, int leftChannelVolume, int overallRightChannelVolume, int overallLeftChannelVolume, int positionOffset, int endPosition, RawAudioStream rawAudioStream, int pitch, int sampleLoopEnd) {
+	static int calculateModifiedStereoOffset(byte[] audioData, int[] samples, int loopStartModifier, int offset, int rightChannelVolume, int leftChannelVolume, int overallRightChannelVolume, int overallLeftChannelVolume, int positionOffset, int endPosition, RawAudioStream rawAudioStream, int pitch) {
 		rawAudioStream.volume -= offset * rawAudioStream.overallVolume;
 		int position;
-		if (pitch == 0 || (position = offset + (endPosition - loopStartModifier + pitch - 257) / pitch) > positionOffset) {
+		if (pitch == 0 || (position = offset + (endPosition - loopStartModifier + pitch - 1) / pitch) > positionOffset) {
 			position = positionOffset;
 		}
 
@@ -1179,23 +853,6 @@ public class RawAudioStream {
 			leftChannelVolume += overallLeftChannelVolume;
 		}
 
-		if (pitch == 0 || (position = (offset >> 1) + (endPosition - loopStartModifier + pitch - 1) / pitch) > positionOffset) {
-			position = positionOffset;
-		}
-
-		position <<= 1;
-
-		for (audioIndex = sampleLoopEnd; offset < position; loopStartModifier += pitch) {
-			audioDataByte = audioData[loopStartModifier >> 8];
-			audioOffset = (audioDataByte << 8) + (audioIndex - audioDataByte) * (loopStartModifier & 255);
-			sampleIndex = offset++;
-			samples[sampleIndex] += audioOffset * rightChannelVolume >> 6;
-			rightChannelVolume += overallRightChannelVolume;
-			sampleIndex = offset++;
-			samples[sampleIndex] += audioOffset * leftChannelVolume >> 6;
-			leftChannelVolume += overallLeftChannelVolume;
-		}
-
 		offset >>= 1;
 		rawAudioStream.volume += rawAudioStream.overallVolume * offset;
 		rawAudioStream.rightChannelVolume = rightChannelVolume;
@@ -1204,87 +861,4 @@ public class RawAudioStream {
 		return offset;
 	}
 
-	static int getModifiedLoopStartMonoOffset(byte[] audioData, int[] samples, int loopStartModifier, int offset, int volume, int overallVolume, int volumeOffset, int startPosition, RawAudioStream rawAudioStream, int pitch, int sampleLoopStart) {
-		rawAudioStream.rightChannelVolume -= rawAudioStream.overallRightChannel * offset;
-		rawAudioStream.leftChannelVolume -= rawAudioStream.overallLeftChannel * offset;
-		int position;
-		if (pitch == 0 || (position = offset + (startPosition + 256 - loopStartModifier + pitch) / pitch) > volumeOffset) {
-			position = volumeOffset;
-		}
-
-		int index;
-		int audioIndex;
-		while (offset < position) {
-			audioIndex = loopStartModifier >> 8;
-			byte audioDataByte = audioData[audioIndex - 1];
-			index = offset++;
-			samples[index] += ((audioDataByte << 8) + (audioData[audioIndex] - audioDataByte) * (loopStartModifier & 255)) * volume >> 6;
-			volume += overallVolume;
-			loopStartModifier += pitch;
-		}
-
-		if (pitch == 0 || (position = offset + (startPosition - loopStartModifier + pitch) / pitch) > volumeOffset) {
-			position = volumeOffset;
-		}
-
-		for (audioIndex = pitch; offset < position; loopStartModifier += audioIndex) {
-			index = offset++;
-			samples[index] += ((sampleLoopStart << 8) + (audioData[loopStartModifier >> 8] - sampleLoopStart) * (loopStartModifier & 255)) * volume >> 6;
-			volume += overallVolume;
-		}
-
-		rawAudioStream.rightChannelVolume += rawAudioStream.overallRightChannel * offset;
-		rawAudioStream.leftChannelVolume += rawAudioStream.overallLeftChannel * offset;
-		rawAudioStream.volume = volume;
-		rawAudioStream.loopStartModifier = loopStartModifier;
-		return offset;
-	}
-
-	static int getModifiedLoopStartStereoOffset(byte[] audioData, int[] samples, int loopStartModifier, int offset, int rightChannelVolume, int leftChannelVolume, int overallRightChannelVolume, int overallLeftChannelVolume, int volumeOffset, int startPosition, RawAudioStream rawAudioStream, int pitch, int loopStartPosition) {
-		rawAudioStream.volume -= offset * rawAudioStream.overallVolume;
-		int volume;
-		if (pitch == 0 || (volume = offset + (startPosition + 256 - loopStartModifier + pitch) / pitch) > volumeOffset) {
-			volume = volumeOffset;
-		}
-
-		offset <<= 1;
-
-		int sampleIndex;
-		int audioPosition;
-		int audioIndex;
-		for (volume <<= 1; offset < volume; loopStartModifier += pitch) {
-			audioIndex = loopStartModifier >> 8;
-			byte audioDataByte = audioData[audioIndex - 1];
-			audioPosition = (audioData[audioIndex] - audioDataByte) * (loopStartModifier & 255) + (audioDataByte << 8);
-			sampleIndex = offset++;
-			samples[sampleIndex] += audioPosition * rightChannelVolume >> 6;
-			rightChannelVolume += overallRightChannelVolume;
-			sampleIndex = offset++;
-			samples[sampleIndex] += audioPosition * leftChannelVolume >> 6;
-			leftChannelVolume += overallLeftChannelVolume;
-		}
-
-		if (pitch == 0 || (volume = (offset >> 1) + (startPosition - loopStartModifier + pitch) / pitch) > volumeOffset) {
-			volume = volumeOffset;
-		}
-
-		volume <<= 1;
-
-		for (audioIndex = loopStartPosition; offset < volume; loopStartModifier += pitch) {
-			audioPosition = (audioIndex << 8) + (loopStartModifier & 255) * (audioData[loopStartModifier >> 8] - audioIndex);
-			sampleIndex = offset++;
-			samples[sampleIndex] += audioPosition * rightChannelVolume >> 6;
-			rightChannelVolume += overallRightChannelVolume;
-			sampleIndex = offset++;
-			samples[sampleIndex] += audioPosition * leftChannelVolume >> 6;
-			leftChannelVolume += overallLeftChannelVolume;
-		}
-
-		offset >>= 1;
-		rawAudioStream.volume += rawAudioStream.overallVolume * offset;
-		rawAudioStream.rightChannelVolume = rightChannelVolume;
-		rawAudioStream.leftChannelVolume = leftChannelVolume;
-		rawAudioStream.loopStartModifier = loopStartModifier;
-		return offset;
-	}
 }
@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2022, Rodolfo Ruiz-Velasco <https://github.com/lequietriot>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package rs.musicmask.midisynth;
+
+import rs.musicmask.MusicMaskPlugin;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.BitSet;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A class which loads the patches of a Sound Bank when they are first needed and shares them between every stream
+ * playing with the bank, so a patch is only read and decoded once. Loaded patches are never changed while playing.
+ * Each patch is decoded by the first thread to ask for it, without holding up threads asking for other patches.
+ */
+public final class SoundBank {
+
+	/**
+	 * The number of patch IDs a Sound Bank can hold.
+	 */
+	public static final int PATCH_COUNT = 384;
+
+	/**
+	 * The Sound Banks that have been used, by name.
+	 */
+	private static final Map<String, SoundBank> soundBanks = new ConcurrentHashMap<>();
+
+	/**
+	 * The name of the Sound Bank, which is also the resource folder its patches are read from.
+	 */
+	private final String soundBankName;
+
+	/**
+	 * The patches which are loaded or being loaded, by ID. A patch the Sound Bank does not have completes as null.
+	 */
+	private final Map<Integer, CompletableFuture<MusicPatch>> musicPatches = new ConcurrentHashMap<>();
+
+	private SoundBank(String soundBankName) {
+		this.soundBankName = soundBankName;
+	}
+
+	/**
+	 * A method to get the shared Sound Bank with a name.
+	 * @param soundBankName The name of the Sound Bank.
+	 * @return The Sound Bank.
+	 */
+	public static SoundBank get(String soundBankName) {
+		return soundBanks.computeIfAbsent(soundBankName, SoundBank::new);
+	}
+
+	/**
+	 * A method that drops every Sound Bank except one, so their patches can be garbage collected once no stream uses them.
+	 * @param soundBankName The name of the Sound Bank to keep.
+	 */
+	public static void releaseAllExcept(String soundBankName) {
+		soundBanks.keySet().removeIf(name -> !name.equals(soundBankName));
+	}
+
+	/**
+	 * A method to get a patch, loading it if it has not been used before. If another thread is already loading the
+	 * patch, this waits for it instead of loading it again.
+	 * @param patchId The ID of the patch.
+	 * @return The patch, or null if the Sound Bank does not have it.
+	 * @throws IOException If the patch could not be read.
+	 */
+	public MusicPatch getPatch(int patchId) throws IOException {
+		CompletableFuture<MusicPatch> loading = new CompletableFuture<>();
+		CompletableFuture<MusicPatch> musicPatch = this.musicPatches.putIfAbsent(patchId, loading);
+		if (musicPatch == null) {
+			try {
+				MusicPatch loadedPatch = this.readPatch(patchId);
+				loading.complete(loadedPatch);
+				return loadedPatch;
+			} catch (Throwable throwable) {
+				// Let a later call try again, and wake any thread which was waiting for this one
+				this.musicPatches.remove(patchId, loading);
+				loading.completeExceptionally(throwable);
+				throw throwable;
+			}
+		}
+
+		try {
+			return musicPatch.join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw new IOException("Patch " + patchId + " could not be read", e.getCause());
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * A method that reads and decodes a patch from the Sound Bank's resources.
+	 * @param patchId The ID of the patch.
+	 * @return The patch, or null if the Sound Bank does not have it.
+	 * @throws IOException If the patch could not be read.
+	 */
+	private MusicPatch readPatch(int patchId) throws IOException {
+		try (InputStream inputStream = MusicMaskPlugin.class.getResourceAsStream(this.soundBankName + "/patches/" + patchId + ".txt")) {
+			if (inputStream == null) {
+				return null;
+			}
+
+			return new MusicPatch(inputStream, this.soundBankName);
+		}
+	}
+
+	/**
+	 * A method that loads patches ahead of the streams that will play them.
+	 * @param patches The IDs of the patches to load, or null to load all of them.
+	 * @throws IOException If a patch could not be read.
+	 */
+	public void preload(BitSet patches) throws IOException {
+		for (int patchId = 0; patchId < PATCH_COUNT; patchId++) {
+			if (patches == null || patches.get(patchId)) {
+				this.getPatch(patchId);
+			}
+		}
+	}
+
+	/**
+	 * A method to check if every given patch has been loaded or found to be missing.
+	 * @param patches The IDs of the patches.
+	 * @return True if none of the patches have to be loaded.
+	 */
+	public boolean isLoaded(BitSet patches) {
+		for (int patchId = patches.nextSetBit(0); patchId >= 0 && patchId < PATCH_COUNT; patchId = patches.nextSetBit(patchId + 1)) {
+			CompletableFuture<MusicPatch> musicPatch = this.musicPatches.get(patchId);
+			if (musicPatch == null || !musicPatch.isDone()) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	public String getName() {
+		return this.soundBankName;
+	}
+}
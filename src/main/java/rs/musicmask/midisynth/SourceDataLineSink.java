@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2023, Rodolfo Ruiz-Velasco <ruizvelascorodolfo@gmail.com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package rs.musicmask.midisynth;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.DataLine;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.Mixer;
+import javax.sound.sampled.SourceDataLine;
+
+/**
+ * An audio output sink which plays audio out loud through the default sound device.
+ */
+public class SourceDataLineSink implements AudioOutputSink {
+
+	/**
+	 * The device being used to output sound to.
+	 */
+	public SourceDataLine line;
+
+	/**
+	 * A method to get the default audio output device, open it, and start using it.
+	 * @param format The format of the audio that will be written.
+	 * @param bufferSize The requested buffer size in bytes.
+	 * @throws LineUnavailableException Try to re-open the device for sound output. If not possible, an error occurs.
+	 */
+	@Override
+	public void open(AudioFormat format, int bufferSize) throws LineUnavailableException {
+		Mixer.Info[] mixers = AudioSystem.getMixerInfo();
+		for (Mixer.Info info : mixers) {
+			if (this.line != null && this.line.isOpen()) {
+				break;
+			}
+
+			Mixer mixer = AudioSystem.getMixer(info);
+			try {
+				if (info.getName().toLowerCase().contains("primary") || info.getName().toLowerCase().contains("default")) {
+					DataLine.Info sourceDataLineInfo = new DataLine.Info(SourceDataLine.class, format, bufferSize);
+					if (mixer.isLineSupported(sourceDataLineInfo)) {
+						this.line = (SourceDataLine) mixer.getLine(sourceDataLineInfo);
+						this.line.open(format, bufferSize);
+						this.line.start();
+					}
+				}
+			} catch (LineUnavailableException lineUnavailableException) {
+				if (this.line != null && this.line.available() != -1) {
+					this.open(format, bufferSize);
+				} else {
+					this.line = null;
+					throw lineUnavailableException;
+				}
+			}
+		}
+	}
+
+	@Override
+	public boolean isOpen() {
+		return this.line != null && this.line.isOpen();
+	}
+
+	@Override
+	public int available() {
+		return this.line.available();
+	}
+
+	@Override
+	public int getBufferSize() {
+		return this.line.getBufferSize();
+	}
+
+	@Override
+	public void write(byte[] data, int offset, int length) {
+		this.line.write(data, offset, length);
+	}
+
+	@Override
+	public void close() {
+		if (this.line != null) {
+			this.line.stop();
+			this.line.flush();
+			this.line.close();
+			this.line = null;
+		}
+	}
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2022, Rodolfo Ruiz-Velasco <https://github.com/lequietriot>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package rs.musicmask.midisynth;
+
+/**
+ * A utility class holding fixed-point lookup tables for the control rate math of the synthesizer.
+ * Exponents are quantized to 1/65536 of an octave and the interpolated table stays within 0.002 cents of the floating
+ * point math it replaces. Powers of two are truncated to 16.16 fixed-point, within 0.03 cents from 1.0 up, and scaled
+ * values are rounded to the nearest integer, within 0.0001 dB plus half a unit. Vibrato depth is truncated to whole
+ * pitch units as before, within 0.4 cents.
+ */
+final class SynthTables {
+
+	/**
+	 * The number of fractional bits used by the fixed-point values in this class.
+	 */
+	static final int FIXED_POINT_BITS = 16;
+
+	/**
+	 * The fixed-point representation of 1.0.
+	 */
+	static final int FIXED_POINT_ONE = 1 << FIXED_POINT_BITS;
+
+	/**
+	 * The number of table entries covering one octave of the exponential table.
+	 */
+	private static final int EXP2_TABLE_BITS = 8;
+
+	/**
+	 * The number of fractional bits of each exponential table entry.
+	 */
+	private static final int EXP2_MANTISSA_BITS = 30;
+
+	/**
+	 * A table of 2^(i / 256) values in 2.30 fixed-point, with one extra entry for interpolating the last step.
+	 */
+	private static final int[] EXP2_TABLE = new int[(1 << EXP2_TABLE_BITS) + 1];
+
+	/**
+	 * A table of sine values for the 512 step vibrato phase, in 16.16 fixed-point.
+	 */
+	private static final int[] SINE_TABLE = new int[512];
+
+	static {
+		for (int index = 0; index < EXP2_TABLE.length; index++) {
+			EXP2_TABLE[index] = (int) Math.min(Integer.MAX_VALUE, Math.round(Math.pow(2.0D, (double) index / (1 << EXP2_TABLE_BITS)) * (1 << EXP2_MANTISSA_BITS)));
+		}
+
+		for (int index = 0; index < SINE_TABLE.length; index++) {
+			SINE_TABLE[index] = (int) Math.round(Math.sin(0.01227184630308513D * (double) index) * FIXED_POINT_ONE);
+		}
+	}
+
+	private SynthTables() {
+	}
+
+	/**
+	 * A method that calculates a power of two with linear interpolation between table entries.
+	 * @param exponent The exponent, in 16.16 fixed-point octaves.
+	 * @return 2 to the power of the exponent, in 16.16 fixed-point.
+	 */
+	static long exp2(int exponent) {
+		long mantissa = mantissa(exponent);
+		int shift = EXP2_MANTISSA_BITS - FIXED_POINT_BITS - (exponent >> FIXED_POINT_BITS);
+		if (shift >= 63) {
+			return 0L;
+		}
+
+		if (shift < 0) {
+			return mantissa << Math.min(-shift, 24);
+		}
+
+		return mantissa >> shift;
+	}
+
+	/**
+	 * A method that scales a value by a power of two, rounding to the nearest integer.
+	 * @param value The value to scale.
+	 * @param exponent The exponent, in 16.16 fixed-point octaves.
+	 * @return The value multiplied by 2 to the power of the exponent.
+	 */
+	static int scaleByExp2(int value, int exponent) {
+		long product = (long) value * mantissa(exponent);
+		int shift = EXP2_MANTISSA_BITS - (exponent >> FIXED_POINT_BITS);
+		if (shift >= 63) {
+			return 0;
+		}
+
+		if (shift <= 0) {
+			return (int) (product << Math.min(-shift, 24));
+		}
+
+		return (int) (product + (1L << (shift - 1)) >> shift);
+	}
+
+	/**
+	 * A method that interpolates the exponential table for the fractional octave of an exponent.
+	 * @param exponent The exponent, in 16.16 fixed-point octaves.
+	 * @return 2 to the power of the fractional octave, in 2.30 fixed-point.
+	 */
+	private static long mantissa(int exponent) {
+		int fraction = exponent & (FIXED_POINT_ONE - 1);
+		int index = fraction >>> (FIXED_POINT_BITS - EXP2_TABLE_BITS);
+		int weight = fraction & ((1 << (FIXED_POINT_BITS - EXP2_TABLE_BITS)) - 1);
+		return EXP2_TABLE[index] + ((long) (EXP2_TABLE[index + 1] - EXP2_TABLE[index]) * weight >> (FIXED_POINT_BITS - EXP2_TABLE_BITS));
+	}
+
+	/**
+	 * A method that looks up the sine of a vibrato phase.
+	 * @param phase The vibrato phase, where 512 steps make up a full cycle.
+	 * @return The sine of the phase, in 16.16 fixed-point.
+	 */
+	static int sine(int phase) {
+		return SINE_TABLE[phase & 511];
+	}
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright (c) 2022, Rodolfo Ruiz-Velasco <https://github.com/lequietriot>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package rs.musicmask.midisynth;
+
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * A class which keeps the most recently played tracks converted to event sequences, keyed by their cache index and
+ * track ID, so returning to a recently heard area starts its music without loading or converting the track again.
+ * Each sequence's patch usage is computed when it is added, so it is ready when the track is played. Seek snapshots are
+ * left to be built by the first seek that needs them, as tracks started by the plugin always play from the beginning.
+ * Tracks are loaded and converted without holding the cache's lock, so a slow load never blocks other threads using it.
+ * Each thread converts with its own reused {@link MidiTrackLoader}.
+ */
+public final class TrackCache {
+
+	/**
+	 * The default number of tracks kept.
+	 */
+	public static final int DEFAULT_CAPACITY = 16;
+
+	/**
+	 * The cached tracks, from least to most recently used.
+	 */
+	private final LinkedHashMap<Long, MidiEventSequence> tracks = new LinkedHashMap<Long, MidiEventSequence>(16, 0.75F, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Long, MidiEventSequence> eldest) {
+			return this.size() > TrackCache.this.capacity;
+		}
+	};
+
+	/**
+	 * The loader each thread converts tracks with, so its buffers are reused from one track to the next.
+	 */
+	private final ThreadLocal<MidiTrackLoader> loaders = ThreadLocal.withInitial(MidiTrackLoader::new);
+
+	/**
+	 * An integer value representing the number of tracks kept.
+	 */
+	private int capacity;
+
+	/**
+	 * A long value holding the number of requests answered from the cache.
+	 */
+	private long hits;
+
+	/**
+	 * A long value holding the number of requests that had to load and convert a track.
+	 */
+	private long misses;
+
+	/**
+	 * Constructs a new track cache holding up to the default number of tracks.
+	 */
+	public TrackCache() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Constructs a new track cache.
+	 * @param capacity The number of tracks kept.
+	 */
+	public TrackCache(int capacity) {
+		this.capacity = Math.max(1, capacity);
+	}
+
+	/**
+	 * A method that gets a converted track, loading and converting it when it is not cached.
+	 * @param index The cache index the track is stored in.
+	 * @param trackId The ID of the track.
+	 * @param loader A supplier of the encoded track data, only called when the track is not cached.
+	 * @return The event sequence, or null if the loader returned no data.
+	 */
+	public MidiEventSequence get(int index, int trackId, Supplier<byte[]> loader) {
+		return this.get(index, trackId, loader, true);
+	}
+
+	/**
+	 * A method that loads and converts a track ahead of it being played, without counting a hit or miss.
+	 * @param index The cache index the track is stored in.
+	 * @param trackId The ID of the track.
+	 * @param loader A supplier of the encoded track data, only called when the track is not cached.
+	 * @return The event sequence, or null if the loader returned no data.
+	 */
+	public MidiEventSequence prefetch(int index, int trackId, Supplier<byte[]> loader) {
+		return this.get(index, trackId, loader, false);
+	}
+
+	/**
+	 * A method that gets a converted track, loading and converting it when it is not cached.
+	 * @param counted True to count the request as a hit or miss.
+	 * @return The event sequence, or null if the loader returned no data.
+	 */
+	private MidiEventSequence get(int index, int trackId, Supplier<byte[]> loader, boolean counted) {
+		long key = getKey(index, trackId);
+		synchronized (this) {
+			MidiEventSequence midiEventSequence = this.tracks.get(key);
+			if (midiEventSequence != null) {
+				if (counted) {
+					this.hits++;
+				}
+
+				return midiEventSequence;
+			}
+
+			if (counted) {
+				this.misses++;
+			}
+		}
+
+		byte[] data = loader.get();
+		if (data == null) {
+			return null;
+		}
+
+		MidiEventSequence midiEventSequence = this.loaders.get().convertToEvents(ByteBuffer.wrap(data));
+		if (midiEventSequence == null) {
+			return null;
+		}
+
+		midiEventSequence.getPatchUsage();
+		synchronized (this) {
+			MidiEventSequence cachedSequence = this.tracks.putIfAbsent(key, midiEventSequence);
+			return cachedSequence != null ? cachedSequence : midiEventSequence;
+		}
+	}
+
+	/**
+	 * A method to check if a track is cached, without counting a hit or miss or changing its place in the cache.
+	 * @param index The cache index the track is stored in.
+	 * @param trackId The ID of the track.
+	 * @return True if the track is cached.
+	 */
+	public synchronized boolean contains(int index, int trackId) {
+		return this.tracks.containsKey(getKey(index, trackId));
+	}
+
+	/**
+	 * A method to set how many tracks are kept, dropping the least recently used ones if there are more.
+	 * @param capacity The number of tracks kept.
+	 */
+	public synchronized void setCapacity(int capacity) {
+		this.capacity = Math.max(1, capacity);
+		while (this.tracks.size() > this.capacity) {
+			this.tracks.remove(this.tracks.keySet().iterator().next());
+		}
+	}
+
+	public synchronized int getCapacity() {
+		return this.capacity;
+	}
+
+	public synchronized int size() {
+		return this.tracks.size();
+	}
+
+	public synchronized long getHits() {
+		return this.hits;
+	}
+
+	public synchronized long getMisses() {
+		return this.misses;
+	}
+
+	/**
+	 * A method to get the share of requests answered from the cache.
+	 * @return The hit rate, from 0 to 1.
+	 */
+	public synchronized double getHitRate() {
+		long requests = this.hits + this.misses;
+		return requests == 0L ? 0.0D : (double) this.hits / requests;
+	}
+
+	/**
+	 * A method that removes every cached track.
+	 */
+	public synchronized void clear() {
+		this.tracks.clear();
+	}
+
+	/**
+	 * A method that combines a cache index and track ID into a single key.
+	 * @return The key.
+	 */
+	static long getKey(int index, int trackId) {
+		return (long) index << 32 | trackId & 0xFFFFFFFFL;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("%d/%d tracks, %d hits, %d misses, %.0f%% hit rate", this.tracks.size(), this.capacity, this.hits, this.misses, this.getHitRate() * 100.0D);
+	}
+}
@@ -0,0 +1,238 @@
+/*
+ * Copyright (c) 2022, Rodolfo Ruiz-Velasco <https://github.com/lequietriot>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package rs.musicmask.midisynth;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A class which learns which tracks tend to follow each other and, whenever a track starts, converts the most likely
+ * next tracks and loads their patches on a low priority thread. When the change happens the track is already in the
+ * {@link TrackCache} and its patches in the shared {@link SoundBank}, so starting it does almost no work.
+ * Candidates are the tracks that most often followed the current one, and while a jingle plays, the track it interrupted.
+ */
+public final class TrackPrefetcher {
+
+	/**
+	 * The default number of likely next tracks prefetched after each change.
+	 */
+	public static final int DEFAULT_CANDIDATES = 2;
+
+	/**
+	 * The most likely next tracks that can be prefetched after each change.
+	 */
+	public static final int MAX_CANDIDATES = 5;
+
+	/**
+	 * The number of tracks whose following tracks are remembered, the least recently played are forgotten first.
+	 */
+	static final int HISTORY_SIZE = 256;
+
+	/**
+	 * A source of encoded track data.
+	 */
+	public interface TrackSource {
+
+		/**
+		 * A method that loads the encoded data of a track.
+		 * @param index The cache index the track is stored in.
+		 * @param trackId The ID of the track.
+		 * @return The encoded data, or null if the track does not exist.
+		 */
+		byte[] load(int index, int trackId);
+	}
+
+	/**
+	 * The cache prefetched tracks are converted into.
+	 */
+	private final TrackCache trackCache;
+
+	/**
+	 * The source the tracks are loaded from.
+	 */
+	private final TrackSource trackSource;
+
+	/**
+	 * For each recently played track, how many times each other track followed it, keyed the same way as the cache.
+	 */
+	private final LinkedHashMap<Long, Map<Long, Integer>> transitions = new LinkedHashMap<Long, Map<Long, Integer>>(16, 0.75F, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Long, Map<Long, Integer>> eldest) {
+			return this.size() > HISTORY_SIZE;
+		}
+	};
+
+	/**
+	 * The thread prefetching runs on.
+	 */
+	private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "music-mask-prefetch");
+		thread.setDaemon(true);
+		thread.setPriority(Thread.MIN_PRIORITY);
+		return thread;
+	});
+
+	/**
+	 * A counter increased on every track change, so prefetches queued for an earlier track are skipped.
+	 */
+	private final AtomicInteger generation = new AtomicInteger();
+
+	/**
+	 * An integer value representing how many likely next tracks are prefetched.
+	 */
+	private volatile int candidates = DEFAULT_CANDIDATES;
+
+	/**
+	 * The key of the music track playing, or -1 if there is none.
+	 */
+	private long currentTrack = -1L;
+
+	/**
+	 * The key of the music track a playing jingle interrupted, or -1 if no jingle is playing.
+	 */
+	private long interruptedTrack = -1L;
+
+	/**
+	 * A long value holding the number of tracks prefetched.
+	 */
+	private volatile long prefetchedTracks;
+
+	/**
+	 * Constructs a new track prefetcher.
+	 * @param trackCache The cache prefetched tracks are converted into.
+	 * @param trackSource The source the tracks are loaded from.
+	 */
+	public TrackPrefetcher(TrackCache trackCache, TrackSource trackSource) {
+		this.trackCache = trackCache;
+		this.trackSource = trackSource;
+	}
+
+	/**
+	 * A method to set how many likely next tracks are prefetched after each change.
+	 * @param candidates The number of tracks, clamped between 0 and {@link #MAX_CANDIDATES}, where 0 turns prefetching off.
+	 */
+	public void setCandidates(int candidates) {
+		this.candidates = Math.max(0, Math.min(MAX_CANDIDATES, candidates));
+	}
+
+	public int getCandidates() {
+		return this.candidates;
+	}
+
+	public long getPrefetchedTracks() {
+		return this.prefetchedTracks;
+	}
+
+	/**
+	 * A method that records a track starting and prefetches the tracks likely to play next.
+	 * @param index The cache index the track is stored in, either the music or the jingle index.
+	 * @param trackId The ID of the track.
+	 * @param jingle True if the track is a jingle, which is not counted as a transition.
+	 * @param soundBankName The name of the Sound Bank the tracks will be played with.
+	 */
+	public void trackStarted(int index, int trackId, boolean jingle, String soundBankName) {
+		List<Long> nextTracks = new ArrayList<>();
+		synchronized (this) {
+			long track = TrackCache.getKey(index, trackId);
+			if (jingle) {
+				if (this.currentTrack != -1L) {
+					this.interruptedTrack = this.currentTrack;
+				}
+
+				if (this.interruptedTrack != -1L) {
+					nextTracks.add(this.interruptedTrack);
+				}
+			} else {
+				if (this.currentTrack != -1L && this.currentTrack != track) {
+					this.transitions.computeIfAbsent(this.currentTrack, key -> new HashMap<>()).merge(track, 1, Integer::sum);
+				}
+
+				this.currentTrack = track;
+				this.interruptedTrack = -1L;
+				Map<Long, Integer> followers = this.transitions.get(track);
+				if (followers != null) {
+					followers.entrySet().stream()
+						.sorted(Map.Entry.<Long, Integer>comparingByValue().reversed())
+						.limit(this.candidates)
+						.forEach(entry -> nextTracks.add(entry.getKey()));
+				}
+			}
+		}
+
+		int changeGeneration = this.generation.incrementAndGet();
+		if (this.candidates == 0) {
+			return;
+		}
+
+		for (long nextTrack : nextTracks) {
+			this.executor.execute(() -> this.prefetch(nextTrack, changeGeneration, soundBankName));
+		}
+	}
+
+	/**
+	 * A method that converts a track and loads its patches, unless the track has changed again since it was queued.
+	 * @param track The key of the track.
+	 * @param changeGeneration The track change the prefetch was queued for.
+	 * @param soundBankName The name of the Sound Bank the track will be played with.
+	 */
+	private void prefetch(long track, int changeGeneration, String soundBankName) {
+		if (changeGeneration != this.generation.get()) {
+			return;
+		}
+
+		int index = (int) (track >> 32);
+		int trackId = (int) track;
+		try {
+			MidiEventSequence midiEventSequence = this.trackCache.prefetch(index, trackId, () -> this.trackSource.load(index, trackId));
+			if (midiEventSequence != null && changeGeneration == this.generation.get()) {
+				SoundBank.get(soundBankName).preload(midiEventSequence.getPatchUsage());
+				this.prefetchedTracks++;
+			}
+		} catch (IOException | RuntimeException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * A method that stops the prefetch thread. Queued prefetches are dropped.
+	 */
+	public void shutdown() {
+		this.generation.incrementAndGet();
+		this.executor.shutdownNow();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%d candidates, %d tracks prefetched", this.candidates, this.prefetchedTracks);
+	}
+}
@@ -0,0 +1,312 @@
+/*
+ * Copyright (c) 2023, Rodolfo Ruiz-Velasco <ruizvelascorodolfo@gmail.com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package rs.musicmask.midisynth;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import javax.sound.midi.Sequence;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Plays streams through an {@link AudioOutputDevice} into {@link MemoryAudioSink}s and checks the captured PCM.
+ */
+public class AudioOutputDeviceTest
+{
+	private static final int LEVEL = 4096;
+
+	private static final int OVERLAY_LEVEL = 1000;
+
+	private final List<MemoryAudioSink> sinks = new CopyOnWriteArrayList<>();
+
+	private AudioOutputDevice device;
+
+	@Before
+	public void setUp() throws Exception
+	{
+		this.device = new AudioOutputDevice(() ->
+		{
+			MemoryAudioSink sink = new MemoryAudioSink();
+			this.sinks.add(sink);
+			return sink;
+		});
+		this.device.configure(256, 2048, 0);
+	}
+
+	@After
+	public void tearDown()
+	{
+		this.device.close();
+	}
+
+	static void awaitFrames(MemoryAudioSink sink, long frames) throws InterruptedException
+	{
+		long deadline = System.nanoTime() + 5000000000L;
+		while (sink.getFrames() < frames)
+		{
+			assertTrue("Timed out waiting for " + frames + " frames", System.nanoTime() < deadline);
+			Thread.sleep(1L);
+		}
+	}
+
+	private static void awaitClosed(ConstantAudioStream stream) throws InterruptedException
+	{
+		long deadline = System.nanoTime() + 5000000000L;
+		while (!stream.isClosed())
+		{
+			assertTrue("Timed out waiting for the stream to close", System.nanoTime() < deadline);
+			Thread.sleep(1L);
+		}
+	}
+
+	static short[] toPcm(byte[] data)
+	{
+		short[] pcm = new short[data.length >> 1];
+		for (int index = 0; index < pcm.length; index++)
+		{
+			pcm[index] = (short) (data[index << 1] & 0xFF | data[(index << 1) + 1] << 8);
+		}
+		return pcm;
+	}
+
+	/**
+	 * Creates a sequence of volume changes every beat, with the last one at the given tick.
+	 */
+	private static MidiEventSequence createSequence(long lastTick)
+	{
+		int events = (int) (lastTick / 96L) + 1;
+		long[] ticks = new long[events];
+		int[] messages = new int[events];
+		for (int index = 0; index < events; index++)
+		{
+			ticks[index] = Math.min(lastTick, index * 96L);
+			messages[index] = MidiEventSequence.packMessage(0xB0, 7, 100);
+		}
+		return new MidiEventSequence(ticks, messages, events, lastTick + 96L, Sequence.PPQ, 96);
+	}
+
+	private static void assertLevel(short[] pcm, int from, int level)
+	{
+		for (int index = from; index < pcm.length; index++)
+		{
+			assertEquals("Sample " + index, level, pcm[index]);
+		}
+	}
+
+	@Test
+	public void playWritesTheStreamToTheSink() throws Exception
+	{
+		ConstantAudioStream stream = new ConstantAudioStream(LEVEL << 8);
+		this.device.play(stream, 0);
+		assertEquals(1, this.sinks.size());
+		MemoryAudioSink sink = this.sinks.get(0);
+		awaitFrames(sink, 4096);
+
+		assertTrue(sink.isOpen());
+		assertEquals(DevicePcmPlayer.sampleRate, (int) sink.getFormat().getSampleRate());
+		assertEquals(16, sink.getFormat().getSampleSizeInBits());
+		short[] pcm = toPcm(sink.toByteArray());
+		assertEquals(0, pcm.length % (256 * 2));
+		assertLevel(pcm, 2, LEVEL);
+	}
+
+	@Test
+	public void stopClosesTheStreamAndKeepsTheDeviceOpen() throws Exception
+	{
+		ConstantAudioStream stream = new ConstantAudioStream(LEVEL << 8);
+		this.device.play(stream, 0);
+		MemoryAudioSink sink = this.sinks.get(0);
+		awaitFrames(sink, 2048);
+
+		this.device.stop();
+		int fills = stream.getFills();
+		Thread.sleep(50L);
+		long frames = sink.getFrames();
+		Thread.sleep(50L);
+
+		assertEquals(fills, stream.getFills());
+		assertEquals(frames, sink.getFrames());
+		assertTrue(sink.isOpen());
+		assertTrue(stream.isClosed());
+
+		ConstantAudioStream next = new ConstantAudioStream(-LEVEL << 8);
+		sink.reset();
+		this.device.play(next, 0);
+		awaitFrames(sink, 2048);
+		assertEquals(1, this.sinks.size());
+		assertLevel(toPcm(sink.toByteArray()), 2, -LEVEL);
+	}
+
+	@Test
+	public void configureReopensOnlyWhenASettingChanges() throws Exception
+	{
+		ConstantAudioStream stream = new ConstantAudioStream(LEVEL << 8);
+		this.device.play(stream, 0);
+		MemoryAudioSink first = this.sinks.get(0);
+		awaitFrames(first, 2048);
+
+		this.device.configure(256, 2048, 0);
+		assertEquals(1, this.sinks.size());
+
+		this.device.configure(512, 4096, 0);
+		assertEquals(2, this.sinks.size());
+		assertFalse(first.isOpen());
+		long firstFrames = first.getFrames();
+
+		MemoryAudioSink second = this.sinks.get(1);
+		awaitFrames(second, 4096);
+		assertEquals(firstFrames, first.getFrames());
+		assertTrue(second.isOpen());
+		short[] pcm = toPcm(second.toByteArray());
+		assertEquals(0, pcm.length % (512 * 2));
+		assertLevel(pcm, 0, LEVEL);
+		assertFalse(stream.isClosed());
+	}
+
+	@Test
+	public void closeClosesTheSink() throws Exception
+	{
+		ConstantAudioStream stream = new ConstantAudioStream(LEVEL << 8);
+		this.device.play(stream, 0);
+		MemoryAudioSink sink = this.sinks.get(0);
+		awaitFrames(sink, 256);
+
+		this.device.close();
+		assertFalse(sink.isOpen());
+		assertTrue(stream.isClosed());
+		assertEquals(0.0D, this.device.getLatencyMillis(), 0.0D);
+	}
+
+	@Test
+	public void reopeningALostLineClosesTheOldStream() throws Exception
+	{
+		ConstantAudioStream first = new ConstantAudioStream(LEVEL << 8);
+		this.device.play(first, 0);
+		MemoryAudioSink lost = this.sinks.get(0);
+		awaitFrames(lost, 2048);
+
+		lost.close();
+		ConstantAudioStream second = new ConstantAudioStream(-LEVEL << 8);
+		this.device.play(second, 10);
+		assertEquals(2, this.sinks.size());
+		awaitClosed(first);
+		assertFalse(second.isClosed());
+
+		MemoryAudioSink sink = this.sinks.get(1);
+		sink.reset();
+		awaitFrames(sink, 2048);
+		assertLevel(toPcm(sink.toByteArray()), 1024 * 2, -LEVEL);
+	}
+
+	@Test
+	public void crossfadeClosesTheFadedStream() throws Exception
+	{
+		ConstantAudioStream first = new ConstantAudioStream(LEVEL << 8);
+		this.device.play(first, 0);
+		MemoryAudioSink sink = this.sinks.get(0);
+		awaitFrames(sink, 2048);
+
+		ConstantAudioStream second = new ConstantAudioStream(-LEVEL << 8);
+		this.device.play(second, 5000);
+		awaitFrames(sink, sink.getFrames() + 2048);
+		assertFalse(first.isClosed());
+
+		ConstantAudioStream third = new ConstantAudioStream(LEVEL << 8);
+		this.device.play(third, 20);
+		assertTrue(first.isClosed());
+		awaitClosed(second);
+
+		assertFalse(third.isClosed());
+		sink.reset();
+		awaitFrames(sink, 2048);
+		assertLevel(toPcm(sink.toByteArray()), 1024 * 2, LEVEL);
+	}
+
+	@Test
+	public void overlayWithNoDuckGainPausesTheStream() throws Exception
+	{
+		ConstantAudioStream stream = new ConstantAudioStream(LEVEL << 8);
+		stream.setSequence(createSequence(960L), true);
+		this.device.play(stream, 0);
+		MemoryAudioSink sink = this.sinks.get(0);
+		awaitFrames(sink, 4096);
+		long tick = stream.getTickPosition();
+		awaitFrames(sink, sink.getFrames() + 4096);
+		assertTrue("The stream did not play", stream.getTickPosition() != tick);
+
+		ConstantAudioStream overlay = new ConstantAudioStream(OVERLAY_LEVEL << 8);
+		overlay.setSequence(createSequence(1L << 30), false);
+		this.device.playOverlay(overlay, 0);
+		awaitFrames(sink, sink.getFrames() + 1024);
+		tick = stream.getTickPosition();
+		sink.reset();
+		awaitFrames(sink, 8192);
+
+		assertTrue("The overlay stopped early", this.device.isOverlayPlaying());
+		assertEquals(tick, stream.getTickPosition());
+		assertLevel(toPcm(sink.toByteArray()), 0, OVERLAY_LEVEL);
+
+		this.device.stopOverlay();
+		assertFalse(this.device.isOverlayPlaying());
+		awaitFrames(sink, sink.getFrames() + 1024);
+		sink.reset();
+		awaitFrames(sink, 4096);
+		assertTrue("The stream did not resume", stream.getTickPosition() != tick);
+		assertLevel(toPcm(sink.toByteArray()), 0, LEVEL);
+	}
+
+	@Test
+	public void finishedOverlayClearsItselfAndRestoresTheStream() throws Exception
+	{
+		ConstantAudioStream stream = new ConstantAudioStream(LEVEL << 8);
+		stream.setSequence(createSequence(960L), true);
+		this.device.play(stream, 0);
+		MemoryAudioSink sink = this.sinks.get(0);
+		awaitFrames(sink, 4096);
+
+		ConstantAudioStream overlay = new ConstantAudioStream(OVERLAY_LEVEL << 8);
+		overlay.setSequence(createSequence(192L), false);
+		this.device.playOverlay(overlay, DevicePcmPlayer.UNITY_GAIN / 4);
+		long deadline = System.nanoTime() + 5000000000L;
+		while (this.device.isOverlayPlaying())
+		{
+			assertTrue("Timed out waiting for the overlay to finish", System.nanoTime() < deadline);
+			Thread.sleep(1L);
+		}
+
+		assertTrue(overlay.isFinished());
+		int fills = overlay.getFills();
+		awaitFrames(sink, sink.getFrames() + 1024);
+		sink.reset();
+		awaitFrames(sink, 4096);
+		assertEquals(fills, overlay.getFills());
+		assertLevel(toPcm(sink.toByteArray()), 0, LEVEL);
+	}
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2023, Rodolfo Ruiz-Velasco <ruizvelascorodolfo@gmail.com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package rs.musicmask.midisynth;
+
+import java.util.BitSet;
+
+/**
+ * A stream without a sound bank that adds the same level to every sample it fills, so the output of the player and
+ * device it is played through can be checked exactly. A sequence set on it still plays, without making any sound.
+ */
+class ConstantAudioStream extends MidiAudioStream
+{
+	private final int level;
+
+	private volatile int fills;
+
+	private volatile boolean closed;
+
+	ConstantAudioStream(int level)
+	{
+		super(null, new BitSet());
+		this.level = level;
+	}
+
+	@Override
+	protected synchronized void fill(int[] samples, int length)
+	{
+		super.fill(samples, length);
+		int end = DevicePcmPlayer.stereo ? length << 1 : length;
+		for (int index = 0; index < end; index++)
+		{
+			samples[index] += this.level;
+		}
+		this.fills++;
+	}
+
+	@Override
+	public synchronized void close()
+	{
+		this.closed = true;
+		super.close();
+	}
+
+	int getFills()
+	{
+		return this.fills;
+	}
+
+	boolean isClosed()
+	{
+		return this.closed;
+	}
+}
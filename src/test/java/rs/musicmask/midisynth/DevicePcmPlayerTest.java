@@ -0,0 +1,198 @@
+/*
+ * Copyright (c) 2023, Rodolfo Ruiz-Velasco <ruizvelascorodolfo@gmail.com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package rs.musicmask.midisynth;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Crossfades constant level streams in a {@link DevicePcmPlayer} writing to a {@link MemoryAudioSink}, and checks every
+ * sample frame against the equal-power curve.
+ */
+public class DevicePcmPlayerTest
+{
+	private static final int LEVEL = 1 << 22;
+
+	/**
+	 * The largest error of the interpolated fade curve, relative to unity gain.
+	 */
+	private static final double CURVE_ERROR = 25.0D / (1 << 20);
+
+	private DevicePcmPlayer player;
+
+	private MemoryAudioSink sink;
+
+	private int[] rendered;
+
+	private int renderedFrames;
+
+	@Before
+	public void setUp() throws Exception
+	{
+		this.player = new DevicePcmPlayer();
+		this.player.setRenderAhead(0);
+		this.player.init();
+		this.sink = new MemoryAudioSink();
+		this.player.setSink(this.sink);
+		this.player.open();
+		this.rendered = new int[0];
+		this.renderedFrames = 0;
+	}
+
+	@After
+	public void tearDown()
+	{
+		this.player.close();
+	}
+
+	/**
+	 * Fills and writes one block, keeping the samples so they can be checked against what the sink captured.
+	 */
+	private void renderBlock()
+	{
+		int blockSize = this.player.getBlockSize();
+		this.player.fill(this.player.samples, blockSize);
+		this.rendered = Arrays.copyOf(this.rendered, (this.renderedFrames + blockSize) * 2);
+		System.arraycopy(this.player.samples, 0, this.rendered, this.renderedFrames * 2, blockSize * 2);
+		this.renderedFrames += blockSize;
+		this.player.write();
+	}
+
+	private void assertFrame(int frame, double expected, double tolerance)
+	{
+		for (int channel = 0; channel < 2; channel++)
+		{
+			int sample = this.rendered[frame * 2 + channel];
+			assertTrue("Frame " + frame + " is " + sample + ", expected " + expected, Math.abs(sample - expected) <= tolerance);
+		}
+	}
+
+	private void assertSinkMatchesRendered()
+	{
+		short[] pcm = AudioOutputDeviceTest.toPcm(this.sink.toByteArray());
+		assertEquals(this.renderedFrames * 2, pcm.length);
+		for (int index = 0; index < pcm.length; index++)
+		{
+			assertEquals("Sample " + index, this.rendered[index] >> 8, pcm[index]);
+		}
+	}
+
+	private void assertCrossfade(int fromLevel, int toLevel, int fadeFrames)
+	{
+		ConstantAudioStream from = new ConstantAudioStream(fromLevel);
+		ConstantAudioStream to = new ConstantAudioStream(toLevel);
+		this.player.setStream(from);
+		this.renderBlock();
+		int start = this.renderedFrames;
+		this.player.crossfade(to, fadeFrames);
+		while (this.renderedFrames < start + fadeFrames + this.player.getBlockSize())
+		{
+			this.renderBlock();
+		}
+
+		double tolerance = (Math.abs(fromLevel) + Math.abs(toLevel)) * CURVE_ERROR + 2.0D;
+		for (int frame = 0; frame < start; frame++)
+		{
+			assertFrame(frame, fromLevel, 0.0D);
+		}
+
+		for (int frame = start; frame < this.renderedFrames; frame++)
+		{
+			double phase = Math.min(1.0D, (double) (frame - start) / fadeFrames) * Math.PI / 2.0D;
+			assertFrame(frame, fromLevel * Math.cos(phase) + toLevel * Math.sin(phase), tolerance);
+		}
+
+		assertSinkMatchesRendered();
+		assertNull(this.player.fadingStream);
+		assertSame(from, this.player.pollReleasedStream());
+		assertNull(this.player.pollReleasedStream());
+	}
+
+	@Test
+	public void fadeOutFollowsTheCurve()
+	{
+		this.assertCrossfade(LEVEL, 0, 4410);
+	}
+
+	@Test
+	public void fadeInFollowsTheCurve()
+	{
+		this.assertCrossfade(0, LEVEL, 4410);
+	}
+
+	@Test
+	public void crossfadeKeepsEqualPower()
+	{
+		this.assertCrossfade(LEVEL, -LEVEL / 2, 1000);
+	}
+
+	@Test
+	public void reversingMidFadeStartsFromTheGainReached()
+	{
+		ConstantAudioStream silent = new ConstantAudioStream(0);
+		ConstantAudioStream fadingIn = new ConstantAudioStream(LEVEL);
+		ConstantAudioStream next = new ConstantAudioStream(0);
+		this.player.setStream(silent);
+		this.player.crossfade(fadingIn, 1024);
+		this.renderBlock();
+		assertEquals(256, this.renderedFrames);
+
+		this.player.crossfade(next, 2048);
+		assertSame(silent, this.player.pollReleasedStream());
+		assertSame(fadingIn, this.player.fadingStream);
+		assertEquals(1536, this.player.fadeOutPosition);
+		for (int block = 0; block < 3; block++)
+		{
+			this.renderBlock();
+		}
+
+		double tolerance = LEVEL * CURVE_ERROR + 2.0D;
+		for (int frame = 0; frame < 256; frame++)
+		{
+			assertFrame(frame, LEVEL * Math.sin(Math.PI / 2.0D * frame / 1024.0D), tolerance);
+		}
+
+		for (int frame = 256; frame < 768; frame++)
+		{
+			assertFrame(frame, LEVEL * Math.cos(Math.PI / 2.0D * (1536 + frame - 256) / 2048.0D), tolerance);
+		}
+
+		for (int frame = 768; frame < this.renderedFrames; frame++)
+		{
+			assertFrame(frame, 0.0D, 0.0D);
+		}
+
+		assertSinkMatchesRendered();
+		assertNull(this.player.fadingStream);
+		assertSame(fadingIn, this.player.pollReleasedStream());
+	}
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) 2023, Rodolfo Ruiz-Velasco <ruizvelascorodolfo@gmail.com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package rs.musicmask.midisynth;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.BitSet;
+import java.util.Random;
+import javax.sound.midi.Sequence;
+import org.junit.Test;
+
+/**
+ * Checks that seeking restores the same controller state and tempo as playing every event up to the tick from the start.
+ */
+public class MidiAudioStreamSeekTest
+{
+	private static final int RESOLUTION = 96;
+
+	private static final int[] CONTROLLERS = {0, 32, 1, 33, 5, 37, 7, 39, 10, 42, 11, 43, 64, 65, 99, 98, 101, 100, 120, 121,
+		6, 38, 16, 48, 81, 17, 49};
+
+	private static MidiEventSequence createSequence(long seed, int events)
+	{
+		Random random = new Random(seed);
+		long[] ticks = new long[events];
+		int[] messages = new int[events];
+		long tick = 0L;
+		for (int index = 0; index < events; index++)
+		{
+			tick += random.nextInt(4) == 0 ? random.nextInt(200) : 0;
+			ticks[index] = tick;
+			int channel = random.nextInt(16);
+			int choice = random.nextInt(20);
+			if (choice < 8)
+			{
+				int controller = CONTROLLERS[random.nextInt(CONTROLLERS.length)];
+				messages[index] = MidiEventSequence.packMessage(0xB0 | channel, controller, random.nextInt(128));
+			}
+			else if (choice < 10)
+			{
+				messages[index] = MidiEventSequence.packMessage(0xC0 | channel, random.nextInt(128), 0);
+			}
+			else if (choice < 12)
+			{
+				messages[index] = MidiEventSequence.packMessage(0xE0 | channel, random.nextInt(128), random.nextInt(128));
+			}
+			else if (choice < 17)
+			{
+				messages[index] = MidiEventSequence.packMessage((random.nextBoolean() ? 0x90 : 0x80) | channel, random.nextInt(128), random.nextInt(128));
+			}
+			else if (choice < 19)
+			{
+				messages[index] = MidiEventSequence.packTempo(200000 + random.nextInt(800000));
+			}
+			else
+			{
+				messages[index] = 0xFF;
+			}
+		}
+		return new MidiEventSequence(ticks, messages, events, tick + RESOLUTION, Sequence.PPQ, RESOLUTION);
+	}
+
+	private static MidiAudioStream createStream()
+	{
+		MidiAudioStream midiAudioStream = new MidiAudioStream(null, new BitSet());
+		midiAudioStream.setInitialPatch(MidiAudioStream.PERCUSSION_CHANNEL, MidiAudioStream.PERCUSSION_PATCH);
+		return midiAudioStream;
+	}
+
+	private static void assertSeekMatchesReplay(MidiEventSequence sequence, long tick)
+	{
+		MidiAudioStream replayed = createStream();
+		int tempo = sequence.getInitialTempo();
+		for (int index = 0; index < sequence.length && sequence.ticks[index] < tick; index++)
+		{
+			int message = sequence.messages[index];
+			if (MidiEventSequence.isTempo(message))
+			{
+				tempo = MidiEventSequence.getTempo(message);
+			}
+			else
+			{
+				MidiReceiver.dispatch(replayed, message);
+			}
+		}
+
+		MidiAudioStream seeked = createStream();
+		seeked.setSequence(sequence, false);
+		seeked.seek(sequence.tickLength);
+		seeked.seek(tick);
+
+		int[][] expected = replayed.getControllerState();
+		int[][] actual = seeked.getControllerState();
+		assertEquals(expected.length, actual.length);
+		for (int controller = 0; controller < expected.length; controller++)
+		{
+			assertArrayEquals("Controller array " + controller + " at tick " + tick, expected[controller], actual[controller]);
+		}
+		assertEquals("Tempo at tick " + tick, (long) tempo * DevicePcmPlayer.sampleRate, seeked.getTickLength());
+		assertEquals(tick, seeked.getTickPosition());
+	}
+
+	@Test
+	public void seekMatchesReplayFromTheStart()
+	{
+		MidiEventSequence sequence = createSequence(1L, 4000);
+		sequence.buildSnapshots();
+		long interval = (long) RESOLUTION * MidiEventSequence.SNAPSHOT_INTERVAL;
+		for (long tick = 0L; tick <= sequence.ticks[sequence.length - 1]; tick += 97L)
+		{
+			assertSeekMatchesReplay(sequence, tick);
+		}
+
+		for (long snapshot = 0L; snapshot * interval <= sequence.ticks[sequence.length - 1]; snapshot++)
+		{
+			assertSeekMatchesReplay(sequence, Math.max(0L, snapshot * interval - 1L));
+			assertSeekMatchesReplay(sequence, snapshot * interval);
+			assertSeekMatchesReplay(sequence, snapshot * interval + 1L);
+		}
+	}
+
+	@Test
+	public void seekBuildsSnapshotsWhenTheyWereNotPrepared()
+	{
+		for (long seed = 2L; seed < 6L; seed++)
+		{
+			MidiEventSequence sequence = createSequence(seed, 1000);
+			Random random = new Random(seed);
+			for (int seek = 0; seek < 20; seek++)
+			{
+				assertSeekMatchesReplay(sequence, random.nextInt((int) sequence.ticks[sequence.length - 1] + 1));
+			}
+		}
+	}
+}
@@ -0,0 +1,385 @@
+/*
+ * Copyright (c) 2023, Rodolfo Ruiz-Velasco <ruizvelascorodolfo@gmail.com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package rs.musicmask.midisynth;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import javax.sound.midi.MetaMessage;
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Track;
+import org.junit.Test;
+
+/**
+ * Encodes sequences in RuneScape's track format and checks that decoding them straight into events gives the same
+ * events as decoding them to a MIDI sequence and merging that.
+ */
+public class MidiTrackLoaderTest
+{
+	private static final int OPCODES = 0;
+	private static final int DELTA_TIMES = 1;
+	private static final int CONTROLLERS = 2;
+	private static final int MISC_CONTROLLERS = 3;
+	private static final int KEY_PRESSURES = 4;
+	private static final int CHANNEL_PRESSURES = 5;
+	private static final int PITCH_BEND_MSB = 6;
+	private static final int MODULATION_MSB = 7;
+	private static final int VOLUME_MSB = 8;
+	private static final int PANNING_MSB = 9;
+	private static final int PITCHES = 10;
+	private static final int NOTE_ON_VELOCITIES = 11;
+	private static final int TOGGLE_CONTROLLERS = 12;
+	private static final int NOTE_OFF_VELOCITIES = 13;
+	private static final int MODULATION_LSB = 14;
+	private static final int VOLUME_LSB = 15;
+	private static final int PANNING_LSB = 16;
+	private static final int PROGRAMS = 17;
+	private static final int PITCH_BEND_LSB = 18;
+	private static final int NRPN_MSB = 19;
+	private static final int NRPN_LSB = 20;
+	private static final int RPN_MSB = 21;
+	private static final int RPN_LSB = 22;
+	private static final int TEMPOS = 23;
+	private static final int SECTIONS = 24;
+
+	private static final int END_OF_TRACK = 7;
+	private static final int TEMPO = 23;
+
+	/**
+	 * Writes a sequence in the sectioned, delta coded layout {@link MidiTrackLoader} decodes.
+	 */
+	private static byte[] encode(Sequence sequence)
+	{
+		ByteArrayOutputStream[] sections = new ByteArrayOutputStream[SECTIONS];
+		for (int section = 0; section < SECTIONS; section++)
+		{
+			sections[section] = new ByteArrayOutputStream();
+		}
+
+		int channel = 0;
+		int controller = 0;
+		int pitch = 0;
+		int noteOnVelocity = 0;
+		int noteOffVelocity = 0;
+		int keyPressure = 0;
+		int channelPressure = 0;
+		int pitchBend = 0;
+		int[] controllerValues = new int[128];
+		for (Track track : sequence.getTracks())
+		{
+			long lastTick = 0L;
+			for (int index = 0; index < track.size(); index++)
+			{
+				MidiEvent event = track.get(index);
+				MidiMessage message = event.getMessage();
+				if (message instanceof MetaMessage)
+				{
+					MetaMessage metaMessage = (MetaMessage) message;
+					if (metaMessage.getType() != 0x2F && metaMessage.getType() != 0x51)
+					{
+						continue;
+					}
+
+					writeVarInt(sections[DELTA_TIMES], (int) (event.getTick() - lastTick));
+					lastTick = event.getTick();
+					if (metaMessage.getType() == 0x2F)
+					{
+						sections[OPCODES].write(END_OF_TRACK);
+					}
+					else
+					{
+						sections[OPCODES].write(TEMPO);
+						sections[TEMPOS].write(metaMessage.getData(), 0, 3);
+					}
+					continue;
+				}
+
+				if (!(message instanceof ShortMessage))
+				{
+					continue;
+				}
+
+				ShortMessage shortMessage = (ShortMessage) message;
+				writeVarInt(sections[DELTA_TIMES], (int) (event.getTick() - lastTick));
+				lastTick = event.getTick();
+				int data1 = shortMessage.getData1();
+				int data2 = shortMessage.getData2();
+				int opcode;
+				switch (shortMessage.getCommand())
+				{
+					case ShortMessage.NOTE_ON:
+						opcode = 0;
+						sections[PITCHES].write(data1 - pitch & 127);
+						sections[NOTE_ON_VELOCITIES].write(data2 - noteOnVelocity & 127);
+						pitch = data1;
+						noteOnVelocity = data2;
+						break;
+					case ShortMessage.NOTE_OFF:
+						opcode = 1;
+						sections[PITCHES].write(data1 - pitch & 127);
+						sections[NOTE_OFF_VELOCITIES].write(data2 - noteOffVelocity & 127);
+						pitch = data1;
+						noteOffVelocity = data2;
+						break;
+					case ShortMessage.CONTROL_CHANGE:
+						opcode = 2;
+						sections[CONTROLLERS].write(data1 - controller & 127);
+						sections[getControllerSection(data1)].write(data2 - controllerValues[data1] & 127);
+						controller = data1;
+						controllerValues[data1] = data2;
+						break;
+					case ShortMessage.PITCH_BEND:
+						opcode = 3;
+						int value = data1 | data2 << 7;
+						int lsb = value - pitchBend & 127;
+						int msb = value - pitchBend - lsb >> 7 & 127;
+						sections[PITCH_BEND_LSB].write(lsb);
+						sections[PITCH_BEND_MSB].write(msb);
+						pitchBend = value;
+						break;
+					case ShortMessage.CHANNEL_PRESSURE:
+						opcode = 4;
+						sections[CHANNEL_PRESSURES].write(data1 - channelPressure & 127);
+						channelPressure = data1;
+						break;
+					case ShortMessage.POLY_PRESSURE:
+						opcode = 5;
+						sections[PITCHES].write(data1 - pitch & 127);
+						sections[KEY_PRESSURES].write(data2 - keyPressure & 127);
+						pitch = data1;
+						keyPressure = data2;
+						break;
+					default:
+						opcode = 6;
+						sections[PROGRAMS].write(data1);
+						break;
+				}
+
+				sections[OPCODES].write((shortMessage.getChannel() ^ channel) << 4 | opcode);
+				channel = shortMessage.getChannel();
+			}
+		}
+
+		ByteArrayOutputStream data = new ByteArrayOutputStream();
+		for (ByteArrayOutputStream section : sections)
+		{
+			data.write(section.toByteArray(), 0, section.size());
+		}
+		data.write(sequence.getTracks().length);
+		data.write(sequence.getResolution() >> 8);
+		data.write(sequence.getResolution());
+		return data.toByteArray();
+	}
+
+	private static int getControllerSection(int controller)
+	{
+		switch (controller)
+		{
+			case 0:
+			case 32:
+				return PROGRAMS;
+			case 1:
+				return MODULATION_MSB;
+			case 33:
+				return MODULATION_LSB;
+			case 7:
+				return VOLUME_MSB;
+			case 39:
+				return VOLUME_LSB;
+			case 10:
+				return PANNING_MSB;
+			case 42:
+				return PANNING_LSB;
+			case 99:
+				return NRPN_MSB;
+			case 98:
+				return NRPN_LSB;
+			case 101:
+				return RPN_MSB;
+			case 100:
+				return RPN_LSB;
+			case 64:
+			case 65:
+			case 120:
+			case 121:
+			case 123:
+				return MISC_CONTROLLERS;
+			default:
+				return TOGGLE_CONTROLLERS;
+		}
+	}
+
+	private static void writeVarInt(ByteArrayOutputStream section, int value)
+	{
+		for (int shift = 28; shift > 0; shift -= 7)
+		{
+			if (value >>> shift != 0)
+			{
+				section.write(value >>> shift | 128);
+			}
+		}
+		section.write(value & 127);
+	}
+
+	private static void add(Track track, long tick, int command, int channel, int data1, int data2) throws Exception
+	{
+		track.add(new MidiEvent(new ShortMessage(command, channel, data1, data2), tick));
+	}
+
+	private static void addTempo(Track track, long tick, int tempo) throws Exception
+	{
+		byte[] data = {(byte) (tempo >> 16), (byte) (tempo >> 8), (byte) tempo};
+		track.add(new MidiEvent(new MetaMessage(0x51, data, 3), tick));
+	}
+
+	private static Sequence createSequence() throws Exception
+	{
+		Sequence sequence = new Sequence(Sequence.PPQ, 480);
+		Track conductor = sequence.createTrack();
+		addTempo(conductor, 0L, 500000);
+		addTempo(conductor, 960L, 400000);
+		add(conductor, 960L, ShortMessage.CONTROL_CHANGE, 0, 7, 90);
+		addTempo(conductor, 1920L, 600000);
+
+		Track lead = sequence.createTrack();
+		add(lead, 0L, ShortMessage.CONTROL_CHANGE, 0, 0, 1);
+		add(lead, 0L, ShortMessage.CONTROL_CHANGE, 0, 32, 0);
+		add(lead, 0L, ShortMessage.PROGRAM_CHANGE, 0, 24, 0);
+		add(lead, 0L, ShortMessage.NOTE_ON, 0, 60, 100);
+		add(lead, 480L, ShortMessage.PITCH_BEND, 0, 0, 80);
+		add(lead, 960L, ShortMessage.NOTE_OFF, 0, 60, 64);
+		add(lead, 960L, ShortMessage.NOTE_ON, 0, 67, 90);
+		add(lead, 1920L, ShortMessage.PITCH_BEND, 0, 127, 10);
+		add(lead, 1920L, ShortMessage.NOTE_OFF, 0, 67, 0);
+
+		Track accompaniment = sequence.createTrack();
+		add(accompaniment, 0L, ShortMessage.CONTROL_CHANGE, 1, 10, 30);
+		add(accompaniment, 0L, ShortMessage.CONTROL_CHANGE, 1, 101, 0);
+		add(accompaniment, 0L, ShortMessage.CONTROL_CHANGE, 1, 100, 0);
+		add(accompaniment, 0L, ShortMessage.CONTROL_CHANGE, 1, 6, 12);
+		add(accompaniment, 0L, ShortMessage.NOTE_ON, 1, 48, 70);
+		add(accompaniment, 960L, ShortMessage.CONTROL_CHANGE, 1, 64, 127);
+		add(accompaniment, 960L, ShortMessage.POLY_PRESSURE, 1, 48, 40);
+		add(accompaniment, 960L, ShortMessage.CHANNEL_PRESSURE, 1, 55, 0);
+		add(accompaniment, 1440L, ShortMessage.CONTROL_CHANGE, 1, 1, 20);
+		add(accompaniment, 1920L, ShortMessage.CONTROL_CHANGE, 1, 64, 0);
+		add(accompaniment, 1920L, ShortMessage.NOTE_OFF, 1, 48, 0);
+		addTempo(accompaniment, 1920L, 450000);
+
+		Track drums = sequence.createTrack();
+		for (long tick = 0L; tick <= 1920L; tick += 240L)
+		{
+			add(drums, tick, ShortMessage.NOTE_ON, 9, 36 + (int) (tick / 240L) % 3, 110);
+			add(drums, tick + 120L, ShortMessage.NOTE_OFF, 9, 36 + (int) (tick / 240L) % 3, 0);
+		}
+		return sequence;
+	}
+
+	private static Sequence createRandomSequence(long seed) throws Exception
+	{
+		int[] commands = {ShortMessage.NOTE_ON, ShortMessage.NOTE_OFF, ShortMessage.CONTROL_CHANGE, ShortMessage.PITCH_BEND,
+			ShortMessage.CHANNEL_PRESSURE, ShortMessage.POLY_PRESSURE, ShortMessage.PROGRAM_CHANGE};
+		int[] controllers = {0, 32, 1, 33, 7, 39, 10, 42, 99, 98, 101, 100, 64, 65, 120, 121, 123, 11, 5, 6, 38, 16, 17};
+		Random random = new Random(seed);
+		Sequence sequence = new Sequence(Sequence.PPQ, 96 + random.nextInt(400));
+		int tracks = 1 + random.nextInt(6);
+		for (int trackIndex = 0; trackIndex < tracks; trackIndex++)
+		{
+			Track track = sequence.createTrack();
+			if (random.nextBoolean())
+			{
+				addTempo(track, random.nextInt(3) * 100L, random.nextInt(1 << 20));
+			}
+
+			long tick = 0L;
+			for (int index = 0; index < 500; index++)
+			{
+				tick += random.nextInt(5) == 0 ? random.nextInt(10000) : random.nextInt(3);
+				int command = commands[random.nextInt(commands.length)];
+				int channel = random.nextInt(4) == 0 ? random.nextInt(16) : trackIndex;
+				int data1 = command == ShortMessage.CONTROL_CHANGE ? controllers[random.nextInt(controllers.length)] : random.nextInt(128);
+				int data2 = command == ShortMessage.NOTE_ON ? 1 + random.nextInt(127) : random.nextInt(128);
+				if (command == ShortMessage.PROGRAM_CHANGE || command == ShortMessage.CHANNEL_PRESSURE)
+				{
+					data2 = 0;
+				}
+				add(track, tick, command, channel, data1, data2);
+			}
+		}
+		return sequence;
+	}
+
+	private static MidiEventSequence convertThroughMidi(MidiTrackLoader loader, byte[] data)
+	{
+		loader.convertToMidi(ByteBuffer.wrap(data));
+		return MidiEventSequence.fromSequence(loader.getMidiSequence());
+	}
+
+	private static void assertSameEvents(MidiEventSequence expected, MidiEventSequence actual)
+	{
+		assertEquals(expected.getLength(), actual.getLength());
+		assertEquals(expected.getTickLength(), actual.getTickLength());
+		assertEquals(expected.getResolution(), actual.getResolution());
+		assertEquals(expected.divisionType, actual.divisionType, 0.0D);
+		assertArrayEquals(Arrays.copyOf(expected.ticks, expected.getLength()), Arrays.copyOf(actual.ticks, actual.getLength()));
+		assertArrayEquals(Arrays.copyOf(expected.messages, expected.getLength()), Arrays.copyOf(actual.messages, actual.getLength()));
+	}
+
+	@Test
+	public void convertsSameTickEventsAcrossTracksAndTempoChanges() throws Exception
+	{
+		Sequence sequence = createSequence();
+		byte[] data = encode(sequence);
+		MidiTrackLoader loader = new MidiTrackLoader();
+
+		MidiEventSequence throughMidi = convertThroughMidi(loader, data);
+		assertSameEvents(MidiEventSequence.fromSequence(sequence), throughMidi);
+		assertSameEvents(throughMidi, loader.convertToEvents(ByteBuffer.wrap(data)));
+	}
+
+	@Test
+	public void convertsRandomSequencesWithOneLoader() throws Exception
+	{
+		MidiTrackLoader loader = new MidiTrackLoader();
+		byte[] firstData = encode(createRandomSequence(0L));
+		MidiEventSequence first = loader.convertToEvents(ByteBuffer.wrap(firstData));
+		for (long seed = 1L; seed < 50L; seed++)
+		{
+			byte[] data = encode(createRandomSequence(seed));
+			MidiEventSequence throughMidi = convertThroughMidi(loader, data);
+			assertSameEvents(throughMidi, loader.convertToEvents(ByteBuffer.wrap(data)));
+			assertSameEvents(throughMidi, new MidiTrackLoader(data, true).getEventSequence());
+		}
+
+		assertSameEvents(new MidiTrackLoader(firstData, true).getEventSequence(), first);
+	}
+}
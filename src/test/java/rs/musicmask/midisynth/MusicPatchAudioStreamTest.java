@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2023, Rodolfo Ruiz-Velasco <ruizvelascorodolfo@gmail.com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package rs.musicmask.midisynth;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import org.junit.Test;
+
+/**
+ * Checks that voices skipped while they can not be heard carry on exactly as if they had been mixed.
+ */
+public class MusicPatchAudioStreamTest
+{
+	private static final int PROGRAM = 48;
+
+	private static final int BLOCK_SIZE = 256;
+
+	private static MidiAudioStream createStream()
+	{
+		BitSet patches = new BitSet();
+		patches.set(PROGRAM);
+		MidiAudioStream midiAudioStream = new MidiAudioStream("RSHD", patches);
+		midiAudioStream.setInitialPatch(MidiAudioStream.PERCUSSION_CHANNEL, MidiAudioStream.PERCUSSION_PATCH);
+		return midiAudioStream;
+	}
+
+	/**
+	 * Holds notes on a retriggering channel and a plain one, mutes both channels for a while and brings them back,
+	 * returning every rendered block.
+	 */
+	private static int[][] render(MidiAudioStream midiAudioStream)
+	{
+		MidiReceiver midiReceiver = new MidiReceiver(midiAudioStream);
+		int channels = DevicePcmPlayer.stereo ? 2 : 1;
+		int[][] blocks = new int[120][];
+		for (int block = 0; block < blocks.length; block++)
+		{
+			if (block == 0)
+			{
+				for (int channel = 0; channel < 2; channel++)
+				{
+					midiReceiver.send(MidiEventSequence.packMessage(0xC0 | channel, PROGRAM, 0));
+					midiReceiver.send(MidiEventSequence.packMessage(0x90 | channel, 55 + channel * 7, 100));
+				}
+				midiReceiver.send(MidiEventSequence.packMessage(0xB0, 81, 127));
+				midiReceiver.send(MidiEventSequence.packMessage(0xB0, 17, 64));
+			}
+			else if (block == 20)
+			{
+				midiReceiver.send(MidiEventSequence.packMessage(0xB0, 7, 0));
+				midiReceiver.send(MidiEventSequence.packMessage(0xB1, 7, 0));
+			}
+			else if (block == 67)
+			{
+				midiReceiver.send(MidiEventSequence.packMessage(0xB0, 7, 127));
+				midiReceiver.send(MidiEventSequence.packMessage(0xB1, 7, 127));
+			}
+
+			blocks[block] = new int[BLOCK_SIZE * channels];
+			midiAudioStream.fill(blocks[block], BLOCK_SIZE);
+		}
+		midiAudioStream.close();
+		return blocks;
+	}
+
+	@Test
+	public void skippedRetriggeringVoicesMatchMixedOnes()
+	{
+		MidiAudioStream mixed = createStream();
+		mixed.silenceThreshold = 0L;
+		int[][] expected = render(mixed);
+		int[][] actual = render(createStream());
+
+		for (int block = 0; block < expected.length; block++)
+		{
+			assertArrayEquals("Block " + block, expected[block], actual[block]);
+		}
+		assertTrue(Arrays.stream(expected[expected.length - 1]).anyMatch(sample -> sample != 0));
+	}
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2023, Rodolfo Ruiz-Velasco <ruizvelascorodolfo@gmail.com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package rs.musicmask.midisynth;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.util.Random;
+
+/**
+ * A benchmark comparing the bulk PCM16 conversion used by {@link DevicePcmPlayer#write()} against the byte by byte
+ * loop it replaced. Both paths are checked to produce the same bytes before they are timed.
+ */
+public class PcmConversionBenchmark
+{
+	public static void main(String[] args)
+	{
+		int blockSize = args.length > 0 ? Integer.parseInt(args[0]) : DevicePcmPlayer.DEFAULT_BLOCK_SIZE;
+		int blocks = args.length > 1 ? Integer.parseInt(args[1]) : 200000;
+		int length = blockSize << 1;
+
+		int[] samples = new int[length];
+		Random random = new Random(0);
+		for (int index = 0; index < length; index++)
+		{
+			samples[index] = (int) (random.nextGaussian() * 4000000.0D);
+		}
+
+		byte[] legacyBytes = new byte[length << 1];
+		byte[] bulkBytes = new byte[length << 1];
+		ShortBuffer shortSamples = ByteBuffer.wrap(bulkBytes).order(ByteOrder.LITTLE_ENDIAN).asShortBuffer();
+		short[] pcmSamples = new short[length];
+
+		convertLegacy(samples, legacyBytes, length);
+		convertBulk(samples, pcmSamples, shortSamples, length);
+		if (!java.util.Arrays.equals(legacyBytes, bulkBytes))
+		{
+			throw new IllegalStateException("Bulk conversion does not match the legacy conversion");
+		}
+
+		for (int round = 0; round < 3; round++)
+		{
+			long start = System.nanoTime();
+			for (int block = 0; block < blocks; block++)
+			{
+				convertLegacy(samples, legacyBytes, length);
+			}
+			long legacyTime = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			for (int block = 0; block < blocks; block++)
+			{
+				convertBulk(samples, pcmSamples, shortSamples, length);
+			}
+			long bulkTime = System.nanoTime() - start;
+
+			System.out.printf("block %d: legacy %.1f ns/block, bulk %.1f ns/block, speedup %.2fx%n",
+				blockSize, (double) legacyTime / blocks, (double) bulkTime / blocks, (double) legacyTime / bulkTime);
+		}
+	}
+
+	private static void convertLegacy(int[] samples, byte[] byteSamples, int length)
+	{
+		for (int index = 0; index < length; ++index)
+		{
+			int sample = samples[index];
+			if ((sample + 8388608 & -16777216) != 0)
+			{
+				sample = 8388607 ^ sample >> 31;
+			}
+
+			byteSamples[index * 2] = (byte) (sample >> 8);
+			byteSamples[index * 2 + 1] = (byte) (sample >> 16);
+		}
+	}
+
+	private static void convertBulk(int[] samples, short[] pcmSamples, ShortBuffer shortSamples, int length)
+	{
+		DevicePcmPlayer.convertToPcm16(samples, pcmSamples, length);
+		shortSamples.clear();
+		shortSamples.put(pcmSamples, 0, length);
+	}
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright (c) 2023, Rodolfo Ruiz-Velasco <ruizvelascorodolfo@gmail.com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package rs.musicmask.midisynth;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * Checks that {@link PcmRingBuffer} only moves whole frames, wraps around its end, and reports its full and empty states.
+ */
+public class PcmRingBufferTest
+{
+	private static final int FRAME_SIZE = 4;
+
+	private static byte[] sequence(int start, int length)
+	{
+		byte[] data = new byte[length];
+		for (int index = 0; index < length; index++)
+		{
+			data[index] = (byte) (start + index);
+		}
+		return data;
+	}
+
+	@Test
+	public void roundsCapacityUpToWholeFrames()
+	{
+		assertEquals(12, new PcmRingBuffer(10, FRAME_SIZE).capacity());
+		assertEquals(16, new PcmRingBuffer(16, FRAME_SIZE).capacity());
+		assertEquals(FRAME_SIZE, new PcmRingBuffer(0, FRAME_SIZE).capacity());
+	}
+
+	@Test
+	public void emptyBufferReadsNothing()
+	{
+		PcmRingBuffer ringBuffer = new PcmRingBuffer(16, FRAME_SIZE);
+		byte[] data = new byte[16];
+
+		assertEquals(0, ringBuffer.available());
+		assertEquals(0, ringBuffer.read(data, 0, data.length));
+		assertArrayEquals(new byte[16], data);
+	}
+
+	@Test
+	public void fullBufferWritesNothing()
+	{
+		PcmRingBuffer ringBuffer = new PcmRingBuffer(16, FRAME_SIZE);
+
+		assertEquals(16, ringBuffer.write(sequence(0, 24), 0, 24));
+		assertEquals(16, ringBuffer.available());
+		assertEquals(0, ringBuffer.write(sequence(100, 4), 0, 4));
+
+		byte[] data = new byte[16];
+		assertEquals(16, ringBuffer.read(data, 0, data.length));
+		assertArrayEquals(sequence(0, 16), data);
+		assertEquals(0, ringBuffer.available());
+	}
+
+	@Test
+	public void writesOnlyWholeFrames()
+	{
+		PcmRingBuffer ringBuffer = new PcmRingBuffer(16, FRAME_SIZE);
+
+		assertEquals(4, ringBuffer.write(sequence(0, 7), 0, 7));
+		assertEquals(0, ringBuffer.write(sequence(0, 3), 0, 3));
+		assertEquals(8, ringBuffer.write(sequence(4, 9), 0, 9));
+		assertEquals(12, ringBuffer.available());
+
+		assertEquals(4, ringBuffer.write(sequence(12, 6), 0, 6));
+		assertEquals(16, ringBuffer.available());
+	}
+
+	@Test
+	public void readsOnlyWholeFrames()
+	{
+		PcmRingBuffer ringBuffer = new PcmRingBuffer(16, FRAME_SIZE);
+		ringBuffer.write(sequence(0, 12), 0, 12);
+
+		byte[] data = new byte[12];
+		assertEquals(4, ringBuffer.read(data, 0, 7));
+		assertEquals(0, ringBuffer.read(data, 4, 3));
+		assertEquals(8, ringBuffer.read(data, 4, 8));
+		assertArrayEquals(sequence(0, 12), data);
+		assertEquals(0, ringBuffer.available());
+	}
+
+	@Test
+	public void wrapsAroundTheEnd()
+	{
+		PcmRingBuffer ringBuffer = new PcmRingBuffer(16, FRAME_SIZE);
+		byte[] data = new byte[16];
+		ringBuffer.write(sequence(0, 12), 0, 12);
+		ringBuffer.read(data, 0, 8);
+
+		assertEquals(12, ringBuffer.write(sequence(12, 12), 0, 12));
+		assertEquals(16, ringBuffer.available());
+
+		byte[] wrapped = new byte[16];
+		assertEquals(16, ringBuffer.read(wrapped, 0, 16));
+		assertArrayEquals(sequence(8, 16), wrapped);
+	}
+
+	@Test
+	public void wrapsAroundWithPartialFrames()
+	{
+		PcmRingBuffer ringBuffer = new PcmRingBuffer(12, FRAME_SIZE);
+		byte[] input = sequence(0, 240);
+		byte[] output = new byte[240];
+		int written = 0;
+		int read = 0;
+		int step = 0;
+		while (read < output.length)
+		{
+			step++;
+			int writeLength = Math.min(input.length - written, step % 7 + 1);
+			written += ringBuffer.write(input, written, writeLength);
+			int readLength = step % 5 + 1;
+			read += ringBuffer.read(output, read, Math.min(output.length - read, readLength));
+			assertEquals(written - read, ringBuffer.available());
+		}
+
+		assertArrayEquals(input, output);
+	}
+
+	@Test
+	public void movesDataBetweenTwoThreads() throws InterruptedException
+	{
+		PcmRingBuffer ringBuffer = new PcmRingBuffer(64, FRAME_SIZE);
+		byte[] input = sequence(0, 1 << 16);
+		byte[] output = new byte[input.length];
+		Thread writer = new Thread(() ->
+		{
+			int written = 0;
+			while (written < input.length)
+			{
+				int count = ringBuffer.write(input, written, Math.min(input.length - written, 24));
+				if (count == 0)
+				{
+					Thread.yield();
+				}
+				written += count;
+			}
+		});
+		writer.start();
+
+		int read = 0;
+		while (read < output.length)
+		{
+			int count = ringBuffer.read(output, read, Math.min(output.length - read, 20));
+			if (count == 0)
+			{
+				Thread.yield();
+			}
+			read += count;
+		}
+		writer.join();
+
+		assertArrayEquals(input, output);
+	}
+}
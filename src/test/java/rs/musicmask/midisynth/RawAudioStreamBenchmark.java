@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2023, Rodolfo Ruiz-Velasco <ruizvelascorodolfo@gmail.com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package rs.musicmask.midisynth;
+
+import java.util.Random;
+
+/**
+ * A benchmark measuring what one voice costs to render for a block, a volume update followed by
+ * {@link RawAudioStream#fill(int[], int, int)} as the synthesizer does each control tick, against the same calls made
+ * under a per-call monitor as they were when every stream method was synchronized. Both paths are checked to produce
+ * the same samples before they are timed.
+ */
+public class RawAudioStreamBenchmark
+{
+	private static final int VOLUME = 8192;
+
+	private static final int PANNING = 8192;
+
+	public static void main(String[] args)
+	{
+		int voices = args.length > 0 ? Integer.parseInt(args[0]) : 32;
+		int blocks = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+		int blockSize = DevicePcmPlayer.DEFAULT_BLOCK_SIZE;
+
+		AudioDataSource audioDataSource = createLoopingSource(new Random(0));
+		RawAudioStream[] plainStreams = createStreams(audioDataSource, voices);
+		RawAudioStream[] monitoredStreams = createStreams(audioDataSource, voices);
+		int[] plainSamples = new int[blockSize << 1];
+		int[] monitoredSamples = new int[blockSize << 1];
+
+		fillPlain(plainStreams, plainSamples, blockSize);
+		fillMonitored(monitoredStreams, monitoredSamples, blockSize);
+		if (!java.util.Arrays.equals(plainSamples, monitoredSamples) || java.util.Arrays.stream(plainSamples).allMatch(sample -> sample == 0))
+		{
+			throw new IllegalStateException("Monitored fill does not match the plain fill, or is silent");
+		}
+
+		for (int round = 0; round < 3; round++)
+		{
+			long start = System.nanoTime();
+			for (int block = 0; block < blocks; block++)
+			{
+				fillMonitored(monitoredStreams, monitoredSamples, blockSize);
+			}
+			long monitoredTime = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			for (int block = 0; block < blocks; block++)
+			{
+				fillPlain(plainStreams, plainSamples, blockSize);
+			}
+			long plainTime = System.nanoTime() - start;
+
+			double calls = (double) blocks * voices;
+			System.out.printf("%d voices: synchronized %.1f ns/voice/block, plain %.1f ns/voice/block, speedup %.2fx%n",
+				voices, monitoredTime / calls, plainTime / calls, (double) monitoredTime / plainTime);
+		}
+	}
+
+	private static AudioDataSource createLoopingSource(Random random)
+	{
+		AudioDataSource audioDataSource = new AudioDataSource("benchmark", "none");
+		audioDataSource.audioData = new byte[22050];
+		random.nextBytes(audioDataSource.audioData);
+		audioDataSource.sampleRate = 22050;
+		audioDataSource.loopStart = 11025;
+		audioDataSource.loopEnd = audioDataSource.audioData.length;
+		audioDataSource.isLooping = true;
+		audioDataSource.createPaddedAudioData();
+		return audioDataSource;
+	}
+
+	private static RawAudioStream[] createStreams(AudioDataSource audioDataSource, int voices)
+	{
+		RawAudioStream[] streams = new RawAudioStream[voices];
+		for (int voice = 0; voice < voices; voice++)
+		{
+			streams[voice] = RawAudioStream.createSampledAudioStream(audioDataSource, 128 + voice * 7, VOLUME, PANNING);
+			streams[voice].setNumLoops(-1);
+		}
+
+		return streams;
+	}
+
+	private static void fillPlain(RawAudioStream[] streams, int[] samples, int length)
+	{
+		for (RawAudioStream stream : streams)
+		{
+			stream.setDefaultVolumeAndPanning(length, VOLUME, PANNING);
+			stream.fill(samples, 0, length);
+		}
+	}
+
+	private static void fillMonitored(RawAudioStream[] streams, int[] samples, int length)
+	{
+		for (RawAudioStream stream : streams)
+		{
+			synchronized (stream)
+			{
+				stream.setDefaultVolumeAndPanning(length, VOLUME, PANNING);
+			}
+
+			synchronized (stream)
+			{
+				stream.fill(samples, 0, length);
+			}
+		}
+	}
+}
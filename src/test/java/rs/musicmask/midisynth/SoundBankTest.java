@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2023, Rodolfo Ruiz-Velasco <ruizvelascorodolfo@gmail.com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package rs.musicmask.midisynth;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.Test;
+
+/**
+ * Loads patches from the high detail Sound Bank, from one thread and from several at once.
+ */
+public class SoundBankTest
+{
+	private static final String SOUND_BANK_NAME = "RSHD";
+
+	/**
+	 * A patch ID the Sound Bank does not have.
+	 */
+	private static final int MISSING_PATCH = 130;
+
+	@Test
+	public void concurrentLoadsShareOnePatch() throws Exception
+	{
+		SoundBank soundBank = SoundBank.get(SOUND_BANK_NAME);
+		int threads = 4;
+		CountDownLatch start = new CountDownLatch(1);
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try
+		{
+			List<Future<MusicPatch>> loads = new ArrayList<>();
+			for (int thread = 0; thread < threads; thread++)
+			{
+				Callable<MusicPatch> load = () ->
+				{
+					start.await();
+					return soundBank.getPatch(1);
+				};
+				loads.add(executor.submit(load));
+			}
+
+			start.countDown();
+			MusicPatch musicPatch = loads.get(0).get();
+			assertNotNull(musicPatch);
+			for (Future<MusicPatch> load : loads)
+			{
+				assertSame(musicPatch, load.get());
+			}
+			assertSame(musicPatch, soundBank.getPatch(1));
+		}
+		finally
+		{
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void missingPatchCountsAsLoaded() throws Exception
+	{
+		SoundBank soundBank = SoundBank.get(SOUND_BANK_NAME);
+		BitSet patches = new BitSet();
+		patches.set(0);
+		patches.set(MISSING_PATCH);
+
+		soundBank.preload(patches);
+		assertTrue(soundBank.isLoaded(patches));
+		assertNotNull(soundBank.getPatch(0));
+		assertNull(soundBank.getPatch(MISSING_PATCH));
+	}
+}
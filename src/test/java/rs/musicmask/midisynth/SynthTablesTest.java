@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2023, Rodolfo Ruiz-Velasco <ruizvelascorodolfo@gmail.com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package rs.musicmask.midisynth;
+
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Checks the fixed-point tables of {@link SynthTables} against the floating point math they replace, using the bounds
+ * stated in its class documentation.
+ */
+public class SynthTablesTest
+{
+	private static final double CENTS_PER_OCTAVE = 1200.0D;
+
+	private static double centsBetween(double actual, double expected)
+	{
+		return Math.abs(Math.log(actual / expected) / Math.log(2.0D)) * CENTS_PER_OCTAVE;
+	}
+
+	private static double exactExp2(int exponent)
+	{
+		return Math.pow(2.0D, (double) exponent / SynthTables.FIXED_POINT_ONE);
+	}
+
+	@Test
+	public void exp2StaysWithinTruncationBoundFromOne()
+	{
+		for (int exponent = 0; exponent < 14 << SynthTables.FIXED_POINT_BITS; exponent += 7)
+		{
+			double cents = centsBetween(SynthTables.exp2(exponent), exactExp2(exponent) * SynthTables.FIXED_POINT_ONE);
+			assertTrue("exp2(" + exponent + ") is off by " + cents + " cents", cents <= 0.03D);
+		}
+	}
+
+	@Test
+	public void exp2TableStaysWithinInterpolationBound()
+	{
+		for (int exponent = 14 << SynthTables.FIXED_POINT_BITS; exponent < 15 << SynthTables.FIXED_POINT_BITS; exponent++)
+		{
+			double cents = centsBetween(SynthTables.exp2(exponent), exactExp2(exponent) * SynthTables.FIXED_POINT_ONE);
+			assertTrue("exp2(" + exponent + ") is off by " + cents + " cents", cents <= 0.002D);
+		}
+	}
+
+	@Test
+	public void exp2StaysWithinOneUnitBelowOne()
+	{
+		for (int exponent = -20 << SynthTables.FIXED_POINT_BITS; exponent < 0; exponent += 11)
+		{
+			double expected = exactExp2(exponent) * SynthTables.FIXED_POINT_ONE;
+			long actual = SynthTables.exp2(exponent);
+			assertTrue("exp2(" + exponent + ") = " + actual + ", expected " + expected, Math.abs(actual - expected) < 1.0D);
+		}
+	}
+
+	@Test
+	public void scaleByExp2StaysWithinGainBound()
+	{
+		double relativeBound = Math.pow(10.0D, 0.0001D / 20.0D) - 1.0D;
+		for (int value : new int[] {1, 16, 128, 256, 4096, 32767, 65536, 1 << 20, 1 << 24, -8192})
+		{
+			for (int exponent = -20 << SynthTables.FIXED_POINT_BITS; exponent < 4 << SynthTables.FIXED_POINT_BITS; exponent += 13)
+			{
+				double expected = value * exactExp2(exponent);
+				int actual = SynthTables.scaleByExp2(value, exponent);
+				double bound = 0.5D + Math.abs(expected) * relativeBound;
+				assertTrue("scaleByExp2(" + value + ", " + exponent + ") = " + actual + ", expected " + expected, Math.abs(actual - expected) <= bound);
+			}
+		}
+	}
+
+	@Test
+	public void sineRoundsToNearestUnit()
+	{
+		for (int phase = -512; phase < 1024; phase++)
+		{
+			double expected = Math.sin(2.0D * Math.PI * (phase & 511) / 512.0D) * SynthTables.FIXED_POINT_ONE;
+			assertTrue("sine(" + phase + ") = " + SynthTables.sine(phase) + ", expected " + expected, Math.abs(SynthTables.sine(phase) - expected) <= 0.5D + 1.0E-9D);
+		}
+	}
+}